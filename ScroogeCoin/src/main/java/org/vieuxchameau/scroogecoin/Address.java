@@ -0,0 +1,109 @@
+package org.vieuxchameau.scroogecoin;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.PublicKey;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interned address of a recipient. There is a single instance per distinct public key, it carries a
+ * compact id and the encoded bytes of the key so outputs can be serialized and compared without
+ * touching the key itself. An address no longer referenced is dropped from the table, the same key then gives a
+ * new instance with a new id.
+ */
+public final class Address {
+
+    /**
+     * Weak references to the addresses so that the ones no longer used by any output can be collected, their
+     * entries being removed once they are enqueued in {@link #COLLECTED}
+     */
+    private static final ConcurrentMap<PublicKey, InternedReference> INTERNED = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Address> COLLECTED = new ReferenceQueue<>();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final int id;
+    private final PublicKey publicKey;
+    private final byte[] encoded;
+
+    private Address(final PublicKey publicKey) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.publicKey = publicKey;
+        this.encoded = publicKey.getEncoded();
+    }
+
+    /**
+     * @return the unique {@code Address} of {@code publicKey}, two equal keys always give the same instance
+     */
+    public static Address of(final PublicKey publicKey) {
+        removeCollected();
+        while (true) {
+            final InternedReference reference = INTERNED.get(publicKey);
+            final Address interned = reference == null ? null : reference.get();
+            if (interned != null) {
+                return interned;
+            }
+            final Address address = new Address(publicKey);
+            final InternedReference newReference = new InternedReference(address);
+            // another thread may have interned the key meanwhile, its address is then returned by the next attempt
+            if (reference == null ? INTERNED.putIfAbsent(publicKey, newReference) == null
+                    : INTERNED.replace(publicKey, reference, newReference)) {
+                return address;
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct addresses interned and still in use
+     */
+    public static int internedCount() {
+        removeCollected();
+        return INTERNED.size();
+    }
+
+    private static void removeCollected() {
+        for (Reference<? extends Address> reference = COLLECTED.poll(); reference != null; reference = COLLECTED.poll()) {
+            final InternedReference collected = (InternedReference) reference;
+            INTERNED.remove(collected.publicKey, collected);
+        }
+    }
+
+    private static final class InternedReference extends WeakReference<Address> {
+        private final PublicKey publicKey;
+
+        private InternedReference(final Address address) {
+            super(address, COLLECTED);
+            this.publicKey = address.publicKey;
+        }
+    }
+
+    /**
+     * @return the compact id of this address
+     */
+    public int getId() {
+        return id;
+    }
+
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * @return the encoded bytes of the public key, computed once. The returned array must not be modified
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+}
@@ -0,0 +1,122 @@
+package org.vieuxchameau.scroogecoin;
+
+import java.util.Arrays;
+
+/**
+ * Counting Bloom filter of UTXOs. It answers for sure when a UTXO is not in the set and supports removals,
+ * each slot being an 8 bits counter. A saturated counter is never decremented again so it can not produce
+ * false negatives.
+ */
+public class CountingBloomFilter {
+
+    private static final int MAX_COUNT = 0xFF;
+
+    private final byte[] counters;
+    private final int numHashFunctions;
+    private final double falsePositiveRate;
+    private int size;
+
+    /**
+     * Creates a filter sized so that it has a false positive rate of {@code falsePositiveRate} once it
+     * contains {@code expectedSize} UTXOs
+     */
+    public CountingBloomFilter(final int expectedSize, final double falsePositiveRate) {
+        if (expectedSize <= 0) {
+            throw new IllegalArgumentException("expectedSize must be positive: " + expectedSize);
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1: " + falsePositiveRate);
+        }
+        final double ln2 = Math.log(2);
+        final long numCounters = (long) Math.ceil(-expectedSize * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.counters = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(64, numCounters))];
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) counters.length / expectedSize * ln2));
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Creates a copy of {@code filter}
+     */
+    public CountingBloomFilter(final CountingBloomFilter filter) {
+        this.counters = Arrays.copyOf(filter.counters, filter.counters.length);
+        this.numHashFunctions = filter.numHashFunctions;
+        this.falsePositiveRate = filter.falsePositiveRate;
+        this.size = filter.size;
+    }
+
+    public void add(final UTXO utxo) {
+        final long hash = hash(utxo);
+        for (int i = 0; i < numHashFunctions; i++) {
+            final int slot = slot(hash, i);
+            final int count = counters[slot] & MAX_COUNT;
+            if (count < MAX_COUNT) {
+                counters[slot] = (byte) (count + 1);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Removes {@code utxo}, which must have been added before
+     */
+    public void remove(final UTXO utxo) {
+        final long hash = hash(utxo);
+        for (int i = 0; i < numHashFunctions; i++) {
+            final int slot = slot(hash, i);
+            final int count = counters[slot] & MAX_COUNT;
+            if (count > 0 && count < MAX_COUNT) {
+                counters[slot] = (byte) (count - 1);
+            }
+        }
+        size--;
+    }
+
+    /**
+     * @return false if {@code utxo} is definitely not in the filter, true if it may be
+     */
+    public boolean mightContain(final UTXO utxo) {
+        final long hash = hash(utxo);
+        for (int i = 0; i < numHashFunctions; i++) {
+            if (counters[slot(hash, i)] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the false positive rate the filter has been sized for
+     */
+    public double getConfiguredFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * @return the false positive rate expected with the number of UTXOs currently in the filter
+     */
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) numHashFunctions * size / counters.length), numHashFunctions);
+    }
+
+    /**
+     * Double hashing: the i-th slot is derived from the two halves of a single 64 bits hash
+     */
+    private int slot(final long hash, final int i) {
+        final int combined = (int) hash + i * (int) (hash >>> 32);
+        return (combined & Integer.MAX_VALUE) % counters.length;
+    }
+
+    private static long hash(final UTXO utxo) {
+        long hash = utxo.getIndex();
+        for (byte b : utxo.getTxHash()) {
+            hash = hash * 31 + b;
+        }
+        // finalizer of MurmurHash3 to spread the bits over both halves
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
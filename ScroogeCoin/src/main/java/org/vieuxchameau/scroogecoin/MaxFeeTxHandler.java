@@ -27,7 +27,7 @@ public class MaxFeeTxHandler {
             final byte[] rawDataToSign = tx.getRawDataToSign(i);
             final Transaction.Input input = tx.getInput(i);
 
-            final UTXO claimedUTXO = new UTXO(input.prevTxHash, input.outputIndex);
+            final UTXO claimedUTXO = input.getUTXO();
             final Transaction.Output output = ledger.getTxOutput(claimedUTXO);
             if (output == null) { // check #1
                 return false;
@@ -36,7 +36,7 @@ public class MaxFeeTxHandler {
             if (claimedUTXOs.contains(claimedUTXO)) { // check #3
                 return false;
             }
-            if (!Crypto.verifySignature(output.address, rawDataToSign, input.signature)) { // check #2
+            if (!Crypto.verifySignature(output.address.getPublicKey(), rawDataToSign, input.getSignature())) { // check #2
                 return false;
             }
 
@@ -69,7 +69,7 @@ public class MaxFeeTxHandler {
                 return false;
             }
 
-            if (!Crypto.verifySignature(output.address, inputWrapper.rawDataToSign, inputWrapper.input.signature)) { // check #2
+            if (!Crypto.verifySignature(output.address.getPublicKey(), inputWrapper.rawDataToSign, inputWrapper.input.getSignature())) { // check #2
                 return false;
             }
 
@@ -176,9 +176,6 @@ public class MaxFeeTxHandler {
     }
 
     private void updateLedger(final TransactionWrapper validTx, final UTXOPool oneLedger) {
-        // TODO only once ?
-        //validTx.tx.finalize();
-
         for (InputWrapper input : validTx.inputWrappers) {
             oneLedger.removeUTXO(input.claimedUTXO);
         }
@@ -198,18 +195,17 @@ public class MaxFeeTxHandler {
         private TransactionWrapper(final Transaction tx, double outSum) {
             this.tx = tx;
             this.outSum = outSum;
-
+            // finalize first so the data to sign of each input is computed only once
+            tx.finalize();
 
             inputWrappers = new ArrayList<>(tx.numInputs());
             for (int i = 0; i < tx.numInputs(); i++) {
                 final byte[] rawDataToSign = tx.getRawDataToSign(i);
                 final Transaction.Input input = tx.getInput(i);
 
-                final UTXO claimedUTXO = new UTXO(input.prevTxHash, input.outputIndex);
+                final UTXO claimedUTXO = input.getUTXO();
                 inputWrappers.add(new InputWrapper(input, rawDataToSign, claimedUTXO));
             }
-
-            tx.finalize();
         }
 
 
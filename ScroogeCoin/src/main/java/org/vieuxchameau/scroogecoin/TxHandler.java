@@ -29,12 +29,15 @@ public class TxHandler {
      * values; and false otherwise.
      */
     public boolean isValidTx(final Transaction tx) {
+        // The cheap checks come first so that a transaction claiming missing coins, which the pool filter
+        // usually rejects without a lookup, never costs a signature verification
         final Set<UTXO> claimedUTXOs = new HashSet<>(tx.numInputs());
+        final Transaction.Output[] claimedOutputs = new Transaction.Output[tx.numInputs()];
         double inputSum = 0;
         for (int i = 0; i < tx.numInputs(); i++) {
             final Transaction.Input input = tx.getInput(i);
 
-            final UTXO claimedUTXO = new UTXO(input.prevTxHash, input.outputIndex);
+            final UTXO claimedUTXO = input.getUTXO();
             final Transaction.Output output = utxoPool.getTxOutput(claimedUTXO);
             if (output == null) { // check #1
                 show("Tx invalid because coin claimed from input {0} does not exist in the utxoPool", i);
@@ -46,14 +49,8 @@ public class TxHandler {
                 return false;
             }
 
-            final byte[] rawDataToSign = tx.getRawDataToSign(i);
-            if (!Crypto.verifySignature(output.address, rawDataToSign, input.signature)) { // check #2
-                show("Tx invalid because Input {0} signature is not valid", i);
-                return false;
-            }
-
-
             claimedUTXOs.add(claimedUTXO);
+            claimedOutputs[i] = output;
             inputSum += output.value;
         }
 
@@ -71,6 +68,14 @@ public class TxHandler {
             show("Tx invalid because the sum of the output values is greater than the sum of the input value");
             return false;
         }
+
+        for (int i = 0; i < tx.numInputs(); i++) {
+            final byte[] rawDataToSign = tx.getRawDataToSign(i);
+            if (!Crypto.verifySignature(claimedOutputs[i].address.getPublicKey(), rawDataToSign, tx.getInput(i).getSignature())) { // check #2
+                show("Tx invalid because Input {0} signature is not valid", i);
+                return false;
+            }
+        }
         return true;
     }
 
@@ -101,7 +106,7 @@ public class TxHandler {
         validTx.finalize();
 
         for (Transaction.Input input : validTx.getInputs()) {
-            final UTXO claimedUTXO = new UTXO(input.prevTxHash, input.outputIndex);
+            final UTXO claimedUTXO = input.getUTXO();
             utxoPool.removeUTXO(claimedUTXO);
         }
 
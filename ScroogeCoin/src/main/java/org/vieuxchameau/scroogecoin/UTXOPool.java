@@ -3,6 +3,7 @@ package org.vieuxchameau.scroogecoin;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 public class UTXOPool {
 
@@ -11,11 +12,31 @@ public class UTXOPool {
      */
     private HashMap<UTXO, Transaction.Output> H;
 
+    /**
+     * Optional filter rejecting the UTXOs which are definitely not in the pool before looking them up in {@code H}
+     */
+    private final CountingBloomFilter filter;
+    /**
+     * lookups of missing UTXOs, counted from the concurrent readers of the pool
+     */
+    private final LongAdder filterRejections = new LongAdder();
+    private final LongAdder filterFalsePositives = new LongAdder();
+
     /**
      * Creates a new empty UTXOPool
      */
     public UTXOPool() {
         H = new HashMap<UTXO, Transaction.Output>();
+        filter = null;
+    }
+
+    /**
+     * Creates a new empty UTXOPool whose lookups of missing UTXOs are short-circuited by a counting Bloom filter
+     * sized for {@code expectedSize} UTXOs with a false positive rate of {@code falsePositiveRate}
+     */
+    public UTXOPool(int expectedSize, double falsePositiveRate) {
+        H = new HashMap<UTXO, Transaction.Output>();
+        filter = new CountingBloomFilter(expectedSize, falsePositiveRate);
     }
 
     /**
@@ -23,20 +44,25 @@ public class UTXOPool {
      */
     public UTXOPool(UTXOPool uPool) {
         H = new HashMap<UTXO, Transaction.Output>(uPool.H);
+        filter = uPool.filter == null ? null : new CountingBloomFilter(uPool.filter);
     }
 
     /**
      * Adds a mapping from UTXO {@code utxo} to transaction output @code{txOut} to the pool
      */
     public void addUTXO(UTXO utxo, Transaction.Output txOut) {
-        H.put(utxo, txOut);
+        if (H.put(utxo, txOut) == null && filter != null) {
+            filter.add(utxo);
+        }
     }
 
     /**
      * Removes the UTXO {@code utxo} from the pool
      */
     public void removeUTXO(UTXO utxo) {
-        H.remove(utxo);
+        if (H.remove(utxo) != null && filter != null) {
+            filter.remove(utxo);
+        }
     }
 
     /**
@@ -44,14 +70,58 @@ public class UTXOPool {
      * not in the pool.
      */
     public Transaction.Output getTxOutput(UTXO ut) {
-        return H.get(ut);
+        // without filter the lookup itself answers, mightContain would look the UTXO up twice
+        if (filter != null && !mightContain(ut)) {
+            return null;
+        }
+        final Transaction.Output output = H.get(ut);
+        if (output == null && filter != null) {
+            filterFalsePositives.increment();
+        }
+        return output;
     }
 
     /**
      * @return true if UTXO {@code utxo} is in the pool and false otherwise
      */
     public boolean contains(UTXO utxo) {
-        return H.containsKey(utxo);
+        return getTxOutput(utxo) != null;
+    }
+
+    /**
+     * @return false if UTXO {@code utxo} is definitely not in the pool, true if it may be. Without filter it
+     * is the same as {@link #contains(UTXO)}
+     */
+    public boolean mightContain(UTXO utxo) {
+        if (filter == null) {
+            return H.containsKey(utxo);
+        }
+        if (!filter.mightContain(utxo)) {
+            filterRejections.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the false positive rate of the filter measured on the lookups of missing UTXOs made so far, or 0
+     * if there was none. The configured and expected rates are available through {@link #getFilter()}
+     */
+    public double getFilterFalsePositiveRate() {
+        // read once each, the counters may move while they are summed
+        final long falsePositives = filterFalsePositives.sum();
+        final long missingLookups = filterRejections.sum() + falsePositives;
+        if (missingLookups == 0) {
+            return 0;
+        }
+        return (double) falsePositives / missingLookups;
+    }
+
+    /**
+     * @return the filter of this pool or null if it has none
+     */
+    public CountingBloomFilter getFilter() {
+        return filter;
     }
 
     /**
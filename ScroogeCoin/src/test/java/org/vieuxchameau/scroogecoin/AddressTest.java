@@ -0,0 +1,39 @@
+package org.vieuxchameau.scroogecoin;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.security.PublicKey;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AddressTest {
+
+    private final KeyHelper keyHelper = new KeyHelper();
+
+    AddressTest() throws Exception {
+    }
+
+    @DisplayName("The same public key should always be interned to the same address")
+    @Test
+    public void samePublicKeyShouldGiveSameAddress() throws Exception {
+        final PublicKey first = keyHelper.getKeyPair(KeyHelper.SCROOGE).getPublic();
+        final PublicKey second = keyHelper.getKeyPair(KeyHelper.SCROOGE).getPublic();
+
+        final Address address = Address.of(first);
+
+        assertThat(Address.of(second)).isSameAs(address);
+        assertThat(address.getPublicKey()).isEqualTo(first);
+        assertThat(address.getEncoded()).isEqualTo(first.getEncoded());
+    }
+
+    @DisplayName("Different public keys should be interned to different ids")
+    @Test
+    public void differentPublicKeysShouldGiveDifferentIds() throws Exception {
+        final Address scrooge = Address.of(keyHelper.getKeyPair(KeyHelper.SCROOGE).getPublic());
+        final Address donald = Address.of(keyHelper.getKeyPair(KeyHelper.DONALD).getPublic());
+
+        assertThat(scrooge.getId()).isNotEqualTo(donald.getId());
+        assertThat(scrooge).isNotEqualTo(donald);
+    }
+}
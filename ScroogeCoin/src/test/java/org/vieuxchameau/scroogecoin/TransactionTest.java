@@ -0,0 +1,126 @@
+package org.vieuxchameau.scroogecoin;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.security.PublicKey;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransactionTest {
+    private final KeyHelper keyHelper = new KeyHelper();
+    private final PublicKey scroogePublicKey;
+
+    TransactionTest() throws Exception {
+        scroogePublicKey = keyHelper.getKeyPair(KeyHelper.SCROOGE).getPublic();
+    }
+
+    @DisplayName("A finalized transaction should not be modifiable")
+    @Test
+    public void finalizedTransactionShouldBeFrozen() throws Exception {
+        final Transaction tx = new Transaction();
+        tx.addOutput(42, scroogePublicKey);
+        tx.finalize();
+
+        assertThat(tx.isFinalized()).isTrue();
+        assertThatThrownBy(() -> tx.addOutput(5, scroogePublicKey)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> tx.addInput(tx.getHash(), 0)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @DisplayName("A finalized transaction should not expose its state for modification")
+    @Test
+    public void finalizedTransactionShouldNotLeakMutableState() throws Exception {
+        final Transaction coin = new Transaction.Builder()
+                .addOutput(42, scroogePublicKey)
+                .build();
+        final Transaction tx = new Transaction();
+        tx.addInput(coin.getHash(), 0);
+        tx.addOutput(42, scroogePublicKey);
+        tx.addSignature(keyHelper.sign(KeyHelper.SCROOGE, tx.getRawDataToSign(0)), 0);
+        tx.finalize();
+        final byte[] hash = tx.getHash().clone();
+        final byte[] signature = tx.getInput(0).getSignature();
+
+        tx.getRawTx()[0] ^= 1;
+        tx.getRawDataToSign(0)[0] ^= 1;
+        tx.getInput(0).getSignature()[0] ^= 1;
+
+        assertThatThrownBy(() -> tx.setHash(new byte[32])).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> tx.getInputs().clear()).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> tx.getOutputs().remove(0)).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> tx.addSignature(signature, 0)).isInstanceOf(IllegalStateException.class);
+        assertThat(tx.getHash()).isEqualTo(hash);
+        assertThat(tx.getInput(0).getSignature()).isEqualTo(signature);
+        assertThat(Crypto.verifySignature(scroogePublicKey, tx.getRawDataToSign(0), signature)).isTrue();
+    }
+
+    @DisplayName("Finalizing twice should keep the same hash")
+    @Test
+    public void finalizeShouldBeComputedOnce() throws Exception {
+        final Transaction tx = new Transaction();
+        tx.addOutput(42, scroogePublicKey);
+        tx.finalize();
+        final byte[] hash = tx.getHash();
+
+        tx.finalize();
+
+        assertThat(tx.getHash()).isEqualTo(hash);
+    }
+
+    @DisplayName("A finalized transaction should not be modified through the arrays it hands out")
+    @Test
+    public void finalizedTransactionShouldNotShareItsArrays() throws Exception {
+        final Transaction coin = new Transaction();
+        coin.addOutput(42, scroogePublicKey);
+        coin.finalize();
+        final Transaction tx = new Transaction();
+        tx.addInput(coin.getHash(), 0);
+        tx.addOutput(42, scroogePublicKey);
+        tx.finalize();
+        final byte[] hash = tx.getHash().clone();
+        final byte[] prevTxHash = tx.getInput(0).getPrevTxHash().clone();
+
+        tx.getHash()[0]++;
+        tx.getInput(0).getPrevTxHash()[0]++;
+
+        assertThat(tx.getHash()).isEqualTo(hash);
+        assertThat(tx.getInput(0).getPrevTxHash()).isEqualTo(prevTxHash);
+        assertThat(tx.getInput(0).getUTXO()).isEqualTo(new UTXO(coin.getHash(), 0));
+    }
+
+    @DisplayName("There should be no data to sign past the last input")
+    @Test
+    public void noDataToSignPastTheLastInput() throws Exception {
+        final Transaction tx = new Transaction();
+        tx.addInput(new byte[32], 0);
+        tx.addOutput(42, scroogePublicKey);
+        tx.finalize();
+
+        assertThat(tx.getRawDataToSign(1)).isNull();
+    }
+
+    @DisplayName("The builder should produce the same finalized transaction as the mutable api")
+    @Test
+    public void builderShouldProduceFinalizedTransaction() throws Exception {
+        final Transaction coin = new Transaction.Builder()
+                .addOutput(42, scroogePublicKey)
+                .build();
+
+        final Transaction.Builder builder = new Transaction.Builder()
+                .addInput(coin.getHash(), 0)
+                .addOutput(42, keyHelper.getKeyPair(KeyHelper.DONALD).getPublic());
+        builder.addSignature(keyHelper.sign(KeyHelper.SCROOGE, builder.getRawDataToSign(0)), 0);
+        final Transaction built = builder.build();
+
+        final Transaction tx = new Transaction();
+        tx.addInput(coin.getHash(), 0);
+        tx.addOutput(42, keyHelper.getKeyPair(KeyHelper.DONALD).getPublic());
+        tx.addSignature(keyHelper.sign(KeyHelper.SCROOGE, tx.getRawDataToSign(0)), 0);
+        tx.finalize();
+
+        assertThat(built.isFinalized()).isTrue();
+        assertThat(built.getHash()).isEqualTo(tx.getHash());
+        assertThat(built.getRawDataToSign(0)).isEqualTo(tx.getRawDataToSign(0));
+    }
+}
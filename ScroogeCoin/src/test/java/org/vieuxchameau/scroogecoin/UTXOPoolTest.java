@@ -0,0 +1,62 @@
+package org.vieuxchameau.scroogecoin;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.security.PublicKey;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UTXOPoolTest {
+    private final KeyHelper keyHelper = new KeyHelper();
+    private final UTXOPool utxoPool = new UTXOPool(100, 0.01);
+    private final Transaction transaction = new Transaction();
+
+    UTXOPoolTest() throws Exception {
+        final PublicKey scroogePublicKey = keyHelper.getKeyPair(KeyHelper.SCROOGE).getPublic();
+        for (int i = 0; i < 100; i++) {
+            transaction.addOutput(i, scroogePublicKey);
+        }
+        transaction.finalize();
+    }
+
+    @DisplayName("The filter should never reject a UTXO of the pool")
+    @Test
+    public void filterShouldNotRejectExistingUTXO() throws Exception {
+        for (int i = 0; i < transaction.numOutputs(); i++) {
+            utxoPool.addUTXO(new UTXO(transaction.getHash(), i), transaction.getOutput(i));
+        }
+
+        for (int i = 0; i < transaction.numOutputs(); i++) {
+            final UTXO utxo = new UTXO(transaction.getHash(), i);
+            assertThat(utxoPool.mightContain(utxo)).isTrue();
+            assertThat(utxoPool.getTxOutput(utxo)).isSameAs(transaction.getOutput(i));
+        }
+    }
+
+    @DisplayName("A removed UTXO should not be found any more")
+    @Test
+    public void removedUTXOShouldBeMissing() throws Exception {
+        final UTXO utxo = new UTXO(transaction.getHash(), 0);
+        utxoPool.addUTXO(utxo, transaction.getOutput(0));
+
+        utxoPool.removeUTXO(utxo);
+
+        assertThat(utxoPool.mightContain(utxo)).isFalse();
+        assertThat(utxoPool.getTxOutput(utxo)).isNull();
+        assertThat(utxoPool.contains(utxo)).isFalse();
+    }
+
+    @DisplayName("A copy of the pool should keep its filter")
+    @Test
+    public void copyShouldKeepFilter() throws Exception {
+        final UTXO utxo = new UTXO(transaction.getHash(), 0);
+        utxoPool.addUTXO(utxo, transaction.getOutput(0));
+
+        final UTXOPool copy = new UTXOPool(utxoPool);
+
+        assertThat(copy.getFilter()).isNotNull();
+        assertThat(copy.contains(utxo)).isTrue();
+        assertThat(copy.getFilter().getConfiguredFalsePositiveRate()).isEqualTo(0.01);
+    }
+}
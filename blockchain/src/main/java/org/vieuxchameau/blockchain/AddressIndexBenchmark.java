@@ -0,0 +1,92 @@
+package org.vieuxchameau.blockchain;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Random;
+
+/**
+ * Measures the memory taken by the address index of a {@link UTXOPool} and the time of balance queries and
+ * coin selections with and without it
+ * <p>
+ * Arguments: number of UTXOs (default 1000000), number of addresses (default 10000), seed (default 1).
+ */
+public class AddressIndexBenchmark {
+
+    private static final int QUERIES = 1000;
+
+    public static void main(final String[] args) throws GeneralSecurityException {
+        final int numUTXOs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int numAddresses = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        final Random random = new Random(args.length > 2 ? Long.parseLong(args[2]) : 1);
+
+        // the keys only need to be distinct, random moduli are enough
+        final KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        final Address[] addresses = new Address[numAddresses];
+        final PublicKey[] keys = new PublicKey[numAddresses];
+        for (int i = 0; i < numAddresses; i++) {
+            keys[i] = keyFactory.generatePublic(new RSAPublicKeySpec(new BigInteger(1024, random).setBit(1023).setBit(0), BigInteger.valueOf(65537)));
+            addresses[i] = Address.of(keys[i]);
+        }
+
+        final long usedBefore = usedMemory();
+        final UTXOPool utxoPool = new UTXOPool();
+        final Transaction tx = new Transaction();
+        for (int i = 0; i < numUTXOs; i++) {
+            final byte[] txHash = new byte[32];
+            random.nextBytes(txHash);
+            final Transaction.Output output = tx.new Output(random.nextInt(10_000) / 100.0, keys[random.nextInt(numAddresses)]);
+            utxoPool.addUTXO(new UTXO(txHash, 0), output);
+        }
+        final long poolMemory = usedMemory() - usedBefore;
+
+        final long scanStart = System.nanoTime();
+        double scannedBalance = 0;
+        for (int i = 0; i < QUERIES / 100; i++) {
+            scannedBalance += utxoPool.getBalance(addresses[i]);
+        }
+        final double scanMicros = (System.nanoTime() - scanStart) / 1e3 / (QUERIES / 100);
+
+        final long indexStart = System.nanoTime();
+        utxoPool.indexAddresses();
+        final double indexMillis = (System.nanoTime() - indexStart) / 1e6;
+        final long indexMemory = usedMemory() - usedBefore - poolMemory;
+
+        final long balanceStart = System.nanoTime();
+        double indexedBalance = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            final double balance = utxoPool.getBalance(addresses[i % numAddresses]);
+            if (i < QUERIES / 100) {
+                indexedBalance += balance;
+            }
+        }
+        final double balanceMicros = (System.nanoTime() - balanceStart) / 1e3 / QUERIES;
+
+        final long selectionStart = System.nanoTime();
+        int numSelected = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            final Address address = addresses[i % numAddresses];
+            if (utxoPool.selectCoins(address, utxoPool.getBalance(address) / 2, utxo -> true) != null) {
+                numSelected++;
+            }
+        }
+        final double selectionMicros = (System.nanoTime() - selectionStart) / 1e3 / QUERIES;
+
+        System.out.println(numUTXOs + " UTXOs over " + numAddresses + " addresses");
+        System.out.println("pool: " + poolMemory / (1024 * 1024) + " MB, address index: " + indexMemory / (1024 * 1024) + " MB"
+                + " (" + indexMemory / numUTXOs + " bytes per UTXO), built in " + indexMillis + " ms");
+        System.out.println("balance by scan: " + scanMicros + " us, by index: " + balanceMicros + " us"
+                + (Math.abs(scannedBalance - indexedBalance) < 1e-6 ? "" : ", the balances differ"));
+        System.out.println("coin selection by index: " + selectionMicros + " us, " + numSelected + " selections");
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
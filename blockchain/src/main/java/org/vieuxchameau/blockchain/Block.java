@@ -1,21 +1,53 @@
 package org.vieuxchameau.blockchain;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Stores the block data structure
+ * <p>
+ * The hash of a block is the SHA-256 of its fixed size header: the previous block hash (zeros for a genesis
+ * block), the root of the {@link MerkleTree} over the hashes of the coinbase then of the transactions, the
+ * difficulty and the nonce. The first two fields fill exactly one SHA-256 block, so a miner can hash them once and
+ * only hash the last {@code 12} bytes for each nonce.
+ * <p>
+ * A light client holding the header can check that a transaction is in the block with {@link #getProof(byte[])}.
  */
 public class Block {
 
     public static final double COINBASE = 25;
+    private static final int HASH_SIZE = 32;
+    /**
+     * size of the part of the header which does not depend on the difficulty and the nonce
+     */
+    public static final int HEADER_PREFIX_SIZE = 2 * HASH_SIZE;
+    public static final int HEADER_SIZE = HEADER_PREFIX_SIZE + Integer.BYTES + Long.BYTES;
+    /**
+     * highest difficulty, every bit of the hash being zero
+     */
+    public static final int MAX_DIFFICULTY = HASH_SIZE * 8;
 
     private byte[] hash;
     private byte[] prevBlockHash;
+    /**
+     * number of leading zero bits the hash must have
+     */
+    private int difficulty;
+    private long nonce;
     private Transaction coinbase;
     private ArrayList<Transaction> txs;
+    private final MerkleTree merkleTree = new MerkleTree();
+    /**
+     * index of the leaf of each hash in {@code merkleTree}, the first one if several leaves share it
+     */
+    private final Map<ByteArrayWrapper, Integer> leafIndexes = new HashMap<>();
 
     /**
      * {@code address} is the address to which the coinbase transaction would go
@@ -24,6 +56,12 @@ public class Block {
         prevBlockHash = prevHash;
         coinbase = new Transaction(COINBASE, address);
         txs = new ArrayList<Transaction>();
+        appendLeaf(coinbase.getHash());
+    }
+
+    private void appendLeaf(final byte[] txHash) {
+        leafIndexes.putIfAbsent(new ByteArrayWrapper(txHash), merkleTree.getNumLeaves());
+        merkleTree.append(txHash);
     }
 
     public Transaction getCoinbase() {
@@ -38,16 +76,79 @@ public class Block {
         return prevBlockHash;
     }
 
-    public ArrayList<Transaction> getTransactions() {
-        return txs;
+    /**
+     * @return a read-only view of the transactions, which are added with {@link #addTransaction(Transaction)}
+     */
+    public List<Transaction> getTransactions() {
+        return Collections.unmodifiableList(txs);
+    }
+
+    public int getDifficulty() {
+        return difficulty;
+    }
+
+    /**
+     * @param difficulty number of leading zero bits the hash of the block must have, from 0 to 256
+     */
+    public void setDifficulty(int difficulty) {
+        checkDifficulty(difficulty);
+        this.difficulty = difficulty;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code difficulty} is not between 0 and {@link #MAX_DIFFICULTY}
+     */
+    public static void checkDifficulty(int difficulty) {
+        if (difficulty < 0 || difficulty > MAX_DIFFICULTY) {
+            throw new IllegalArgumentException("The difficulty must be between 0 and " + MAX_DIFFICULTY + ": " + difficulty);
+        }
+    }
+
+    public long getNonce() {
+        return nonce;
+    }
+
+    public void setNonce(long nonce) {
+        this.nonce = nonce;
     }
 
     public Transaction getTransaction(int index) {
         return txs.get(index);
     }
 
+    /**
+     * Finalizes {@code tx}, if it is not yet, and appends its hash to the Merkle tree
+     */
     public void addTransaction(Transaction tx) {
+        tx.finalize();
         txs.add(tx);
+        appendLeaf(tx.getHash());
+    }
+
+    /**
+     * Same as {@link #addTransaction(Transaction)} for each transaction, hashing the new Merkle tree nodes in
+     * parallel
+     */
+    public void addTransactions(final List<Transaction> transactions) {
+        final List<byte[]> txHashes = new ArrayList<>(transactions.size());
+        for (Transaction tx : transactions) {
+            tx.finalize();
+            txHashes.add(tx.getHash());
+            leafIndexes.putIfAbsent(new ByteArrayWrapper(tx.getHash()), merkleTree.getNumLeaves() + txHashes.size() - 1);
+        }
+        txs.addAll(transactions);
+        merkleTree.appendAll(txHashes);
+    }
+
+    /**
+     * @return the proof that the coinbase or the transaction with {@code txHash} is in this block, null if it is not
+     */
+    public MerkleTree.Proof getProof(final byte[] txHash) {
+        if (txHash == null) {
+            return null;
+        }
+        final Integer index = leafIndexes.get(new ByteArrayWrapper(txHash));
+        return index == null ? null : merkleTree.getProof(index);
     }
 
     public byte[] getRawBlock() {
@@ -70,13 +171,77 @@ public class Block {
         return raw;
     }
 
-    public void finalize() {
+    /**
+     * @return the root of the Merkle tree over the hashes of the coinbase then of the transactions, in order
+     */
+    public byte[] getTransactionsCommitment() {
+        return merkleTree.getRoot();
+    }
+
+    /**
+     * @return the header of this block with {@code nonce} in place of its own
+     */
+    public byte[] getHeader(final long nonce) {
+        return getHeader(getTransactionsCommitment(), nonce);
+    }
+
+    /**
+     * @return the header of this block with its current nonce, to be sent ahead of the transactions
+     */
+    public BlockHeader getBlockHeader() {
+        return new BlockHeader(getHeader(nonce));
+    }
+
+    private byte[] getHeader(final byte[] transactionsCommitment, final long nonce) {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(prevBlockHash != null ? prevBlockHash : new byte[HASH_SIZE]);
+        header.put(transactionsCommitment);
+        header.putInt(difficulty);
+        header.putLong(nonce);
+        return header.array();
+    }
+
+    /**
+     * The transactions are finalized when added and can only be added through this block, so the root of its
+     * Merkle tree always commits to them.
+     *
+     * @return true if the hash of this block is the hash of its header and has at least {@code difficulty}
+     * leading zero bits
+     */
+    public boolean hasValidProofOfWork() {
+        if (hash == null || !meetsDifficulty(hash, difficulty)) {
+            return false;
+        }
+        return MessageDigest.isEqual(hash, newDigest().digest(getHeader(nonce)));
+    }
+
+    /**
+     * @return true if {@code hash} starts with at least {@code difficulty} zero bits
+     */
+    public static boolean meetsDifficulty(final byte[] hash, final int difficulty) {
+        int i = 0;
+        for (; i < difficulty / 8; i++) {
+            if (hash[i] != 0) {
+                return false;
+            }
+        }
+        final int remainingBits = difficulty % 8;
+        return remainingBits == 0 || (hash[i] & 0xFF) >>> (8 - remainingBits) == 0;
+    }
+
+    static MessageDigest newDigest() {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawBlock());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
         }
     }
+
+    /**
+     * Computes the hash of the block with its current nonce, without checking it meets the difficulty.
+     * See {@link Miner} to find a nonce which does.
+     */
+    public void finalize() {
+        hash = newDigest().digest(getHeader(nonce));
+    }
 }
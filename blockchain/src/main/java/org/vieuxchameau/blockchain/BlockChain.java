@@ -1,62 +1,503 @@
 package org.vieuxchameau.blockchain;
 
+import java.security.PublicKey;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 /**
  * Block Chain should maintain only limited block nodes to satisfy the functions
  * You should not have all the blocks added to the block chain in memory
  * as it would cause a memory overflow.
+ * <p>
+ * Transactions are validated when they are added to the transaction pool, against the UTXO pool of the max
+ * height block and the outputs of the pooled transactions, so the pool only holds transactions ready to be
+ * put in a block. The signatures are verified on a shared pool of worker threads, outside of the lock of the
+ * block chain, while the rest of the admission is done under it.
+ * <p>
+ * The block chain keeps a single UTXO pool, updated in place, and each block node keeps the {@link UndoRecord}
+ * of its block. The pool is at the max height block between two calls. Adding a block to another branch moves
+ * the pool back to the fork point and forward to the parent of the block, then back to the max height block if
+ * the new block does not replace it. The memory is proportional to the changes made by the retained blocks
+ * rather than to {@code CUT_OFF_AGE} copies of the UTXO pool, at the cost of these moves for blocks added to
+ * other branches. The UTXOs after another block are read through the same undo records, see
+ * {@link #getUTXOPoolAt(byte[])}.
+ * <p>
+ * The block nodes only keep the {@link BlockHeader}s, the bodies of the validated blocks being in a
+ * {@link BlockStore} from which they are loaded when their transactions are needed. The default
+ * {@link MemoryBlockStore} keeps them in memory all the same, an {@link LSMBlockStore} set with
+ * {@link #setBlockStore(BlockStore)} releases them. For a headers-first sync, the headers can be added ahead of the
+ * blocks with {@link #addHeaders(List)}: they are checked and linked to the tree without changing the max height
+ * block, which only moves to validated blocks, and {@link #getMissingBodies(int)} then lists the blocks to fetch,
+ * which can be added in batches with {@link #addBlocks(List)}. A header-only node takes about 150 bytes, and their
+ * number is bounded, see {@link #setMaxHeaderOnlyNodes(int)}. A block whose body is invalid is remembered as such
+ * and the header-only nodes above it are dropped, so the best header falls back to another branch.
+ * <p>
+ * Only the window of {@code CUT_OFF_AGE} blocks below the max height block can be extended: the branches which
+ * fall behind it are dropped with their bodies, and the undo records of the max height branch are dropped below
+ * the lowest fork point which can still be reorganized to. The nodes of the max height branch stay, with their
+ * headers only.
  */
 public class BlockChain {
     private class BlockNode {
-        final Block block;
-        final UTXOPool utxoPool;
+        final BlockHeader header;
+        /**
+         * null while only the header is known
+         */
+        UndoRecord undo;
+        /**
+         * hash of the UTXO set after the block, null while only the header is known
+         */
+        UTXOSetHash utxoSetHash;
         final BlockNode parent;
-        final List<BlockNode> children = new ArrayList<>();
+        /**
+         * Ancestor further down the branch, see {@link #getSkipHeight(int)}, used to reach any ancestor in O(log n)
+         */
+        final BlockNode skip;
         final int height;
+        /**
+         * Order in which the blocks have been received, the oldest tip wins among tips of the same height
+         */
+        final long arrival;
 
-        private BlockNode(final Block block, final UTXOPool utxoPool, final BlockNode parent, final int height) {
-            this.block = block;
-            this.utxoPool = utxoPool;
+        private BlockNode(final BlockHeader header, final UndoRecord undo, final UTXOSetHash utxoSetHash, final BlockNode parent, final int height) {
+            this.header = header;
+            this.undo = undo;
+            this.utxoSetHash = utxoSetHash;
             this.parent = parent;
             this.height = height;
+            this.skip = parent == null ? null : parent.getAncestor(getSkipHeight(height));
+            this.arrival = nextArrival++;
+        }
+
+        /**
+         * @return true once the block has been validated, its ancestors being then validated too
+         */
+        boolean hasBody() {
+            return undo != null;
+        }
+
+        /**
+         * @return the ancestor of this node at {@code ancestorHeight}, this node itself at its own height,
+         * or null if {@code ancestorHeight} is not between 0 and the height of this node
+         */
+        BlockNode getAncestor(final int ancestorHeight) {
+            if (ancestorHeight > height || ancestorHeight < 0) {
+                return null;
+            }
+            BlockNode walk = this;
+            int heightWalk = height;
+            while (heightWalk > ancestorHeight) {
+                final int heightSkip = getSkipHeight(heightWalk);
+                final int heightSkipPrev = getSkipHeight(heightWalk - 1);
+                // follow the skip pointer unless it jumps past the target while the parent's one would not
+                if (walk.skip != null && (heightSkip == ancestorHeight
+                        || (heightSkip > ancestorHeight && !(heightSkipPrev < heightSkip - 2 && heightSkipPrev >= ancestorHeight)))) {
+                    walk = walk.skip;
+                    heightWalk = heightSkip;
+                } else {
+                    walk = walk.parent;
+                    heightWalk--;
+                }
+            }
+            return walk;
+        }
+    }
+
+    /**
+     * Height of the skip pointer of a node at {@code height}: its lowest set bits are cleared so the skip
+     * pointers form a skip list over each branch (same scheme as Bitcoin Core)
+     */
+    private static int getSkipHeight(final int height) {
+        if (height < 2) {
+            return 0;
+        }
+        return (height & 1) != 0 ? invertLowestOne(invertLowestOne(height - 1)) + 1 : invertLowestOne(height);
+    }
+
+    private static int invertLowestOne(final int n) {
+        return n & (n - 1);
+    }
+
+    /**
+     * A branch competing with the max height branch
+     */
+    public static class Fork {
+        private final Block tip;
+        private final int height;
+        private final Block forkPoint;
+        private final int forkPointHeight;
+
+        private Fork(final Block tip, final int height, final Block forkPoint, final int forkPointHeight) {
+            this.tip = tip;
+            this.height = height;
+            this.forkPoint = forkPoint;
+            this.forkPointHeight = forkPointHeight;
+        }
+
+        public Block getTip() {
+            return tip;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return the last block shared with the max height branch
+         */
+        public Block getForkPoint() {
+            return forkPoint;
+        }
+
+        /**
+         * @return the number of blocks of this branch since the fork point
+         */
+        public int getLength() {
+            return height - forkPointHeight;
+        }
+    }
+
+    /**
+     * Read-only UTXOs after the block of {@code node}: the UTXO pool of the block chain seen through the changes
+     * from the block it is at to {@code node}, computed from the undo records when the pool has moved. Lookups
+     * are made under the lock of the block chain, so the view can be read while blocks are added, and only the
+     * iteration copies the UTXOs.
+     */
+    private class StateView extends AbstractMap<UTXO, Transaction.Output> {
+        private final BlockNode node;
+        /**
+         * block the pool was at when {@code changes} have been computed
+         */
+        private BlockNode base;
+        /**
+         * UTXOs which differ between the pool and the view, mapped to null when they are not in the view
+         */
+        private Map<UTXO, Transaction.Output> changes;
+
+        private StateView(final BlockNode node) {
+            this.node = node;
+        }
+
+        private Map<UTXO, Transaction.Output> getChanges() {
+            if (base != stateNode) {
+                base = stateNode;
+                changes = new HashMap<>();
+                final BlockNode forkPoint = getCommonAncestor(stateNode, node);
+                for (BlockNode walk = stateNode; walk != forkPoint; walk = walk.parent) {
+                    checkUndoRecord(walk);
+                    walk.undo.undo(changes::put);
+                }
+                final Deque<BlockNode> branch = new ArrayDeque<>(node.height - forkPoint.height);
+                for (BlockNode walk = node; walk != forkPoint; walk = walk.parent) {
+                    checkUndoRecord(walk);
+                    branch.push(walk);
+                }
+                for (BlockNode walk : branch) {
+                    walk.undo.redo(changes::put);
+                }
+            }
+            return changes;
+        }
+
+        private void checkUndoRecord(final BlockNode walk) {
+            if (walk.undo == PRUNED_UNDO) {
+                throw new IllegalStateException("The block of the view has fallen too far behind the max height block");
+            }
+        }
+
+        @Override
+        public Transaction.Output get(final Object key) {
+            if (!(key instanceof UTXO)) {
+                return null;
+            }
+            synchronized (BlockChain.this) {
+                final Map<UTXO, Transaction.Output> changes = getChanges();
+                return changes.containsKey(key) ? changes.get(key) : utxoPool.getTxOutput((UTXO) key);
+            }
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            synchronized (BlockChain.this) {
+                int size = utxoPool.size();
+                for (Map.Entry<UTXO, Transaction.Output> change : getChanges().entrySet()) {
+                    final boolean inPool = utxoPool.contains(change.getKey());
+                    if (inPool && change.getValue() == null) {
+                        size--;
+                    } else if (!inPool && change.getValue() != null) {
+                        size++;
+                    }
+                }
+                return size;
+            }
+        }
+
+        /**
+         * @return a snapshot of the UTXOs of the view
+         */
+        @Override
+        public Set<Map.Entry<UTXO, Transaction.Output>> entrySet() {
+            final Map<UTXO, Transaction.Output> utxos = new HashMap<>();
+            synchronized (BlockChain.this) {
+                final Map<UTXO, Transaction.Output> changes = getChanges();
+                utxoPool.forEach((utxo, output) -> {
+                    if (!changes.containsKey(utxo)) {
+                        utxos.put(utxo, output);
+                    }
+                });
+                for (Map.Entry<UTXO, Transaction.Output> change : changes.entrySet()) {
+                    if (change.getValue() != null) {
+                        utxos.put(change.getKey(), change.getValue());
+                    }
+                }
+            }
+            return Collections.unmodifiableMap(utxos).entrySet();
         }
     }
 
     public static final int CUT_OFF_AGE = 10;
+    public static final int DEFAULT_MAX_HEADER_ONLY_NODES = 1 << 18;
+    /**
+     * number of hashes of invalid blocks remembered
+     */
+    private static final int MAX_INVALID_BLOCKS = 1 << 10;
+    /**
+     * undo record of the nodes of the max height branch which are never undone any more, empty
+     */
+    private static final UndoRecord PRUNED_UNDO = new UndoRecord();
+    private static final ExecutorService ADMISSION_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("transaction-admission"));
     private final TransactionPool transactionPool = new TransactionPool();
     private final Map<ByteArrayWrapper, BlockNode> blocks = new HashMap<>();
+    /**
+     * Leaves of the block tree which can still be extended, highest first then oldest first
+     */
+    private final NavigableSet<BlockNode> tips = new TreeSet<>(
+            Comparator.<BlockNode>comparingInt(node -> -node.height).thenComparingLong(node -> node.arrival));
     private BlockNode maxHeightBlock;
+    /**
+     * highest node, with or without its body, the oldest one among the nodes of the same height
+     */
+    private BlockNode bestHeader;
+    private int numHeaderOnlyNodes;
+    private int maxHeaderOnlyNodes = DEFAULT_MAX_HEADER_ONLY_NODES;
+    /**
+     * hashes of the blocks whose transactions have been found invalid, the most recent ones
+     */
+    private final Set<ByteArrayWrapper> invalidBlocks = Collections.newSetFromMap(new LinkedHashMap<ByteArrayWrapper, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<ByteArrayWrapper, Boolean> eldest) {
+            return size() > MAX_INVALID_BLOCKS;
+        }
+    });
+    private BlockStore blockStore = new MemoryBlockStore();
+    /**
+     * UTXO pool after the block of {@code stateNode}
+     */
+    private final UTXOPool utxoPool;
+    private BlockNode stateNode;
+    /**
+     * height up to which the undo records of the max height branch have been dropped
+     */
+    private int prunedHeight;
+    /**
+     * the transactions of the max height branch
+     */
+    private TransactionIndex transactionIndex = new TransactionIndex(1024);
+    private long nextArrival;
+    private int minimumDifficulty;
 
 
     /**
      * create an empty block chain with just a genesis block. Assume {@code genesisBlock} is a valid
      * block
+     * <p>
+     * The UTXOs are held in memory and indexed by address.
      */
     public BlockChain(final Block genesisBlock) {
+        this(genesisBlock, newIndexedUTXOPool());
+    }
+
+    private static UTXOPool newIndexedUTXOPool() {
+        final UTXOPool utxoPool = new UTXOPool();
+        utxoPool.indexAddresses();
+        return utxoPool;
+    }
+
+    /**
+     * create an empty block chain with just a genesis block whose UTXOs are kept in {@code utxoPool}, which must
+     * be empty, for instance a pool backed by a {@link UTXOCache} so that the outputs of most of the UTXOs stay
+     * on disk. The pool is flushed once the chain has settled after each added block or batch of blocks, at the
+     * max height block, so the store never holds the changes of part of a block nor of a rejected one.
+     * <p>
+     * The balances and coin selection scan the whole pool unless it has been
+     * {@linkplain UTXOPool#indexAddresses() indexed by address} beforehand, the index holding every UTXO in
+     * memory.
+     */
+    public BlockChain(final Block genesisBlock, final UTXOPool utxoPool) {
+        if (utxoPool.size() != 0) {
+            throw new IllegalArgumentException("The UTXO pool of a new block chain must be empty");
+        }
+        this.utxoPool = utxoPool;
         final byte[] hash = genesisBlock.getHash();
-        final BlockNode genesisNode = new BlockNode(genesisBlock, new UTXOPool(), null, 0);
+        utxoPool.trackSetHash();
+        final UndoRecord undo = new UndoRecord();
+        addCoinBaseTxToUTXOPool(genesisBlock.getCoinbase(), undo);
+        undo.trim();
+        final BlockNode genesisNode = new BlockNode(genesisBlock.getBlockHeader(), undo, utxoPool.getSetHash(), null, 0);
         blocks.put(new ByteArrayWrapper(hash), genesisNode);
+        blockStore.put(genesisBlock);
+        tips.add(genesisNode);
         maxHeightBlock = genesisNode;
-
-        addCoinBaseTxToUTXOPool(genesisBlock.getCoinbase(), genesisNode.utxoPool);
+        bestHeader = genesisNode;
+        stateNode = genesisNode;
+        indexTransactions(genesisNode);
+        utxoPool.flush();
     }
 
     /**
      * Get the maximum height block
      */
-    public Block getMaxHeightBlock() {
-        return maxHeightBlock.block;
+    public synchronized Block getMaxHeightBlock() {
+        return loadBlock(maxHeightBlock);
+    }
+
+    /**
+     * @return the header of the highest block known, which may be above the max height block if its header
+     * has been added ahead of its body
+     */
+    public synchronized BlockHeader getBestHeader() {
+        return bestHeader.header;
+    }
+
+    private Block loadBlock(final BlockNode node) {
+        final Block block = blockStore.get(node.header.getHash());
+        if (block == null) {
+            throw new IllegalStateException("The body of a validated block is missing from the block store");
+        }
+        return block;
+    }
+
+    /**
+     * Stores the bodies of the validated blocks in {@code blockStore}, copying the ones of the current store
+     */
+    public synchronized void setBlockStore(final BlockStore blockStore) {
+        for (BlockNode node : blocks.values()) {
+            if (node.hasBody()) {
+                blockStore.put(loadBlock(node));
+            }
+        }
+        this.blockStore = blockStore;
     }
 
     /**
      * Get the UTXOPool for mining a new block on top of max height block
+     *
+     * @return a copy held in memory, the UTXO pool of the block chain being updated in place as blocks are
+     * added. For a large pool, {@link #getUTXOPoolAt(byte[])} reads the UTXOs through lookups instead.
+     */
+    public synchronized UTXOPool getMaxHeightUTXOPool() {
+        return new UTXOPool(utxoPool);
+    }
+
+    /**
+     * @return the sum of the values of the UTXOs of the max height block paying to {@code address}
+     */
+    public synchronized double getBalance(final PublicKey address) {
+        return utxoPool.getBalance(Address.of(address));
+    }
+
+    /**
+     * Picks the UTXOs of the max height block paying to {@code address} to spend {@code amount}, skipping the
+     * ones already spent by a pooled transaction, see {@link UTXOPool#selectCoins(Address, double, java.util.function.Predicate)}
+     *
+     * @return the selected UTXOs, or null if the spendable UTXOs of {@code address} are not worth {@code amount}
      */
-    public UTXOPool getMaxHeightUTXOPool() {
-        return maxHeightBlock.utxoPool;
+    public synchronized List<UTXO> selectCoins(final PublicKey address, final double amount) {
+        return utxoPool.selectCoins(Address.of(address), amount, utxo -> transactionPool.getSpender(utxo) == null);
+    }
+
+    /**
+     * @return the digest of the UTXO set after the block with {@code blockHash}, see {@link UTXOSetHash}, or null
+     * if the block is not in the block chain
+     */
+    public byte[] getUTXOSetDigest(final byte[] blockHash) {
+        final UTXOSetHash utxoSetHash;
+        synchronized (this) {
+            final BlockNode node = blocks.get(new ByteArrayWrapper(blockHash));
+            if (node == null || !node.hasBody()) {
+                return null;
+            }
+            utxoSetHash = node.utxoSetHash;
+        }
+        // the hash of a validated node never changes, its modular inversion is done outside of the lock
+        return utxoSetHash.getDigest();
+    }
+
+    /**
+     * @return a read-only view of the UTXO pool after the block with {@code blockHash}, which may be on any
+     * branch, or null if the block is not in the block chain or only its header is. The view is not a copy: it
+     * reads the UTXO pool of the block chain through the undo records of the blocks in between, stays valid as
+     * blocks are added, as long as its block is not left behind the blocks which can still be extended, and can
+     * be read from any thread. Its lookups take the lock of the block chain and iterating it, or copying it into a
+     * {@link TxHandler}, copies the UTXOs, which {@link TxHandler#overlaying(UTXOPool)} does not. Null as well
+     * once the undo records needed to reach the block have been dropped.
+     */
+    public synchronized UTXOPool getUTXOPoolAt(final byte[] blockHash) {
+        final BlockNode node = blocks.get(new ByteArrayWrapper(blockHash));
+        if (node == null || !node.hasBody() || node.height < prunedHeight) {
+            return null;
+        }
+        return new UTXOPool(new StateView(node));
+    }
+
+    /**
+     * @return the block at {@code height} on the branch of the block with {@code branchBlockHash}, which is an
+     * ancestor of it or the block itself, or null if there is no such block or only its header is known
+     */
+    public synchronized Block getBlockAt(final int height, final byte[] branchBlockHash) {
+        final BlockNode node = blocks.get(new ByteArrayWrapper(branchBlockHash));
+        if (node == null) {
+            return null;
+        }
+        final BlockNode ancestor = node.getAncestor(height);
+        return ancestor == null || !ancestor.hasBody() ? null : loadBlock(ancestor);
+    }
+
+    /**
+     * @return the number of UTXO changes recorded in the undo records of the blocks of the block chain
+     */
+    public synchronized long getNumUndoChanges() {
+        long numChanges = 0;
+        for (BlockNode node : blocks.values()) {
+            if (node.hasBody()) {
+                numChanges += node.undo.size();
+            }
+        }
+        return numChanges;
     }
 
     /**
@@ -74,17 +515,20 @@ public class BlockChain {
      * For example, you can try creating a new block over the genesis block (block height 2) if the
      * block chain height is {@code <= CUT_OFF_AGE + 1}.
      * As soon as {@code height > CUT_OFF_AGE + 1}, you cannot create a new block at height 2.
+     * <p>
+     * The parent must be a validated block, not only a header. If the header of {@code block} has been added
+     * before, its node is completed. A block already validated, or already found invalid, is rejected.
      *
      * @return true if block is successfully added
      */
-    public boolean addBlock(final Block block) {
+    public synchronized boolean addBlock(final Block block) {
         final byte[] prevBlockHash = block.getPrevBlockHash();
         if (prevBlockHash == null) { // New genesis block won't be mined
             return false;
         }
 
         final BlockNode parentNode = blocks.get(new ByteArrayWrapper(prevBlockHash));
-        if (parentNode == null) {
+        if (parentNode == null || !parentNode.hasBody() || !hasValidProofOfWork(block) || isKnown(block)) {
             return false;
         }
 
@@ -93,22 +537,296 @@ public class BlockChain {
             return false;
         }
 
+        moveStateTo(parentNode);
+        final List<TxHandler.SignatureCheck> signatureChecks = new ArrayList<>();
+        final UndoRecord undo = applyBlock(block, signatureChecks);
+        if (undo == null || !signatureChecks.parallelStream().allMatch(TxHandler.SignatureCheck::verify)) {
+            rollBack(undo == null ? new UndoRecord[0] : new UndoRecord[]{undo});
+            markInvalid(block);
+            return false;
+        }
+
+        final BlockNode previousMaxHeightBlock = maxHeightBlock;
+        stateNode = attachBlockNode(block, parentNode, undo, utxoPool.getSetHash());
+        onBlocksAttached(previousMaxHeightBlock);
+        return true;
+    }
 
-        final TxHandler txHandler = new TxHandler(parentNode.utxoPool);
-        if (!isValidBlock(block, txHandler)) {
+    /**
+     * Add a batch of {@code blocks} forming a single branch, each block being the parent of the next one,
+     * typically when syncing the chain. The first block must be a child of a block already in the chain
+     * and satisfy the same height condition as {@link #addBlock(Block)}.
+     * <p>
+     * The transactions of the whole batch are applied to the UTXO pool and all the signatures are then
+     * verified in parallel. A batch holding a block already validated, or already found invalid, is rejected.
+     *
+     * @return true if all the blocks are valid and have been added, false otherwise and then none of them is added
+     */
+    public synchronized boolean addBlocks(final List<Block> newBlocks) {
+        if (newBlocks.isEmpty()) {
+            return true;
+        }
+        final byte[] prevBlockHash = newBlocks.get(0).getPrevBlockHash();
+        if (prevBlockHash == null) {
+            return false;
+        }
+        final BlockNode parentNode = blocks.get(new ByteArrayWrapper(prevBlockHash));
+        if (parentNode == null || !parentNode.hasBody() || !hasValidHeight(parentNode.height)) {
+            return false;
+        }
+        if (!isLinkedBranch(newBlocks)) {
+            return false;
+        }
+
+        moveStateTo(parentNode);
+        final List<TxHandler.SignatureCheck> signatureChecks = new ArrayList<>();
+        final UndoRecord[] undos = new UndoRecord[newBlocks.size()];
+        final UTXOSetHash[] utxoSetHashes = new UTXOSetHash[newBlocks.size()];
+        // the signature checks of block i start at signatureStarts[i]
+        final int[] signatureStarts = new int[newBlocks.size() + 1];
+        for (int i = 0; i < newBlocks.size(); i++) {
+            undos[i] = applyBlock(newBlocks.get(i), signatureChecks);
+            if (undos[i] == null) {
+                rollBack(Arrays.copyOf(undos, i));
+                markInvalid(newBlocks.get(i));
+                return false;
+            }
+            utxoSetHashes[i] = utxoPool.getSetHash();
+            signatureStarts[i + 1] = signatureChecks.size();
+        }
+
+        if (!signatureChecks.parallelStream().allMatch(TxHandler.SignatureCheck::verify)) {
+            rollBack(undos);
+            // the blocks before the first one with a wrong signature are valid but their batch is not added
+            for (int i = 0; i < newBlocks.size(); i++) {
+                if (!signatureChecks.subList(signatureStarts[i], signatureStarts[i + 1]).parallelStream().allMatch(TxHandler.SignatureCheck::verify)) {
+                    markInvalid(newBlocks.get(i));
+                    break;
+                }
+            }
             return false;
         }
 
-        final BlockNode node = processBlock(block, parentNode, txHandler);
+        final BlockNode previousMaxHeightBlock = maxHeightBlock;
+        BlockNode node = parentNode;
+        for (int i = 0; i < newBlocks.size(); i++) {
+            node = attachBlockNode(newBlocks.get(i), node, undos[i], utxoSetHashes[i]);
+        }
+        stateNode = node;
+        onBlocksAttached(previousMaxHeightBlock);
+        return true;
+    }
+
+    /**
+     * The proofs of work, which rebuild the Merkle root of each block, are checked in parallel
+     *
+     * @return true if each block has a valid proof of work and is the parent of the following one
+     */
+    private boolean isLinkedBranch(final List<Block> newBlocks) {
+        byte[] expectedPrevBlockHash = newBlocks.get(0).getPrevBlockHash();
+        for (Block block : newBlocks) {
+            if (!Arrays.equals(expectedPrevBlockHash, block.getPrevBlockHash())) {
+                return false;
+            }
+            expectedPrevBlockHash = block.getHash();
+        }
+        return newBlocks.parallelStream().allMatch(this::hasValidProofOfWork) && newBlocks.stream().noneMatch(this::isKnown);
+    }
+
+    /**
+     * @return true if {@code block}, whose proof of work is valid, has already been validated or found invalid
+     */
+    private boolean isKnown(final Block block) {
+        final ByteArrayWrapper hash = new ByteArrayWrapper(block.getHash());
+        final BlockNode node = blocks.get(hash);
+        return (node != null && node.hasBody()) || invalidBlocks.contains(hash);
+    }
 
-        blocks.put(new ByteArrayWrapper(block.getHash()), node);
+    /**
+     * Adds {@code headers}, forming a single branch, ahead of their blocks, typically the headers announced
+     * by a peer before its blocks are downloaded. The first header must be the header of a child of a block or
+     * header already in the chain and satisfy the same height condition as {@link #addBlock(Block)}, and each
+     * header must have a valid proof of work. The headers already known are skipped.
+     * <p>
+     * The max height block is unchanged: it only moves once the blocks themselves are added and validated.
+     *
+     * @return true if all the headers are valid and have been added, false otherwise and then none of them is
+     * added
+     */
+    public synchronized boolean addHeaders(final List<BlockHeader> headers) {
+        if (headers.isEmpty()) {
+            return true;
+        }
+        final byte[] prevBlockHash = headers.get(0).getPrevBlockHash();
+        if (prevBlockHash == null) {
+            return false;
+        }
+        final BlockNode parentNode = blocks.get(new ByteArrayWrapper(prevBlockHash));
+        if (parentNode == null || !hasValidHeight(parentNode.height)) {
+            return false;
+        }
+        byte[] expectedPrevBlockHash = prevBlockHash;
+        int numNewHeaders = 0;
+        for (BlockHeader header : headers) {
+            final ByteArrayWrapper hash = new ByteArrayWrapper(header.getHash());
+            if (header.getDifficulty() < minimumDifficulty || !header.hasValidProofOfWork()
+                    || !Arrays.equals(expectedPrevBlockHash, header.getPrevBlockHash()) || invalidBlocks.contains(hash)) {
+                return false;
+            }
+            if (!blocks.containsKey(hash)) {
+                numNewHeaders++;
+            }
+            expectedPrevBlockHash = header.getHash();
+        }
+        if (numHeaderOnlyNodes + numNewHeaders > maxHeaderOnlyNodes) {
+            removeDeadHeaderOnlyNodes();
+            if (numHeaderOnlyNodes + numNewHeaders > maxHeaderOnlyNodes) {
+                return false;
+            }
+        }
 
-        if (node.height > maxHeightBlock.height) {
-            maxHeightBlock = node;
+        BlockNode node = parentNode;
+        for (BlockHeader header : headers) {
+            final ByteArrayWrapper hash = new ByteArrayWrapper(header.getHash());
+            final BlockNode knownNode = blocks.get(hash);
+            if (knownNode != null) {
+                node = knownNode;
+                continue;
+            }
+            node = new BlockNode(header, null, null, node, node.height + 1);
+            blocks.put(hash, node);
+            numHeaderOnlyNodes++;
+            if (node.height > bestHeader.height) {
+                bestHeader = node;
+            }
         }
         return true;
     }
 
+    /**
+     * @param maxHeaderOnlyNodes number of nodes whose body has not been added yet the block chain holds at most,
+     *                           {@link #DEFAULT_MAX_HEADER_ONLY_NODES} by default. Once it is reached, the
+     *                           header-only branches which can no longer be completed are dropped and, if that is
+     *                           not enough, {@link #addHeaders(List)} rejects the new headers.
+     */
+    public synchronized void setMaxHeaderOnlyNodes(final int maxHeaderOnlyNodes) {
+        if (maxHeaderOnlyNodes < 0) {
+            throw new IllegalArgumentException("The maximum number of header-only nodes cannot be negative: " + maxHeaderOnlyNodes);
+        }
+        this.maxHeaderOnlyNodes = maxHeaderOnlyNodes;
+    }
+
+    public synchronized int getNumHeaderOnlyNodes() {
+        return numHeaderOnlyNodes;
+    }
+
+    /**
+     * @return the lowest ancestor of the header-only {@code node} whose body has not been added, whose parent is
+     * then validated
+     */
+    private BlockNode getLowestHeaderOnlyAncestor(final BlockNode node) {
+        // the ancestors of a validated block are validated: binary search of the lowest block without body
+        int low = 0;
+        int high = node.height;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (node.getAncestor(middle).hasBody()) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return node.getAncestor(low);
+    }
+
+    /**
+     * Removes the header-only nodes whose bodies can no longer be added, their lowest header-only ancestor being
+     * too far below the max height block
+     */
+    private void removeDeadHeaderOnlyNodes() {
+        removeHeaderOnlyNodes(node -> !hasValidHeight(getLowestHeaderOnlyAncestor(node).parent.height));
+    }
+
+    /**
+     * Remembers {@code block}, whose transactions are invalid, so its header is rejected from now on, and drops
+     * its header-only node with the ones above it
+     */
+    private void markInvalid(final Block block) {
+        final ByteArrayWrapper hash = new ByteArrayWrapper(block.getHash());
+        invalidBlocks.add(hash);
+        final BlockNode invalidNode = blocks.get(hash);
+        if (invalidNode != null && !invalidNode.hasBody()) {
+            removeHeaderOnlyNodes(node -> node.getAncestor(invalidNode.height) == invalidNode);
+        }
+    }
+
+    /**
+     * Removes the header-only nodes matching {@code removed}, which must match the header-only nodes above the
+     * ones it matches, then moves the best header to the highest remaining node if it has been removed
+     */
+    private void removeHeaderOnlyNodes(final Predicate<BlockNode> removed) {
+        // the predicate may walk through the nodes being removed, which are only unlinked once all are known
+        final List<ByteArrayWrapper> removedHashes = new ArrayList<>();
+        for (Map.Entry<ByteArrayWrapper, BlockNode> entry : blocks.entrySet()) {
+            if (!entry.getValue().hasBody() && removed.test(entry.getValue())) {
+                removedHashes.add(entry.getKey());
+            }
+        }
+        for (ByteArrayWrapper hash : removedHashes) {
+            blocks.remove(hash);
+        }
+        numHeaderOnlyNodes -= removedHashes.size();
+        if (!blocks.containsKey(new ByteArrayWrapper(bestHeader.header.getHash()))) {
+            bestHeader = maxHeightBlock;
+            for (BlockNode node : blocks.values()) {
+                if (node.height > bestHeader.height || (node.height == bestHeader.height && node.arrival < bestHeader.arrival)) {
+                    bestHeader = node;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the hashes of the blocks of the branch of the best header whose bodies are still to be added,
+     * lowest first, at most {@code maxCount} of them
+     */
+    public synchronized List<byte[]> getMissingBodies(final int maxCount) {
+        final List<byte[]> hashes = new ArrayList<>();
+        if (!bestHeader.hasBody() && !hasValidHeight(getLowestHeaderOnlyAncestor(bestHeader).parent.height)) {
+            removeDeadHeaderOnlyNodes();
+        }
+        if (bestHeader.hasBody()) {
+            return hashes;
+        }
+        for (int height = getLowestHeaderOnlyAncestor(bestHeader).height; height <= bestHeader.height && hashes.size() < maxCount; height++) {
+            hashes.add(bestHeader.getAncestor(height).header.getHash());
+        }
+        return hashes;
+    }
+
+    /**
+     * @return true if the hash of {@code block} is the hash of its header and meets a difficulty at least equal
+     * to the minimum one
+     */
+    private boolean hasValidProofOfWork(final Block block) {
+        return block.getDifficulty() >= minimumDifficulty && block.hasValidProofOfWork();
+    }
+
+    /**
+     * @param minimumDifficulty number of leading zero bits the hash of the blocks added from now on must have,
+     *                          0 by default
+     */
+    public synchronized void setMinimumDifficulty(final int minimumDifficulty) {
+        if (minimumDifficulty < 0) {
+            throw new IllegalArgumentException("The minimum difficulty cannot be negative: " + minimumDifficulty);
+        }
+        this.minimumDifficulty = minimumDifficulty;
+    }
+
+    public synchronized int getMinimumDifficulty() {
+        return minimumDifficulty;
+    }
+
     private boolean hasValidHeight(final int parentNodeHeight) {
         final int minimumHeightThreshold = maxHeightBlock.height - CUT_OFF_AGE;
         final int newBlockHeight = parentNodeHeight + 1;
@@ -116,46 +834,426 @@ public class BlockChain {
     }
 
     /**
-     * Remove all the block's transactions from the tx pool
-     * Create a new block node
-     * Add the coinbase tx to the UTXOPool
+     * Applies the transactions of {@code block} then its coinbase to the UTXO pool, the signatures being added
+     * to {@code signatureChecks} instead of verified. When checking for validity of a newly received block,
+     * just checking if the transactions form a valid set is enough. The set need not be a maximum possible set
+     * of transactions. The proof of work is checked beforehand by {@link #hasValidProofOfWork(Block)}.
+     *
+     * @return the changes made to the UTXO pool, or null if a transaction is invalid and then the pool is left
+     * unchanged
      */
-    private BlockNode processBlock(final Block block, final BlockNode parentNode, final TxHandler txHandler) {
-        for (Transaction transaction : block.getTransactions()) {
-            transactionPool.removeTransaction(transaction.getHash());
+    private UndoRecord applyBlock(final Block block, final List<TxHandler.SignatureCheck> signatureChecks) {
+        final UndoRecord undo = new UndoRecord();
+        for (Transaction tx : block.getTransactions()) {
+            // finalize first so the data to sign is computed once and can be read by other threads
+            tx.finalize();
+            if (!TxHandler.isValidTx(tx, utxoPool::getTxOutput, signatureChecks)) {
+                undo.undo(utxoPool);
+                return null;
+            }
+            undo.applyTransaction(utxoPool, tx);
         }
+        addCoinBaseTxToUTXOPool(block.getCoinbase(), undo);
+        undo.trim();
+        return undo;
+    }
 
-        final BlockNode node = new BlockNode(block, txHandler.getUTXOPool(), parentNode, parentNode.height + 1);
+    /**
+     * Reverts {@code undos}, the last one first, and moves the UTXO pool back to the max height block
+     */
+    private void rollBack(final UndoRecord[] undos) {
+        utxoPool.untrackSetHash();
+        for (int i = undos.length - 1; i >= 0; i--) {
+            undos[i].undo(utxoPool);
+        }
+        utxoPool.trackSetHash(stateNode.utxoSetHash);
+        moveStateTo(maxHeightBlock);
+        utxoPool.flush();
+    }
 
-        parentNode.children.add(node);
+    /**
+     * Undoes the blocks from the block the UTXO pool is at down to the fork point with {@code target}, then
+     * redoes the blocks of the branch of {@code target} up to it. The hash of the UTXO set is not updated along
+     * the way, it is the one recorded for {@code target}.
+     */
+    private void moveStateTo(final BlockNode target) {
+        if (stateNode == target) {
+            return;
+        }
+        utxoPool.untrackSetHash();
+        final BlockNode forkPoint = getCommonAncestor(stateNode, target);
+        while (stateNode != forkPoint) {
+            stateNode.undo.undo(utxoPool);
+            stateNode = stateNode.parent;
+        }
+        final Deque<BlockNode> branch = new ArrayDeque<>(target.height - forkPoint.height);
+        for (BlockNode node = target; node != forkPoint; node = node.parent) {
+            branch.push(node);
+        }
+        while (!branch.isEmpty()) {
+            stateNode = branch.pop();
+            stateNode.undo.redo(utxoPool);
+        }
+        utxoPool.trackSetHash(target.utxoSetHash);
+    }
 
-        addCoinBaseTxToUTXOPool(block.getCoinbase(), node.utxoPool);
+    /**
+     * Create a new block node as a child of {@code parentNode} and update the max height block
+     */
+    private BlockNode attachBlockNode(final Block block, final BlockNode parentNode, final UndoRecord undo, final UTXOSetHash utxoSetHash) {
+        blockStore.put(block);
+        final ByteArrayWrapper hash = new ByteArrayWrapper(block.getHash());
+        BlockNode node = blocks.get(hash);
+        if (node != null && !node.hasBody() && node.parent == parentNode) {
+            // the header was added ahead of the block
+            node.undo = undo;
+            node.utxoSetHash = utxoSetHash;
+            numHeaderOnlyNodes--;
+        } else {
+            node = new BlockNode(block.getBlockHeader(), undo, utxoSetHash, parentNode, parentNode.height + 1);
+            blocks.put(hash, node);
+            if (node.height > bestHeader.height) {
+                bestHeader = node;
+            }
+        }
 
+        tips.remove(parentNode);
+        tips.add(node);
+        maxHeightBlock = tips.first();
+        // tips too old to be extended are not competing any more
+        while (!hasValidHeight(tips.last().height)) {
+            removeDeadBranch(tips.pollLast());
+        }
         return node;
     }
 
-    private void addCoinBaseTxToUTXOPool(final Transaction coinbaseTx, final UTXOPool utxoPool) {
-        final UTXO newUTXO = new UTXO(coinbaseTx.getHash(), 0);
-        utxoPool.addUTXO(newUTXO, coinbaseTx.getOutput(0));
+    /**
+     * Removes the nodes, and the bodies, of the branch of the dropped tip {@code tip} down to the max height
+     * branch or to a branch which can still be extended
+     */
+    private void removeDeadBranch(final BlockNode tip) {
+        for (BlockNode node = tip; maxHeightBlock.getAncestor(node.height) != node && !isAncestorOfTip(node); node = node.parent) {
+            final byte[] hash = node.header.getHash();
+            blocks.remove(new ByteArrayWrapper(hash));
+            blockStore.remove(hash);
+        }
+    }
+
+    private boolean isAncestorOfTip(final BlockNode node) {
+        for (BlockNode tip : tips) {
+            if (tip.getAncestor(node.height) == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the undo records of the blocks of the max height branch which can no longer be undone: the ones at
+     * or below both the lowest fork point of the branches which can still be extended and the lowest block a new
+     * block can be attached to
+     */
+    private void pruneUndoRecords() {
+        int lowestHeight = maxHeightBlock.height - CUT_OFF_AGE;
+        for (BlockNode tip : tips) {
+            lowestHeight = Math.min(lowestHeight, getCommonAncestor(tip, maxHeightBlock).height);
+        }
+        for (BlockNode node = maxHeightBlock.getAncestor(lowestHeight); node != null && node.height > prunedHeight; node = node.parent) {
+            node.undo = PRUNED_UNDO;
+        }
+        prunedHeight = Math.max(prunedHeight, lowestHeight);
+    }
+
+    /**
+     * Moves the UTXO pool, which is at the last attached block, to the max height block, flushes it, and updates
+     * the transaction pool when the max height block has changed: the transactions confirmed by the max height
+     * branch are removed along with the ones which can not be mined on top of it, and the transactions of the
+     * blocks it has moved away from are added back. The transactions of blocks on other branches stay pooled.
+     */
+    private void onBlocksAttached(final BlockNode previousMaxHeightBlock) {
+        moveStateTo(maxHeightBlock);
+        utxoPool.flush();
+        if (maxHeightBlock == previousMaxHeightBlock) {
+            return;
+        }
+        moveTransactionIndex(previousMaxHeightBlock);
+        if (maxHeightBlock.getAncestor(previousMaxHeightBlock.height) == previousMaxHeightBlock) {
+            // the max height branch is extended, only the double spends of the new blocks' transactions are invalid
+            for (BlockNode node = maxHeightBlock; node != previousMaxHeightBlock; node = node.parent) {
+                for (Transaction transaction : loadBlock(node).getTransactions()) {
+                    transactionPool.removeTransaction(transaction.getHash());
+                    transactionPool.removeConflicts(transaction);
+                }
+            }
+        } else {
+            // the confirmed transactions of the new branch are rejected as their coins are spent
+            final BlockNode forkPoint = getCommonAncestor(previousMaxHeightBlock, maxHeightBlock);
+            final Deque<Block> disconnectedBlocks = new ArrayDeque<>();
+            for (BlockNode node = previousMaxHeightBlock; node != forkPoint; node = node.parent) {
+                disconnectedBlocks.push(loadBlock(node));
+            }
+            final List<Transaction> disconnectedTxs = new ArrayList<>();
+            for (Block block : disconnectedBlocks) {
+                disconnectedTxs.addAll(block.getTransactions());
+            }
+            transactionPool.revalidate(utxoPool, disconnectedTxs);
+        }
+        pruneUndoRecords();
+    }
+
+    /**
+     * Removes from the transaction index the transactions of the blocks of the branch of
+     * {@code previousMaxHeightBlock} down to the fork point with the max height branch, then indexes the
+     * transactions of the max height branch from there
+     */
+    private void moveTransactionIndex(final BlockNode previousMaxHeightBlock) {
+        final BlockNode forkPoint = getCommonAncestor(previousMaxHeightBlock, maxHeightBlock);
+        for (BlockNode node = previousMaxHeightBlock; node != forkPoint; node = node.parent) {
+            for (Transaction transaction : loadBlock(node).getTransactions()) {
+                transactionIndex.remove(transaction.getHash(), node.height);
+            }
+        }
+        indexTransactions(forkPoint, maxHeightBlock);
+    }
+
+    /**
+     * Indexes the transactions of the blocks after {@code ancestor}, null for the whole branch, up to
+     * {@code node}, in order
+     */
+    private void indexTransactions(final BlockNode ancestor, final BlockNode node) {
+        final Deque<BlockNode> branch = new ArrayDeque<>();
+        for (BlockNode walk = node; walk != ancestor; walk = walk.parent) {
+            branch.push(walk);
+        }
+        for (BlockNode walk : branch) {
+            indexTransactions(walk);
+        }
+    }
+
+    private void indexTransactions(final BlockNode node) {
+        final List<Transaction> transactions = loadBlock(node).getTransactions();
+        for (int i = 0; i < transactions.size(); i++) {
+            transactionIndex.putIfAbsent(transactions.get(i).getHash(), node.height, i);
+        }
     }
 
     /**
-     * When checking for validity of a newly received block, just checking if the transactions form a
-     * valid set is enough. The set need not be a maximum possible set of transactions. Also, you
-     * needn't do any proof-of-work checks.
+     * Replaces the transaction index, typically by a memory-mapped one, and fills it with the transactions of
+     * the max height branch. The previous index is not closed.
      */
-    private boolean isValidBlock(final Block block, final TxHandler txHandler) {
-        final List<Transaction> transactions = block.getTransactions();
-        final int nbOfTxs = transactions.size();
-        final Transaction[] validTransactions = txHandler.handleTxs(transactions.toArray(new Transaction[nbOfTxs]));
-        return validTransactions.length == nbOfTxs;
+    public synchronized void setTransactionIndex(final TransactionIndex transactionIndex) {
+        this.transactionIndex = transactionIndex;
+        indexTransactions(null, maxHeightBlock);
+    }
+
+    /**
+     * The coinbases to the same address share a hash, so spending the coinbase UTXO again with the same
+     * transaction puts that transaction in several blocks of a branch: it is then located in the first one. The
+     * blocks above a fork point being indexed again when their branch becomes the max height one, the first
+     * one is always on the max height branch, and the block is
+     * {@code getBlockAt(location.getHeight(), getMaxHeightBlock().getHash())}.
+     *
+     * @return where the transaction with {@code txHash} has been confirmed on the max height branch, or null if
+     * it is not on that branch
+     */
+    public synchronized TransactionIndex.Location getTransactionLocation(final byte[] txHash) {
+        return transactionIndex.get(txHash);
+    }
+
+    /**
+     * @return the number of blocks of the max height branch from the one confirming the transaction with
+     * {@code txHash} to the max height block, both included, 0 if it is not on that branch
+     */
+    public synchronized int getConfirmations(final byte[] txHash) {
+        final TransactionIndex.Location location = transactionIndex.get(txHash);
+        return location == null ? 0 : maxHeightBlock.height - location.getHeight() + 1;
+    }
+
+    private void addCoinBaseTxToUTXOPool(final Transaction coinbaseTx, final UndoRecord undo) {
+        undo.apply(utxoPool, new UTXO(coinbaseTx.getHash(), 0), coinbaseTx.getOutput(0));
     }
 
     /**
-     * Add a transaction to the transaction pool
+     * @return the branches competing with the max height branch whose tip can still be extended, that is
+     * within {@code CUT_OFF_AGE} of the max height, highest first
      */
-    public void addTransaction(final Transaction tx) {
-        transactionPool.addTransaction(tx);
+    public synchronized List<Fork> getForks() {
+        final List<Fork> forks = new ArrayList<>(tips.size() - 1);
+        for (BlockNode tip : tips) {
+            if (tip == maxHeightBlock) {
+                continue;
+            }
+            final BlockNode forkPoint = getCommonAncestor(tip, maxHeightBlock);
+            forks.add(new Fork(loadBlock(tip), tip.height, loadBlock(forkPoint), forkPoint.height));
+        }
+        return forks;
+    }
+
+    /**
+     * @return the most recent block which is an ancestor of both blocks (a block being its own ancestor),
+     * or null if one of them is not in the block chain or only its header is
+     */
+    public synchronized Block getCommonAncestor(final byte[] blockHash, final byte[] otherBlockHash) {
+        final BlockNode node = blocks.get(new ByteArrayWrapper(blockHash));
+        final BlockNode otherNode = blocks.get(new ByteArrayWrapper(otherBlockHash));
+        if (node == null || otherNode == null || !node.hasBody() || !otherNode.hasBody()) {
+            return null;
+        }
+        return loadBlock(getCommonAncestor(node, otherNode));
+    }
+
+    /**
+     * @return the number of blocks of the max height branch from {@code blockHash} to the max height block,
+     * both included, 0 if the block is on another branch and -1 if it is not in the block chain
+     */
+    public synchronized int getDepth(final byte[] blockHash) {
+        final BlockNode node = blocks.get(new ByteArrayWrapper(blockHash));
+        if (node == null) {
+            return -1;
+        }
+        if (maxHeightBlock.getAncestor(node.height) != node) {
+            return 0;
+        }
+        return maxHeightBlock.height - node.height + 1;
+    }
+
+    /**
+     * Binary search of the highest height at which both branches share the same ancestor
+     */
+    private BlockNode getCommonAncestor(final BlockNode node, final BlockNode otherNode) {
+        int low = 0;
+        int high = Math.min(node.height, otherNode.height);
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (node.getAncestor(middle) == otherNode.getAncestor(middle)) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return node.getAncestor(low);
+    }
+
+    /**
+     * Add a transaction to the transaction pool if it is valid on top of the max height block and the pooled
+     * transactions, and does not spend a coin already spent by a pooled transaction
+     *
+     * The transaction is validated on the calling thread, which may already hold the lock of the block chain.
+     *
+     * @return true if the transaction has been added
+     */
+    public boolean addTransaction(final Transaction tx) {
+        return admitTransaction(tx, null);
+    }
+
+    /**
+     * Same as {@link #addTransaction(Transaction)} but the transaction is validated on a worker thread
+     *
+     * @return completed with true once the transaction has been added, false if it has been rejected
+     */
+    public CompletableFuture<Boolean> submitTransaction(final Transaction tx) {
+        return CompletableFuture.supplyAsync(() -> admitTransaction(tx, null), ADMISSION_EXECUTOR);
+    }
+
+    /**
+     * Adds {@code txs} to the transaction pool in order, a transaction may spend the outputs of a previous one.
+     * The transactions are validated in parallel, then the valid ones are added in order. The validations
+     * take the lock of the block chain, so the calling thread must not hold it.
+     *
+     * @return the transactions which have been added
+     */
+    public List<Transaction> addTransactions(final List<Transaction> txs) {
+        // the outputs of the batch, for the transactions depending on earlier ones of the same batch
+        final Map<UTXO, Transaction.Output> batchOutputs = new HashMap<>();
+        for (Transaction tx : txs) {
+            tx.finalize();
+            for (int i = 0; i < tx.numOutputs(); i++) {
+                batchOutputs.put(new UTXO(tx.getHash(), i), tx.getOutput(i));
+            }
+        }
+        final List<CompletableFuture<Boolean>> validations = new ArrayList<>(txs.size());
+        for (Transaction tx : txs) {
+            validations.add(CompletableFuture.supplyAsync(() -> isValidOnMaxHeightBlock(tx, batchOutputs), ADMISSION_EXECUTOR));
+        }
+
+        // the validations take the lock to read the max height block, they must be over before it is held here
+        final boolean[] valid = new boolean[txs.size()];
+        for (int i = 0; i < txs.size(); i++) {
+            valid[i] = validations.get(i).join();
+        }
+        final List<Transaction> addedTxs = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < txs.size(); i++) {
+                if (valid[i] && transactionPool.addTransaction(txs.get(i), utxoPool)) {
+                    addedTxs.add(txs.get(i));
+                }
+            }
+        }
+        return addedTxs;
+    }
+
+    private boolean admitTransaction(final Transaction tx, final Map<UTXO, Transaction.Output> batchOutputs) {
+        if (!isValidOnMaxHeightBlock(tx, batchOutputs)) {
+            return false;
+        }
+        // the max height block may have changed since, the coins are checked again under the lock; the values
+        // and signatures checked against them do not change as a coin always designates the same output
+        synchronized (this) {
+            return transactionPool.addTransaction(tx, utxoPool);
+        }
+    }
+
+    /**
+     * Runs all the checks of {@link TxHandler#isValidTx(Transaction)}, signatures last, on the coins of the max
+     * height block, of the pooled transactions and of {@code batchOutputs} if not null, which are not spent by a
+     * pooled transaction. The coins are looked up under the lock as the UTXO pool is updated in place, the
+     * signatures are verified outside of it.
+     */
+    private boolean isValidOnMaxHeightBlock(final Transaction tx, final Map<UTXO, Transaction.Output> batchOutputs) {
+        tx.finalize();
+        final List<TxHandler.SignatureCheck> signatureChecks = new ArrayList<>(tx.numInputs());
+        final boolean valid;
+        synchronized (this) {
+            valid = TxHandler.isValidTx(tx, utxo -> {
+                if (transactionPool.getSpender(utxo) != null) {
+                    return null;
+                }
+                final Transaction.Output output = utxoPool.getTxOutput(utxo);
+                if (output != null) {
+                    return output;
+                }
+                final Transaction.Output pendingOutput = transactionPool.getPendingOutput(utxo);
+                return pendingOutput != null || batchOutputs == null ? pendingOutput : batchOutputs.get(utxo);
+            }, signatureChecks);
+        }
+        if (!valid) {
+            return false;
+        }
+        for (TxHandler.SignatureCheck signatureCheck : signatureChecks) {
+            if (!signatureCheck.verify()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Admission threads must not keep the JVM alive
+     */
+    static class DaemonThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger nextId = new AtomicInteger();
+
+        DaemonThreadFactory(final String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, namePrefix + "-" + nextId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
 
@@ -0,0 +1,114 @@
+package org.vieuxchameau.blockchain;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Binary form of the blocks, used by the {@link BlockStore}s which do not keep them in memory
+ * <pre>
+ * block:       has parent byte | parent hash, if any | difficulty int | nonce long | coinbase output |
+ *              number of transactions int | transactions
+ * transaction: number of inputs int | inputs | number of outputs int | outputs
+ * input:       previous hash length int | previous hash | output index int | signature length int, -1 if none |
+ *              signature
+ * output:      length int | output as encoded by {@link UTXOCodec}
+ * </pre>
+ * The coinbase only needs its output, its value being {@link Block#COINBASE}. Decoding rebuilds and finalizes
+ * the transactions and the block, which then have the same hashes as the encoded ones.
+ */
+public final class BlockCodec {
+
+    private BlockCodec() {
+    }
+
+    public static byte[] encode(final Block block) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBoolean(block.getPrevBlockHash() != null);
+            if (block.getPrevBlockHash() != null) {
+                out.write(block.getPrevBlockHash());
+            }
+            out.writeInt(block.getDifficulty());
+            out.writeLong(block.getNonce());
+            writeOutput(out, block.getCoinbase().getOutput(0));
+            out.writeInt(block.getTransactions().size());
+            for (Transaction tx : block.getTransactions()) {
+                out.writeInt(tx.numInputs());
+                for (Transaction.Input input : tx.getInputs()) {
+                    final byte[] prevTxHash = input.getPrevTxHash();
+                    out.writeInt(prevTxHash.length);
+                    out.write(prevTxHash);
+                    out.writeInt(input.outputIndex);
+                    final byte[] signature = input.getSignature();
+                    out.writeInt(signature == null ? -1 : signature.length);
+                    if (signature != null) {
+                        out.write(signature);
+                    }
+                }
+                out.writeInt(tx.numOutputs());
+                for (Transaction.Output output : tx.getOutputs()) {
+                    writeOutput(out, output);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("A block cannot be encoded in memory", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeOutput(final DataOutputStream out, final Transaction.Output output) throws IOException {
+        final byte[] encoded = UTXOCodec.encodeOutput(output);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    public static Block decode(final byte[] encoded) {
+        final ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        final byte[] prevBlockHash = buffer.get() != 0 ? readBytes(buffer, 32) : null;
+        final int difficulty = buffer.getInt();
+        final long nonce = buffer.getLong();
+        final Block block = new Block(prevBlockHash, readOutput(buffer).address.getPublicKey());
+        block.setDifficulty(difficulty);
+        block.setNonce(nonce);
+        final int numTransactions = buffer.getInt();
+        final Transaction[] txs = new Transaction[numTransactions];
+        for (int i = 0; i < numTransactions; i++) {
+            final Transaction tx = new Transaction();
+            final int numInputs = buffer.getInt();
+            final byte[][] signatures = new byte[numInputs][];
+            for (int j = 0; j < numInputs; j++) {
+                final byte[] prevTxHash = readBytes(buffer, buffer.getInt());
+                tx.addInput(prevTxHash, buffer.getInt());
+                final int signatureLength = buffer.getInt();
+                signatures[j] = signatureLength < 0 ? null : readBytes(buffer, signatureLength);
+            }
+            final int numOutputs = buffer.getInt();
+            for (int j = 0; j < numOutputs; j++) {
+                final Transaction.Output output = readOutput(buffer);
+                tx.addOutput(output.value, output.address.getPublicKey());
+            }
+            for (int j = 0; j < numInputs; j++) {
+                if (signatures[j] != null) {
+                    tx.addSignature(signatures[j], j);
+                }
+            }
+            txs[i] = tx;
+        }
+        block.addTransactions(Arrays.asList(txs));
+        block.finalize();
+        return block;
+    }
+
+    private static Transaction.Output readOutput(final ByteBuffer buffer) {
+        return UTXOCodec.decodeOutput(readBytes(buffer, buffer.getInt()));
+    }
+
+    private static byte[] readBytes(final ByteBuffer buffer, final int length) {
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -1,13 +1,24 @@
 package org.vieuxchameau.blockchain;
 
+import java.io.Closeable;
 import java.security.PublicKey;
+import java.util.Arrays;
 
 /**
  * Uses ​ BlockChain.java ​ to process a newly received block, create
  * a new block, or process a newly received transaction.
+ * <p>
+ * New blocks are mined with {@link Miner} at the configured difficulty. Mining is cancelled when a processed
+ * block moves the max height block, the block being mined being then stale. The miner and its threads are only
+ * created by the first block to mine, and are stopped when the handler is {@linkplain #close() closed}.
  */
-public class BlockHandler {
+public class BlockHandler implements Closeable {
     private BlockChain blockChain;
+    /**
+     * null until a block is mined
+     */
+    private Miner miner;
+    private volatile int difficulty;
 
     /**
      * assume blockChain has the genesis block
@@ -25,26 +36,47 @@ public class BlockHandler {
         if (block == null) {
             return false;
         }
-        return blockChain.addBlock(block);
+        final Block maxHeightBlock = blockChain.getMaxHeightBlock();
+        final boolean added = blockChain.addBlock(block);
+        if (added && !Arrays.equals(blockChain.getMaxHeightBlock().getHash(), maxHeightBlock.getHash())) {
+            cancelMining();
+        }
+        return added;
+    }
+
+    private synchronized void cancelMining() {
+        if (miner != null) {
+            miner.cancel();
+        }
     }
 
     /**
      * create a new {@code block} over the max height {@code block}
+     *
+     * @return the new block, or null if it is invalid or its mining has been cancelled
      */
     public Block createBlock(PublicKey myAddress) {
+        Miner miner = getMiner();
+        // read before the parent: a block moving the max height block from now on cancels the mining
+        long generation = miner.getGeneration();
         Block parent = blockChain.getMaxHeightBlock();
         byte[] parentHash = parent.getHash();
         Block current = new Block(parentHash, myAddress);
-        UTXOPool uPool = blockChain.getMaxHeightUTXOPool();
+        // a view read through lookups, the UTXO pool of the block chain may be too large to be copied
+        UTXOPool uPool = blockChain.getUTXOPoolAt(parentHash);
+        if (uPool == null) {
+            return null;
+        }
         TransactionPool txPool = blockChain.getTransactionPool();
-        TxHandler handler = new TxHandler(uPool);
+        TxHandler handler = TxHandler.overlaying(uPool);
         Transaction[] txs = txPool.getTransactions().toArray(new Transaction[0]);
         Transaction[] rTxs = handler.handleTxs(txs);
-        for (int i = 0; i < rTxs.length; i++) {
-            current.addTransaction(rTxs[i]);
-        }
+        current.addTransactions(Arrays.asList(rTxs));
 
-        current.finalize();
+        current.setDifficulty(difficulty);
+        if (!miner.mine(current, generation)) {
+            return null;
+        }
         if (blockChain.addBlock(current)) {
             return current;
         } else {
@@ -52,6 +84,35 @@ public class BlockHandler {
         }
     }
 
+    /**
+     * @param difficulty number of leading zero bits the hash of the created blocks must have, 0 by default
+     */
+    public void setDifficulty(int difficulty) {
+        Block.checkDifficulty(difficulty);
+        this.difficulty = difficulty;
+    }
+
+    /**
+     * @return the miner, to read the hashrate of the last mined block, created with a thread per processor on
+     * the first call
+     */
+    public synchronized Miner getMiner() {
+        if (miner == null) {
+            miner = new Miner(Runtime.getRuntime().availableProcessors());
+        }
+        return miner;
+    }
+
+    /**
+     * Stops the threads of the miner, if any, the handler must not create blocks afterwards
+     */
+    @Override
+    public synchronized void close() {
+        if (miner != null) {
+            miner.close();
+        }
+    }
+
     /**
      * process a {@code Transaction}
      */
@@ -0,0 +1,71 @@
+package org.vieuxchameau.blockchain;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable header of a {@link Block}, enough to link it to its parent and check its proof of work without its
+ * transactions
+ * <p>
+ * Only the encoded header, {@value Block#HEADER_SIZE} bytes, and its hash are kept; the fields are read from
+ * the encoded form.
+ */
+public final class BlockHeader {
+
+    private static final int HASH_SIZE = 32;
+
+    private final byte[] encoded;
+    private final byte[] hash;
+
+    /**
+     * @param encoded header as built by {@link Block#getHeader(long)}
+     */
+    public BlockHeader(final byte[] encoded) {
+        if (encoded.length != Block.HEADER_SIZE) {
+            throw new IllegalArgumentException("A block header is " + Block.HEADER_SIZE + " bytes long: " + encoded.length);
+        }
+        this.encoded = encoded.clone();
+        this.hash = Block.newDigest().digest(encoded);
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the hash of the parent block, or null for a genesis block
+     */
+    public byte[] getPrevBlockHash() {
+        final byte[] prevBlockHash = Arrays.copyOf(encoded, HASH_SIZE);
+        return Arrays.equals(prevBlockHash, new byte[HASH_SIZE]) ? null : prevBlockHash;
+    }
+
+    /**
+     * @return the root of the Merkle tree over the hashes of the transactions of the block
+     */
+    public byte[] getTransactionsCommitment() {
+        return Arrays.copyOfRange(encoded, HASH_SIZE, Block.HEADER_PREFIX_SIZE);
+    }
+
+    public int getDifficulty() {
+        return ByteBuffer.wrap(encoded).getInt(Block.HEADER_PREFIX_SIZE);
+    }
+
+    public long getNonce() {
+        return ByteBuffer.wrap(encoded).getLong(Block.HEADER_PREFIX_SIZE + Integer.BYTES);
+    }
+
+    public byte[] getEncoded() {
+        return encoded.clone();
+    }
+
+    /**
+     * The hash being computed from the header itself, only the difficulty has to be checked
+     *
+     * @return true if the hash has at least {@link #getDifficulty()} leading zero bits
+     */
+    public boolean hasValidProofOfWork() {
+        final int difficulty = getDifficulty();
+        return difficulty >= 0 && difficulty <= Block.MAX_DIFFICULTY && Block.meetsDifficulty(hash, difficulty);
+    }
+}
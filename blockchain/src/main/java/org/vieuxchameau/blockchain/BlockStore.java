@@ -0,0 +1,22 @@
+package org.vieuxchameau.blockchain;
+
+/**
+ * Bodies of the blocks of a {@link BlockChain}, which only keeps their headers: a block is stored once it has
+ * been validated and loaded again when its transactions are needed
+ * <p>
+ * The implementations report their I/O failures with an {@code IllegalStateException}.
+ */
+public interface BlockStore {
+
+    void put(Block block);
+
+    /**
+     * @return the block with {@code blockHash}, finalized, or null if it is not in the store
+     */
+    Block get(byte[] blockHash);
+
+    /**
+     * Removes the block with {@code blockHash}, if any
+     */
+    void remove(byte[] blockHash);
+}
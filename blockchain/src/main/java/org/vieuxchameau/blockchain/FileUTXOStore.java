@@ -0,0 +1,261 @@
+package org.vieuxchameau.blockchain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * {@link UTXOStore} appending the batches to a single log file, with the position of the latest output of each
+ * UTXO kept in memory
+ * <p>
+ * A batch is {@code payload length int | CRC32 long | records} and a record is
+ * {@code key length int | output length int, -1 for a removal | key | output}, see {@link UTXOCodec}. Each batch
+ * is forced to the disk before {@link #write(Map)} returns. On opening, the log is replayed and a trailing batch
+ * which is incomplete or does not match its checksum, left by a crash, is cut off. The log is rewritten with
+ * the live records only once it is more than twice as large as them.
+ * <p>
+ * Only the outputs stay on disk: the index holds an entry per UTXO on the heap. {@link LSMUTXOStore} keeps
+ * nothing in memory per UTXO.
+ */
+public class FileUTXOStore implements UTXOStore {
+
+    private static final int BATCH_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int LENGTH_BITS = 20;
+    private static final long MIN_COMPACTION_SIZE = 1 << 20;
+    /**
+     * maximum payload of the batches written by a compaction
+     */
+    private static final int COMPACTION_BATCH_SIZE = 1 << 20;
+
+    private final Path file;
+    private FileChannel channel;
+    /**
+     * position of the output of each UTXO in the log, shifted by {@code LENGTH_BITS}, and its length
+     */
+    private Map<UTXO, Long> outputs = new HashMap<>();
+    private long logSize;
+    private long liveSize;
+
+    /**
+     * Opens the store of {@code file}, creating it if it does not exist
+     */
+    public FileUTXOStore(final Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replay();
+    }
+
+    private void replay() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_SIZE);
+        long position = 0;
+        while (true) {
+            header.clear();
+            if (readFully(channel, header, position) < BATCH_HEADER_SIZE) {
+                break;
+            }
+            final int payloadLength = header.getInt(0);
+            final ByteBuffer payload = ByteBuffer.allocate(Math.max(0, payloadLength));
+            if (payloadLength < 0 || readFully(channel, payload, position + BATCH_HEADER_SIZE) < payloadLength
+                    || checksum(payload.array()) != header.getLong(Integer.BYTES)) {
+                break;
+            }
+            index(payload, position + BATCH_HEADER_SIZE);
+            position += BATCH_HEADER_SIZE + payloadLength;
+        }
+        channel.truncate(position);
+        logSize = position;
+    }
+
+    /**
+     * @return the number of bytes read, less than the remaining bytes of {@code buffer} if the end of the file
+     * has been reached
+     */
+    private static int readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer, position + read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Points the index at the outputs of the records of {@code payload}, which starts at {@code position}
+     */
+    private void index(final ByteBuffer payload, final long position) {
+        payload.rewind();
+        while (payload.hasRemaining()) {
+            final int keyLength = payload.getInt();
+            final int outputLength = payload.getInt();
+            final byte[] key = new byte[keyLength];
+            payload.get(key);
+            final UTXO utxo = UTXOCodec.decodeKey(key);
+            final Long previous;
+            if (outputLength < 0) {
+                previous = outputs.remove(utxo);
+            } else {
+                previous = outputs.put(utxo, (position + payload.position()) << LENGTH_BITS | outputLength);
+                payload.position(payload.position() + outputLength);
+                liveSize += RECORD_HEADER_SIZE + keyLength + outputLength;
+            }
+            if (previous != null) {
+                liveSize -= RECORD_HEADER_SIZE + keyLength + (previous & ((1 << LENGTH_BITS) - 1));
+            }
+        }
+    }
+
+    /**
+     * Reads the output at {@code location} of the index into {@code output}
+     *
+     * @throws IOException if the log ends before the output, which the index points into
+     */
+    private static void readOutput(final FileChannel channel, final ByteBuffer output, final long location) throws IOException {
+        if (readFully(channel, output, location >>> LENGTH_BITS) < output.capacity()) {
+            throw new IOException("The UTXO log ends before the output at " + (location >>> LENGTH_BITS));
+        }
+    }
+
+    private static long checksum(final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    @Override
+    public synchronized Transaction.Output get(final UTXO utxo) {
+        final Long location = outputs.get(utxo);
+        if (location == null) {
+            return null;
+        }
+        final ByteBuffer output = ByteBuffer.allocate((int) (location & ((1 << LENGTH_BITS) - 1)));
+        try {
+            readOutput(channel, output, location);
+        } catch (IOException e) {
+            throw new IllegalStateException("The UTXO store cannot be read", e);
+        }
+        return UTXOCodec.decodeOutput(output.array());
+    }
+
+    @Override
+    public synchronized void write(final Map<UTXO, Transaction.Output> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<byte[]> keys = new ArrayList<>(batch.size());
+        final List<byte[]> encodedOutputs = new ArrayList<>(batch.size());
+        int payloadLength = 0;
+        for (Map.Entry<UTXO, Transaction.Output> entry : batch.entrySet()) {
+            final byte[] key = UTXOCodec.encodeKey(entry.getKey());
+            final byte[] output = entry.getValue() == null ? null : UTXOCodec.encodeOutput(entry.getValue());
+            keys.add(key);
+            encodedOutputs.add(output);
+            payloadLength += RECORD_HEADER_SIZE + key.length + (output == null ? 0 : output.length);
+        }
+        try {
+            append(keys, encodedOutputs, payloadLength);
+            if (logSize > MIN_COMPACTION_SIZE && logSize > 2 * liveSize) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("The UTXO store cannot be written", e);
+        }
+    }
+
+    private void append(final List<byte[]> keys, final List<byte[]> encodedOutputs, final int payloadLength) throws IOException {
+        final ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+        for (int i = 0; i < keys.size(); i++) {
+            final byte[] output = encodedOutputs.get(i);
+            payload.putInt(keys.get(i).length).putInt(output == null ? -1 : output.length).put(keys.get(i));
+            if (output != null) {
+                payload.put(output);
+            }
+        }
+        final ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_SIZE).putInt(payloadLength).putLong(checksum(payload.array()));
+        header.flip();
+        payload.flip();
+        long position = logSize;
+        for (ByteBuffer buffer : new ByteBuffer[]{header, payload}) {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+        channel.force(false);
+        index(payload, logSize + BATCH_HEADER_SIZE);
+        logSize = position;
+    }
+
+    /**
+     * Writes the live records to a new log, in batches, which then replaces the current one
+     */
+    private void compact() throws IOException {
+        final Path compacted = Paths.get(file + ".compact");
+        final Map<UTXO, Long> liveOutputs = outputs;
+        final FileChannel oldChannel = channel;
+        channel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        outputs = new HashMap<>(liveOutputs.size() * 2);
+        logSize = 0;
+        liveSize = 0;
+
+        final List<byte[]> keys = new ArrayList<>();
+        final List<byte[]> encodedOutputs = new ArrayList<>();
+        int payloadLength = 0;
+        for (Map.Entry<UTXO, Long> entry : liveOutputs.entrySet()) {
+            final ByteBuffer output = ByteBuffer.allocate((int) (entry.getValue() & ((1 << LENGTH_BITS) - 1)));
+            readOutput(oldChannel, output, entry.getValue());
+            final byte[] key = UTXOCodec.encodeKey(entry.getKey());
+            keys.add(key);
+            encodedOutputs.add(output.array());
+            payloadLength += RECORD_HEADER_SIZE + key.length + output.capacity();
+            if (payloadLength >= COMPACTION_BATCH_SIZE) {
+                append(keys, encodedOutputs, payloadLength);
+                keys.clear();
+                encodedOutputs.clear();
+                payloadLength = 0;
+            }
+        }
+        if (!keys.isEmpty()) {
+            append(keys, encodedOutputs, payloadLength);
+        }
+        oldChannel.close();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public synchronized void forEach(final BiConsumer<UTXO, Transaction.Output> action) {
+        for (UTXO utxo : new ArrayList<>(outputs.keySet())) {
+            action.accept(utxo, get(utxo));
+        }
+    }
+
+    @Override
+    public synchronized long size() {
+        return outputs.size();
+    }
+
+    /**
+     * @return the size of the log file in bytes
+     */
+    public synchronized long getLogSize() {
+        return logSize;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
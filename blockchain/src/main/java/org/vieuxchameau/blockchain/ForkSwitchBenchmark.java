@@ -0,0 +1,123 @@
+package org.vieuxchameau.blockchain;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the cost of adding blocks to branches forking deeper and deeper below the max height block, which
+ * moves the UTXO pool of the block chain back to the fork point and forward again, against the cost of copying
+ * the whole UTXO pool which each added block used to pay
+ * <p>
+ * Arguments: number of UTXOs (default 100000), transactions per block (default 100), blocks added per fork
+ * depth (default 20).
+ */
+public class ForkSwitchBenchmark {
+
+    public static void main(final String[] args) throws GeneralSecurityException {
+        final int numUTXOs = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        final int txsPerBlock = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final int blocksPerDepth = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        final KeyPair keyPair = generator.generateKeyPair();
+        final PublicKey address = keyPair.getPublic();
+
+        final Block genesis = new Block(null, address);
+        genesis.finalize();
+        final BlockChain blockChain = new BlockChain(genesis);
+
+        // one transaction splitting half of the genesis coinbase in numUTXOs outputs, leaving room for rounding
+        final Transaction split = new Transaction();
+        split.addInput(genesis.getCoinbase().getHash(), 0);
+        for (int i = 0; i < numUTXOs; i++) {
+            split.addOutput(Block.COINBASE / 2 / numUTXOs, address);
+        }
+        sign(split, keyPair.getPrivate());
+        final List<Block> mainBranch = new ArrayList<>();
+        mainBranch.add(genesis);
+        mainBranch.add(addBlock(blockChain, genesis, address, split));
+
+        // then blocks spending txsPerBlock of these outputs each, up to CUT_OFF_AGE blocks
+        int nextOutput = 0;
+        for (int i = 0; i < BlockChain.CUT_OFF_AGE - 1; i++) {
+            final Transaction[] txs = new Transaction[txsPerBlock];
+            for (int j = 0; j < txsPerBlock; j++) {
+                txs[j] = spend(split, nextOutput++, address, keyPair.getPrivate());
+            }
+            mainBranch.add(addBlock(blockChain, mainBranch.get(mainBranch.size() - 1), address, txs));
+        }
+
+        // depth 0 extends the max height block, each other depth adds blocks on the block that far below it,
+        // which do not replace it; the extensions come last so the main branch stays the same until then
+        System.out.println("depth,mean add ms");
+        for (int d = 1; d <= BlockChain.CUT_OFF_AGE; d++) {
+            final int depth = d % BlockChain.CUT_OFF_AGE;
+            final Transaction[] txs = new Transaction[blocksPerDepth];
+            for (int i = 0; i < blocksPerDepth; i++) {
+                txs[i] = spend(split, nextOutput++, address, keyPair.getPrivate());
+            }
+            final long start = System.nanoTime();
+            for (int i = 0; i < blocksPerDepth; i++) {
+                final Block parent = depth == 0 ? blockChain.getMaxHeightBlock() : mainBranch.get(mainBranch.size() - 1 - depth);
+                addBlock(blockChain, parent, address, txs[i]);
+            }
+            System.out.println(depth + "," + (System.nanoTime() - start) / 1e6 / blocksPerDepth);
+        }
+
+        final long start = System.nanoTime();
+        final UTXOPool copy = blockChain.getMaxHeightUTXOPool();
+        System.out.println("copy of the UTXO pool of " + copy.getAllUTXO().size() + " UTXOs: " + (System.nanoTime() - start) / 1e6 + " ms");
+
+        final long usedBefore = usedMemory();
+        final UTXOPool[] copies = new UTXOPool[BlockChain.CUT_OFF_AGE];
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = new UTXOPool(copy);
+        }
+        final long copiesMemory = usedMemory() - usedBefore;
+        System.out.println(copies.length + " copies of the UTXO pool: " + copiesMemory / (1024 * 1024) + " MB, "
+                + "undo records of the blocks: " + blockChain.getNumUndoChanges() + " changes");
+    }
+
+    private static Block addBlock(final BlockChain blockChain, final Block parent, final PublicKey address, final Transaction... txs) {
+        final Block block = new Block(parent.getHash(), address);
+        for (Transaction tx : txs) {
+            block.addTransaction(tx);
+        }
+        block.finalize();
+        if (!blockChain.addBlock(block)) {
+            throw new IllegalStateException("The block has been rejected");
+        }
+        return block;
+    }
+
+    private static Transaction spend(final Transaction tx, final int outputIndex, final PublicKey address, final PrivateKey key) throws GeneralSecurityException {
+        final Transaction spending = new Transaction();
+        spending.addInput(tx.getHash(), outputIndex);
+        spending.addOutput(tx.getOutput(outputIndex).value, address);
+        sign(spending, key);
+        return spending;
+    }
+
+    private static void sign(final Transaction tx, final PrivateKey key) throws GeneralSecurityException {
+        final Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(key);
+        signature.update(tx.getRawDataToSign(0));
+        tx.addSignature(signature.sign(), 0);
+        tx.finalize();
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,85 @@
+package org.vieuxchameau.blockchain;
+
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Syncs a chain of empty blocks headers first: measures the memory taken by the header chain, then the rate at
+ * which the missing bodies are added in batches
+ * <p>
+ * The bodies are kept by the default {@link MemoryBlockStore}, only the header chain is measured. A header-only
+ * node takes about 150 bytes, mostly the node, header and hash objects, so 200000 headers take close to 30 MB.
+ * <p>
+ * Arguments: number of blocks (default 200000), blocks per batch (default 500).
+ */
+public class HeaderSyncBenchmark {
+
+    public static void main(final String[] args) throws NoSuchAlgorithmException {
+        final int numBlocks = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        final int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        final PublicKey address = generator.generateKeyPair().getPublic();
+        final Block genesis = new Block(null, address);
+        genesis.finalize();
+
+        // the peer the blocks are fetched from
+        final Map<ByteArrayWrapper, Block> peerBlocks = new HashMap<>();
+        final List<BlockHeader> headers = new ArrayList<>(numBlocks);
+        byte[] prevBlockHash = genesis.getHash();
+        for (int i = 0; i < numBlocks; i++) {
+            final Block block = new Block(prevBlockHash, address);
+            block.finalize();
+            peerBlocks.put(new ByteArrayWrapper(block.getHash()), block);
+            headers.add(block.getBlockHeader());
+            prevBlockHash = block.getHash();
+        }
+
+        final BlockChain blockChain = new BlockChain(genesis);
+        blockChain.setMaxHeaderOnlyNodes(Math.max(numBlocks, BlockChain.DEFAULT_MAX_HEADER_ONLY_NODES));
+        final long usedBefore = usedMemory();
+        final long headersStart = System.nanoTime();
+        for (int i = 0; i < numBlocks; i += batchSize) {
+            if (!blockChain.addHeaders(headers.subList(i, Math.min(numBlocks, i + batchSize)))) {
+                throw new IllegalStateException("The headers have been rejected");
+            }
+        }
+        final double headersMillis = (System.nanoTime() - headersStart) / 1e6;
+        final long headersMemory = usedMemory() - usedBefore;
+
+        final long bodiesStart = System.nanoTime();
+        int numAdded = 0;
+        for (List<byte[]> missing = blockChain.getMissingBodies(batchSize); !missing.isEmpty(); missing = blockChain.getMissingBodies(batchSize)) {
+            final List<Block> bodies = new ArrayList<>(missing.size());
+            for (byte[] blockHash : missing) {
+                bodies.add(peerBlocks.get(new ByteArrayWrapper(blockHash)));
+            }
+            if (!blockChain.addBlocks(bodies)) {
+                throw new IllegalStateException("The blocks have been rejected");
+            }
+            numAdded += bodies.size();
+        }
+        final double bodiesMillis = (System.nanoTime() - bodiesStart) / 1e6;
+
+        System.out.println(numBlocks + " headers in " + headersMillis + " ms, " + headersMemory / (1024 * 1024) + " MB ("
+                + headersMemory / numBlocks + " bytes per header)");
+        System.out.println(numAdded + " bodies in " + bodiesMillis + " ms (" + (long) (numAdded / (bodiesMillis / 1000))
+                + " blocks/s), max height block is the best header: "
+                + Arrays.equals(blockChain.getBestHeader().getHash(), blockChain.getMaxHeightBlock().getHash()));
+    }
+
+    private static long usedMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
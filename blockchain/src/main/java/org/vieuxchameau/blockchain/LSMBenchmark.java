@@ -0,0 +1,113 @@
+package org.vieuxchameau.blockchain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Loads keys shaped like UTXOs into an {@link LSMTree} in batches, one batch standing for a block, then measures
+ * the latency of random reads of present and missing keys once everything is in segments
+ * <p>
+ * Keys are a pseudo random transaction hash followed by an output index, values are as large as an encoded
+ * output with a 1024 bits key.
+ * <p>
+ * Arguments: number of keys (default 100000000), keys per batch (default 1000), number of reads (default 100000),
+ * directory (default a temporary directory, deleted at the end).
+ */
+public class LSMBenchmark {
+
+    private static final int VALUE_SIZE = 144;
+
+    public static void main(final String[] args) throws IOException {
+        final long numKeys = args.length > 0 ? Long.parseLong(args[0]) : 100_000_000L;
+        final int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        final int numReads = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        final boolean temporary = args.length <= 3;
+        final Path directory = temporary ? Files.createTempDirectory("lsm") : Paths.get(args[3]);
+
+        try (LSMTree tree = new LSMTree(directory)) {
+            final byte[] value = new byte[VALUE_SIZE];
+            new Random(1).nextBytes(value);
+            final long ingestStart = System.nanoTime();
+            for (long key = 0; key < numKeys; ) {
+                final LSMTree.Batch batch = new LSMTree.Batch();
+                for (int i = 0; i < batchSize && key < numKeys; i++, key++) {
+                    batch.put(key(key), value);
+                }
+                tree.write(batch);
+            }
+            final double writeSeconds = (System.nanoTime() - ingestStart) / 1e9;
+            tree.flush();
+            final double ingestSeconds = (System.nanoTime() - ingestStart) / 1e9;
+            final long ingestedBytes = numKeys * (key(0).length + VALUE_SIZE);
+
+            final Random random = new Random(2);
+            final long[] presentNanos = new long[numReads];
+            final long[] missingNanos = new long[numReads];
+            int found = 0;
+            for (int i = 0; i < numReads; i++) {
+                final byte[] present = key((random.nextLong() & Long.MAX_VALUE) % numKeys);
+                final byte[] missing = key(numKeys + i);
+                long start = System.nanoTime();
+                if (tree.get(present) != null) {
+                    found++;
+                }
+                presentNanos[i] = System.nanoTime() - start;
+                start = System.nanoTime();
+                if (tree.get(missing) != null) {
+                    found--;
+                }
+                missingNanos[i] = System.nanoTime() - start;
+            }
+
+            System.out.println(numKeys + " keys in batches of " + batchSize + ", " + tree.getNumSegments() + " segments, "
+                    + tree.getSegmentsSize() / (1024 * 1024) + " MB");
+            System.out.println("ingest: " + (long) (numKeys / writeSeconds) + " keys/s while writing, " + (long) (numKeys / ingestSeconds)
+                    + " keys/s with the last flushes and compactions");
+            // the log, the flushed segments and the merged segments
+            final long writtenBytes = ingestedBytes + tree.getFlushedBytes() + tree.getCompactedBytes();
+            System.out.println("write amplification: " + String.format("%.2f", (double) writtenBytes / ingestedBytes) + " ("
+                    + tree.getFlushes() + " flushes, " + tree.getCompactions() + " compactions)");
+            System.out.println("present keys: " + describe(presentNanos) + ", missing keys: " + describe(missingNanos)
+                    + (found == numReads ? "" : ", some reads are wrong"));
+        } finally {
+            if (temporary) {
+                try (Stream<Path> files = Files.list(directory)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(directory);
+            }
+        }
+    }
+
+    /**
+     * @return a UTXO key: a transaction hash spread from {@code key} and the output index 0
+     */
+    private static byte[] key(final long key) {
+        final ByteBuffer buffer = ByteBuffer.allocate(32 + Integer.BYTES);
+        long hash = key;
+        for (int i = 0; i < 4; i++) {
+            hash += 0x9e3779b97f4a7c15L;
+            long mixed = hash;
+            mixed = (mixed ^ (mixed >>> 30)) * 0xbf58476d1ce4e5b9L;
+            mixed = (mixed ^ (mixed >>> 27)) * 0x94d049bb133111ebL;
+            buffer.putLong(mixed ^ (mixed >>> 31));
+        }
+        return buffer.putInt(0).array();
+    }
+
+    private static String describe(final long[] nanos) {
+        final long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        final double mean = Arrays.stream(sorted).average().orElse(0);
+        return String.format("%.1f us mean, %.1f us median, %.1f us p99", mean / 1e3, sorted[sorted.length / 2] / 1e3,
+                sorted[sorted.length * 99 / 100] / 1e3);
+    }
+}
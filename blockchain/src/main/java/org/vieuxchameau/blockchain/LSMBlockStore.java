@@ -0,0 +1,45 @@
+package org.vieuxchameau.blockchain;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * {@link BlockStore} over an {@link LSMTree}, the blocks being encoded by {@link BlockCodec} under their hash.
+ * A loaded block is a new instance, released as soon as the caller drops it.
+ */
+public class LSMBlockStore implements BlockStore, Closeable {
+
+    private final LSMTree tree;
+
+    /**
+     * The store owns {@code tree}, which is closed with it
+     */
+    public LSMBlockStore(final LSMTree tree) {
+        this.tree = tree;
+    }
+
+    @Override
+    public void put(final Block block) {
+        tree.put(block.getHash(), BlockCodec.encode(block));
+    }
+
+    @Override
+    public Block get(final byte[] blockHash) {
+        final byte[] encoded = tree.get(blockHash);
+        return encoded == null ? null : BlockCodec.decode(encoded);
+    }
+
+    @Override
+    public void remove(final byte[] blockHash) {
+        tree.delete(blockHash);
+    }
+
+    public LSMTree getTree() {
+        return tree;
+    }
+
+    @Override
+    public void close() throws IOException {
+        tree.close();
+    }
+}
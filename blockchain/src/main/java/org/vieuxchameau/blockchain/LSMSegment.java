@@ -0,0 +1,320 @@
+package org.vieuxchameau.blockchain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable file of an {@link LSMTree} holding sorted records, read through memory-mapped chunks
+ * <pre>
+ * records:  key length int | value length int, -1 for a deletion | key | value, sorted by key
+ * offsets:  position long of each record
+ * filter:   Bloom filter words long
+ * footer:   number of records long | offsets position long | filter position long | filter words int |
+ *           hash functions int
+ * </pre>
+ * A lookup first tests the Bloom filter, then binary searches the offsets. Everything is read in place, so a
+ * segment only takes heap for its chunk buffers whatever its size.
+ */
+final class LSMSegment {
+
+    private static final int FOOTER_SIZE = 3 * Long.BYTES + 2 * Integer.BYTES;
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int DELETION = -1;
+
+    private final Path file;
+    private final long number;
+    private final long size;
+    private final ByteBuffer[] chunks;
+    private final long numRecords;
+    private final long offsetsPosition;
+    private final long filterPosition;
+    private final long numFilterBits;
+    private final int numHashFunctions;
+
+    private LSMSegment(final Path file, final long number) throws IOException {
+        this.file = file;
+        this.number = number;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                final long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << CHUNK_BITS, size - start));
+            }
+        }
+        if (size < FOOTER_SIZE) {
+            throw new IOException("Truncated segment " + file);
+        }
+        final long footer = size - FOOTER_SIZE;
+        numRecords = getLong(footer);
+        offsetsPosition = getLong(footer + Long.BYTES);
+        filterPosition = getLong(footer + 2 * Long.BYTES);
+        numFilterBits = (long) getInt(footer + 3 * Long.BYTES) * Long.SIZE;
+        numHashFunctions = getInt(footer + 3 * Long.BYTES + Integer.BYTES);
+    }
+
+    static LSMSegment open(final Path file, final long number) throws IOException {
+        return new LSMSegment(file, number);
+    }
+
+    /**
+     * Writes the sorted {@code records}, at most {@code maxRecords} of them, to {@code file} and opens it.
+     * Deletions are skipped if {@code dropDeletions}, when no older segment may hold the deleted keys.
+     */
+    static LSMSegment write(final Path file, final long number, final Iterator<Map.Entry<byte[], byte[]>> records,
+                            final long maxRecords, final boolean dropDeletions) throws IOException {
+        final long[] filter = new long[(int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, (maxRecords * BLOOM_BITS_PER_KEY + 63) / 64))];
+        final long numFilterBits = (long) filter.length * Long.SIZE;
+        final int numHashFunctions = Math.max(1, (int) Math.round(BLOOM_BITS_PER_KEY * Math.log(2)));
+        final Path offsetsFile = Paths.get(file + ".offsets");
+        long numRecords = 0;
+        long position = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel offsets = FileChannel.open(offsetsFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            final ByteBuffer offsetsBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (records.hasNext()) {
+                final Map.Entry<byte[], byte[]> record = records.next();
+                final byte[] key = record.getKey();
+                final byte[] value = record.getValue();
+                if (value == LSMTree.DELETED && dropDeletions) {
+                    continue;
+                }
+                final int valueLength = value == LSMTree.DELETED ? 0 : value.length;
+                final int recordSize = 2 * Integer.BYTES + key.length + valueLength;
+                if (buffer.remaining() < recordSize) {
+                    drain(buffer, channel);
+                }
+                final ByteBuffer target = recordSize > buffer.capacity() ? ByteBuffer.allocate(recordSize) : buffer;
+                target.putInt(key.length).putInt(value == LSMTree.DELETED ? DELETION : value.length).put(key);
+                if (value != LSMTree.DELETED) {
+                    target.put(value);
+                }
+                if (target != buffer) {
+                    drain(target, channel);
+                }
+                if (!offsetsBuffer.hasRemaining()) {
+                    drain(offsetsBuffer, offsets);
+                }
+                offsetsBuffer.putLong(position);
+                position += recordSize;
+                addToFilter(filter, numFilterBits, numHashFunctions, key);
+                numRecords++;
+            }
+            drain(buffer, channel);
+            drain(offsetsBuffer, offsets);
+
+            final long offsetsPosition = position;
+            long transferred = 0;
+            while (transferred < offsets.size()) {
+                transferred += offsets.transferTo(transferred, offsets.size() - transferred, channel);
+            }
+            final long filterPosition = offsetsPosition + transferred;
+            for (long word : filter) {
+                if (!buffer.hasRemaining()) {
+                    drain(buffer, channel);
+                }
+                buffer.putLong(word);
+            }
+            drain(buffer, channel);
+            buffer.putLong(numRecords).putLong(offsetsPosition).putLong(filterPosition).putInt(filter.length).putInt(numHashFunctions);
+            drain(buffer, channel);
+            channel.force(true);
+        } finally {
+            Files.deleteIfExists(offsetsFile);
+        }
+        return open(file, number);
+    }
+
+    private static void drain(final ByteBuffer buffer, final FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void addToFilter(final long[] filter, final long numBits, final int numHashFunctions, final byte[] key) {
+        final long hash = hash(key);
+        for (int i = 0; i < numHashFunctions; i++) {
+            final long bit = bit(hash, i, numBits);
+            filter[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if {@code key} is definitely not in the segment, true if it may be
+     */
+    boolean mightContain(final byte[] key) {
+        final long hash = hash(key);
+        for (int i = 0; i < numHashFunctions; i++) {
+            final long bit = bit(hash, i, numFilterBits);
+            if ((getLong(filterPosition + (bit >>> 6) * Long.BYTES) & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Double hashing, as in {@link CountingBloomFilter}
+     */
+    private static long bit(final long hash, final int i, final long numBits) {
+        return ((hash & 0xFFFFFFFFL) + i * (hash >>> 32)) % numBits;
+    }
+
+    private static long hash(final byte[] key) {
+        long hash = 0;
+        for (byte b : key) {
+            hash = hash * 31 + b;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @return the value of {@code key}, {@link LSMTree#DELETED} if the segment records its deletion, or null if
+     * the segment does not have it
+     */
+    byte[] get(final byte[] key) {
+        if (!mightContain(key)) {
+            return null;
+        }
+        long low = 0;
+        long high = numRecords - 1;
+        while (low <= high) {
+            final long middle = (low + high) >>> 1;
+            final long record = getLong(offsetsPosition + middle * Long.BYTES);
+            final int comparison = compareKey(record, key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return readValue(record);
+            }
+        }
+        return null;
+    }
+
+    private int compareKey(final long record, final byte[] key) {
+        final int keyLength = getInt(record);
+        final long keyPosition = record + 2 * Integer.BYTES;
+        for (int i = 0; i < Math.min(keyLength, key.length); i++) {
+            final int comparison = (getByte(keyPosition + i) & 0xFF) - (key[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return keyLength - key.length;
+    }
+
+    private byte[] readValue(final long record) {
+        final int valueLength = getInt(record + Integer.BYTES);
+        if (valueLength == DELETION) {
+            return LSMTree.DELETED;
+        }
+        return read(record + 2 * Integer.BYTES + getInt(record), valueLength);
+    }
+
+    /**
+     * @return the records in key order
+     */
+    Iterator<Map.Entry<byte[], byte[]>> iterator() {
+        return new Iterator<Map.Entry<byte[], byte[]>>() {
+            private long position;
+
+            @Override
+            public boolean hasNext() {
+                return position < offsetsPosition;
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final int keyLength = getInt(position);
+                final int valueLength = getInt(position + Integer.BYTES);
+                final byte[] key = read(position + 2 * Integer.BYTES, keyLength);
+                final byte[] value = valueLength == DELETION ? LSMTree.DELETED : read(position + 2 * Integer.BYTES + keyLength, valueLength);
+                position += 2 * Integer.BYTES + keyLength + Math.max(0, valueLength);
+                return new AbstractMap.SimpleImmutableEntry<>(key, value);
+            }
+        };
+    }
+
+    private byte getByte(final long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK));
+    }
+
+    private int getInt(final long position) {
+        final ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+        final int index = (int) (position & CHUNK_MASK);
+        if (index + Integer.BYTES <= chunk.limit()) {
+            return chunk.getInt(index);
+        }
+        return ByteBuffer.wrap(read(position, Integer.BYTES)).getInt();
+    }
+
+    private long getLong(final long position) {
+        final ByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+        final int index = (int) (position & CHUNK_MASK);
+        if (index + Long.BYTES <= chunk.limit()) {
+            return chunk.getLong(index);
+        }
+        return ByteBuffer.wrap(read(position, Long.BYTES)).getLong();
+    }
+
+    /**
+     * Copies {@code length} bytes, which may span two chunks
+     */
+    private byte[] read(final long position, final int length) {
+        final byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            final long current = position + copied;
+            final ByteBuffer chunk = chunks[(int) (current >>> CHUNK_BITS)].duplicate();
+            chunk.position((int) (current & CHUNK_MASK));
+            final int n = Math.min(length - copied, chunk.remaining());
+            chunk.get(bytes, copied, n);
+            copied += n;
+        }
+        return bytes;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getNumber() {
+        return number;
+    }
+
+    long getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * @return the size of the file in bytes
+     */
+    long getSize() {
+        return size;
+    }
+}
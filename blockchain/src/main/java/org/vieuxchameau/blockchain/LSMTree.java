@@ -0,0 +1,710 @@
+package org.vieuxchameau.blockchain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded key-value store of byte arrays, organized as a log-structured merge tree in a directory, for the
+ * chain state: UTXOs through {@link LSMUTXOStore}, block indexes...
+ * <p>
+ * Writes are appended to a write-ahead log, forced to the disk, then applied to a sorted in-memory table. Once
+ * the table reaches {@code memtableSize} bytes, it is frozen, a new log is started, and the table is written by
+ * a background thread as an immutable sorted {@link LSMSegment} with its own Bloom filter. Lookups go from the
+ * newest data to the oldest: the table, the frozen table, then the segments. When there are more than
+ * {@code maxSegments} segments, the same thread merges a few consecutive segments of similar sizes, so each key
+ * is rewritten a logarithmic number of times. The list of segments and the first log still needed are recorded
+ * in a manifest replaced atomically, and the logs and segments which are not needed any more are deleted.
+ * <p>
+ * Reads do not take the lock of the writes: they work on an immutable snapshot of the tables and segments.
+ * Writes wait while the frozen table is still being written and the current one is full. A failure of the
+ * background thread is reported by the next write as an {@code IllegalStateException}, like the other I/O
+ * errors.
+ */
+public class LSMTree implements Closeable {
+
+    /**
+     * Value of the deleted keys in the tables and the segments, compared by identity
+     */
+    static final byte[] DELETED = new byte[0];
+
+    private static final int MERGE_WIDTH = 4;
+    private static final int BATCH_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private static final int RECORD_OVERHEAD = 64;
+    private static final String MANIFEST = "MANIFEST";
+    private static final String LOG_PREFIX = "log-";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final Comparator<byte[]> KEY_ORDER = LSMTree::compare;
+
+    /**
+     * Changes applied atomically by {@link #write(Batch)}, a later change of a key overriding an earlier one
+     */
+    public static class Batch {
+        private final List<byte[]> keys = new ArrayList<>();
+        private final List<byte[]> values = new ArrayList<>();
+
+        public Batch put(final byte[] key, final byte[] value) {
+            if (value == null) {
+                throw new IllegalArgumentException("A value can not be null, use delete");
+            }
+            keys.add(key);
+            values.add(value);
+            return this;
+        }
+
+        public Batch delete(final byte[] key) {
+            keys.add(key);
+            values.add(DELETED);
+            return this;
+        }
+
+        public int size() {
+            return keys.size();
+        }
+    }
+
+    /**
+     * What the reads work on, replaced as a whole
+     */
+    private static class State {
+        final ConcurrentSkipListMap<byte[], byte[]> memtable;
+        /**
+         * table being written as a segment, or null
+         */
+        final ConcurrentSkipListMap<byte[], byte[]> frozenMemtable;
+        /**
+         * newest first
+         */
+        final List<LSMSegment> segments;
+
+        State(final ConcurrentSkipListMap<byte[], byte[]> memtable, final ConcurrentSkipListMap<byte[], byte[]> frozenMemtable,
+              final List<LSMSegment> segments) {
+            this.memtable = memtable;
+            this.frozenMemtable = frozenMemtable;
+            this.segments = Collections.unmodifiableList(segments);
+        }
+    }
+
+    private final Path directory;
+    private final long memtableSize;
+    private final int maxSegments;
+    private final ExecutorService background = Executors.newSingleThreadExecutor(new BlockChain.DaemonThreadFactory("lsm-compaction"));
+
+    private volatile State state;
+    private volatile Throwable backgroundFailure;
+    private FileChannel log;
+    private long logNumber;
+    /**
+     * oldest log of the current table
+     */
+    private long memtableFirstLogNumber;
+    /**
+     * oldest log whose writes are not in the segments yet, the one to replay from after a crash
+     */
+    private long firstNeededLogNumber;
+    private long logSize;
+    private long memtableBytes;
+    private long nextFileNumber;
+    private boolean syncWrites = true;
+    private boolean closed;
+
+    private volatile long flushes;
+    private volatile long flushedBytes;
+    private volatile long compactions;
+    private volatile long compactedBytes;
+
+    /**
+     * Opens the store of {@code directory}, creating it if needed, with a table of 64 MB and up to 8 segments
+     */
+    public LSMTree(final Path directory) throws IOException {
+        this(directory, 64 << 20, 8);
+    }
+
+    /**
+     * Opens the store of {@code directory}, creating it if needed: the segments of the manifest are mapped and
+     * the logs written since the last flush of the table are replayed into a new table
+     */
+    public LSMTree(final Path directory, final long memtableSize, final int maxSegments) throws IOException {
+        if (memtableSize <= 0) {
+            throw new IllegalArgumentException("memtableSize must be positive: " + memtableSize);
+        }
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("maxSegments must be at least 2: " + maxSegments);
+        }
+        this.directory = directory;
+        this.memtableSize = memtableSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+
+        long firstLogNumber = 0;
+        final List<String> segmentNames = new ArrayList<>();
+        final Path manifest = directory.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            final List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+            firstLogNumber = Long.parseLong(lines.get(0));
+            segmentNames.addAll(lines.subList(1, lines.size()));
+        }
+
+        final TreeMap<Long, Path> logs = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                if (name.startsWith(LOG_PREFIX)) {
+                    final long number = fileNumber(name, LOG_PREFIX);
+                    nextFileNumber = Math.max(nextFileNumber, number + 1);
+                    if (number < firstLogNumber) {
+                        Files.delete(file);
+                    } else {
+                        logs.put(number, file);
+                    }
+                } else if (name.startsWith(SEGMENT_PREFIX)) {
+                    nextFileNumber = Math.max(nextFileNumber, fileNumber(name, SEGMENT_PREFIX) + 1);
+                    if (!segmentNames.contains(name)) {
+                        // left by a flush or a compaction which did not complete
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+
+        final List<LSMSegment> segments = new ArrayList<>();
+        for (String name : segmentNames) {
+            segments.add(LSMSegment.open(directory.resolve(name), fileNumber(name, SEGMENT_PREFIX)));
+        }
+        final ConcurrentSkipListMap<byte[], byte[]> memtable = new ConcurrentSkipListMap<>(KEY_ORDER);
+        for (Path file : logs.values()) {
+            replay(file, memtable);
+        }
+        state = new State(memtable, null, segments);
+        // the replayed logs are kept, and the last one is continued, until the table is flushed
+        nextFileNumber = Math.max(nextFileNumber, firstLogNumber);
+        logNumber = logs.isEmpty() ? nextFileNumber++ : logs.lastKey();
+        memtableFirstLogNumber = logs.isEmpty() ? logNumber : logs.firstKey();
+        firstNeededLogNumber = memtableFirstLogNumber;
+        log = FileChannel.open(logFile(logNumber), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        logSize = log.size();
+        writeManifest(segments);
+    }
+
+    private static long fileNumber(final String name, final String prefix) {
+        return Long.parseLong(name.substring(prefix.length(), name.indexOf('.')));
+    }
+
+    private Path logFile(final long number) {
+        return directory.resolve(LOG_PREFIX + number + ".log");
+    }
+
+    /**
+     * Applies the batches of the log {@code file} to {@code memtable}, up to the first incomplete or corrupted
+     * one, left by a crash, which is cut off
+     */
+    private void replay(final Path file, final ConcurrentSkipListMap<byte[], byte[]> memtable) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_SIZE);
+            long position = 0;
+            while (true) {
+                header.clear();
+                if (readFully(channel, header, position) < BATCH_HEADER_SIZE) {
+                    break;
+                }
+                final int payloadLength = header.getInt(0);
+                if (payloadLength < 0 || position + BATCH_HEADER_SIZE + payloadLength > channel.size()) {
+                    break;
+                }
+                final ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+                readFully(channel, payload, position + BATCH_HEADER_SIZE);
+                if (checksum(payload) != header.getLong(Integer.BYTES)) {
+                    break;
+                }
+                payload.flip();
+                while (payload.hasRemaining()) {
+                    final byte[] key = new byte[payload.getInt()];
+                    final int valueLength = payload.getInt();
+                    payload.get(key);
+                    final byte[] value = valueLength < 0 ? DELETED : new byte[valueLength];
+                    payload.get(value);
+                    memtable.put(key, value);
+                    memtableBytes += key.length + value.length + RECORD_OVERHEAD;
+                }
+                position += BATCH_HEADER_SIZE + payloadLength;
+            }
+            channel.truncate(position);
+        }
+    }
+
+    private static int readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            final int n = channel.read(buffer, position + read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    private static long checksum(final ByteBuffer payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.limit());
+        return crc.getValue();
+    }
+
+    /**
+     * Replaces the manifest with one recording {@code segments} and the first log to replay
+     */
+    private void writeManifest(final List<LSMSegment> segments) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        lines.add(Long.toString(firstNeededLogNumber));
+        for (LSMSegment segment : segments) {
+            lines.add(segment.getFile().getFileName().toString());
+        }
+        final Path temporary = directory.resolve(MANIFEST + ".tmp");
+        Files.write(temporary, lines, StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Forcing the log after each write can be disabled for bulk loads, a crash then losing the last writes
+     */
+    public synchronized void setSyncWrites(final boolean syncWrites) {
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * @return the value of {@code key}, or null if it is not in the store
+     */
+    public byte[] get(final byte[] key) {
+        final State current = state;
+        byte[] value = current.memtable.get(key);
+        if (value == null && current.frozenMemtable != null) {
+            value = current.frozenMemtable.get(key);
+        }
+        for (int i = 0; value == null && i < current.segments.size(); i++) {
+            value = current.segments.get(i).get(key);
+        }
+        return value == DELETED ? null : value;
+    }
+
+    public void put(final byte[] key, final byte[] value) {
+        write(new Batch().put(key, value));
+    }
+
+    public void delete(final byte[] key) {
+        write(new Batch().delete(key));
+    }
+
+    /**
+     * Applies {@code batch} as a whole: once it returns the batch is durable, if the writes are synced, and after
+     * a crash either all of it or none of it is visible. Concurrent reads may see a part of it while it is applied.
+     */
+    public synchronized void write(final Batch batch) {
+        if (closed) {
+            throw new IllegalStateException("The store is closed");
+        }
+        if (batch.size() == 0) {
+            return;
+        }
+        try {
+            while (state.frozenMemtable != null && memtableBytes >= memtableSize) {
+                checkBackground();
+                wait();
+            }
+            checkBackground();
+            appendToLog(batch);
+            final ConcurrentSkipListMap<byte[], byte[]> memtable = state.memtable;
+            for (int i = 0; i < batch.size(); i++) {
+                memtable.put(batch.keys.get(i), batch.values.get(i));
+                memtableBytes += batch.keys.get(i).length + batch.values.get(i).length + RECORD_OVERHEAD;
+            }
+            if (memtableBytes >= memtableSize && state.frozenMemtable == null) {
+                freezeMemtable();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("The store cannot be written", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the table to be flushed", e);
+        }
+    }
+
+    private void checkBackground() {
+        if (backgroundFailure != null) {
+            throw new IllegalStateException("The background flush or compaction failed", backgroundFailure);
+        }
+    }
+
+    private void appendToLog(final Batch batch) throws IOException {
+        int payloadLength = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            payloadLength += 2 * Integer.BYTES + batch.keys.get(i).length + batch.values.get(i).length;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(BATCH_HEADER_SIZE + payloadLength);
+        buffer.position(BATCH_HEADER_SIZE);
+        for (int i = 0; i < batch.size(); i++) {
+            final byte[] value = batch.values.get(i);
+            buffer.putInt(batch.keys.get(i).length).putInt(value == DELETED ? -1 : value.length).put(batch.keys.get(i)).put(value);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), BATCH_HEADER_SIZE, payloadLength);
+        buffer.putInt(0, payloadLength).putLong(Integer.BYTES, crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            logSize += log.write(buffer, logSize);
+        }
+        if (syncWrites) {
+            log.force(false);
+        }
+    }
+
+    /**
+     * Starts a new log and a new table, the current one being written as a segment in the background
+     */
+    private void freezeMemtable() throws IOException {
+        final long frozenFirstLogNumber = memtableFirstLogNumber;
+        final long frozenLastLogNumber = logNumber;
+        log.force(false);
+        log.close();
+        logNumber = nextFileNumber++;
+        memtableFirstLogNumber = logNumber;
+        log = FileChannel.open(logFile(logNumber), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        logSize = 0;
+        memtableBytes = 0;
+        final State current = state;
+        state = new State(new ConcurrentSkipListMap<>(KEY_ORDER), current.memtable, current.segments);
+        final long nextLogNumber = logNumber;
+        background.execute(() -> runInBackground(() -> {
+            flushFrozenMemtable(nextLogNumber);
+            for (long number = frozenFirstLogNumber; number <= frozenLastLogNumber; number++) {
+                Files.deleteIfExists(logFile(number));
+            }
+            while (compactOnce()) {
+                // merge until there are few enough segments
+            }
+        }));
+    }
+
+    private interface IOTask {
+        void run() throws IOException;
+    }
+
+    private void runInBackground(final IOTask task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            backgroundFailure = e;
+        } finally {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes the frozen table as the newest segment, after which the logs are only needed from
+     * {@code nextLogNumber}
+     */
+    private void flushFrozenMemtable(final long nextLogNumber) throws IOException {
+        final State frozen = state;
+        final LSMSegment segment = writeSegment(frozen.frozenMemtable.entrySet().iterator(), frozen.frozenMemtable.size(),
+                frozen.segments.isEmpty());
+        synchronized (this) {
+            final List<LSMSegment> segments = new ArrayList<>(state.segments.size() + 1);
+            if (segment != null) {
+                segments.add(segment);
+            }
+            segments.addAll(state.segments);
+            firstNeededLogNumber = nextLogNumber;
+            writeManifest(segments);
+            state = new State(state.memtable, null, segments);
+            flushes++;
+            flushedBytes += segment == null ? 0 : segment.getSize();
+        }
+    }
+
+    /**
+     * @return the new segment, or null if all the records have been dropped
+     */
+    private LSMSegment writeSegment(final Iterator<Map.Entry<byte[], byte[]>> records, final long maxRecords,
+                                    final boolean dropDeletions) throws IOException {
+        final long number;
+        synchronized (this) {
+            number = nextFileNumber++;
+        }
+        final LSMSegment segment = LSMSegment.write(directory.resolve(SEGMENT_PREFIX + number + ".sst"), number, records,
+                maxRecords, dropDeletions);
+        if (segment.getNumRecords() == 0) {
+            Files.delete(segment.getFile());
+            return null;
+        }
+        return segment;
+    }
+
+    /**
+     * Merges consecutive segments, 2 to {@value #MERGE_WIDTH} of them, if there are more than {@code maxSegments}
+     * segments. The run chosen rewrites the fewest bytes per segment it removes, so the large old segments are
+     * only merged once the newer ones have grown to a comparable size.
+     *
+     * @return true if segments have been merged
+     */
+    private boolean compactOnce() throws IOException {
+        final List<LSMSegment> segments = state.segments;
+        if (segments.size() <= maxSegments) {
+            return false;
+        }
+        int first = 0;
+        int width = 0;
+        long mergedSize = 0;
+        double smallestCost = Double.MAX_VALUE;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            long size = segments.get(i).getSize();
+            for (int j = i + 1; j < Math.min(segments.size(), i + MERGE_WIDTH); j++) {
+                size += segments.get(j).getSize();
+                final double cost = (double) size / (j - i);
+                if (cost < smallestCost) {
+                    smallestCost = cost;
+                    first = i;
+                    width = j - i + 1;
+                    mergedSize = size;
+                }
+            }
+        }
+        final List<LSMSegment> merged = segments.subList(first, first + width);
+        final List<Iterator<Map.Entry<byte[], byte[]>>> sources = new ArrayList<>();
+        long maxRecords = 0;
+        for (LSMSegment segment : merged) {
+            sources.add(segment.iterator());
+            maxRecords += segment.getNumRecords();
+        }
+        // the deleted keys can be forgotten once no older segment can hold them
+        final boolean dropDeletions = first + width == segments.size();
+        final LSMSegment segment = writeSegment(new MergingIterator(sources), maxRecords, dropDeletions);
+        synchronized (this) {
+            // the segments are only changed by this thread, the list may just have a new segment for a frozen table
+            final List<LSMSegment> current = new ArrayList<>(state.segments);
+            final int position = current.indexOf(merged.get(0));
+            current.subList(position, position + width).clear();
+            if (segment != null) {
+                current.add(position, segment);
+            }
+            writeManifest(current);
+            state = new State(state.memtable, state.frozenMemtable, current);
+            compactions++;
+            compactedBytes += mergedSize;
+        }
+        // a reader of an older state may still use the mapped files, which stay readable once deleted
+        for (LSMSegment old : merged) {
+            Files.deleteIfExists(old.getFile());
+        }
+        return true;
+    }
+
+    /**
+     * Merges sorted sources, the first ones being the newest: for a key present in several sources, only the
+     * record of the newest is kept
+     */
+    private static class MergingIterator implements Iterator<Map.Entry<byte[], byte[]>> {
+
+        private static class Head {
+            final Map.Entry<byte[], byte[]> record;
+            final int source;
+
+            Head(final Map.Entry<byte[], byte[]> record, final int source) {
+                this.record = record;
+                this.source = source;
+            }
+        }
+
+        private final List<Iterator<Map.Entry<byte[], byte[]>>> sources;
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((head, other) -> {
+            final int comparison = compare(head.record.getKey(), other.record.getKey());
+            return comparison != 0 ? comparison : Integer.compare(head.source, other.source);
+        });
+
+        MergingIterator(final List<Iterator<Map.Entry<byte[], byte[]>>> sources) {
+            this.sources = sources;
+            for (int i = 0; i < sources.size(); i++) {
+                advance(i);
+            }
+        }
+
+        private void advance(final int source) {
+            if (sources.get(source).hasNext()) {
+                heads.add(new Head(sources.get(source).next(), source));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<byte[], byte[]> next() {
+            if (heads.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            final Head newest = heads.poll();
+            advance(newest.source);
+            while (!heads.isEmpty() && compare(heads.peek().record.getKey(), newest.record.getKey()) == 0) {
+                advance(heads.poll().source);
+            }
+            return newest.record;
+        }
+    }
+
+    /**
+     * Calls {@code action} for each key of the store, in key order. The writes made meanwhile may or may not be
+     * seen.
+     */
+    public void forEach(final BiConsumer<byte[], byte[]> action) {
+        final State current = state;
+        final List<Iterator<Map.Entry<byte[], byte[]>>> sources = new ArrayList<>();
+        sources.add(current.memtable.entrySet().iterator());
+        if (current.frozenMemtable != null) {
+            sources.add(current.frozenMemtable.entrySet().iterator());
+        }
+        for (LSMSegment segment : current.segments) {
+            sources.add(segment.iterator());
+        }
+        final MergingIterator records = new MergingIterator(sources);
+        while (records.hasNext()) {
+            final Map.Entry<byte[], byte[]> record = records.next();
+            if (record.getValue() != DELETED) {
+                action.accept(record.getKey(), record.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the current table as a segment and waits for it and for the compactions it triggers, for instance
+     * before measuring reads from the segments
+     */
+    public void flush() {
+        synchronized (this) {
+            try {
+                while (state.frozenMemtable != null) {
+                    checkBackground();
+                    wait();
+                }
+                if (!state.memtable.isEmpty()) {
+                    freezeMemtable();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("The store cannot be written", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the table to be flushed", e);
+            }
+        }
+        try {
+            background.submit(() -> {
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the table to be flushed", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+        checkBackground();
+    }
+
+    /**
+     * Unsigned lexicographic order of the keys
+     */
+    static int compare(final byte[] key, final byte[] other) {
+        for (int i = 0; i < Math.min(key.length, other.length); i++) {
+            final int comparison = (key[i] & 0xFF) - (other[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return key.length - other.length;
+    }
+
+    public int getNumSegments() {
+        return state.segments.size();
+    }
+
+    /**
+     * @return the size in bytes of the segment files
+     */
+    public long getSegmentsSize() {
+        long size = 0;
+        for (LSMSegment segment : state.segments) {
+            size += segment.getSize();
+        }
+        return size;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * @return the size in bytes of the segments written for the frozen tables
+     */
+    public long getFlushedBytes() {
+        return flushedBytes;
+    }
+
+    public long getCompactions() {
+        return compactions;
+    }
+
+    /**
+     * @return the size in bytes of the segments merged by the compactions
+     */
+    public long getCompactedBytes() {
+        return compactedBytes;
+    }
+
+    /**
+     * Stops the background thread once its current task is done and closes the log. The table is not flushed,
+     * it is replayed from the log on the next opening.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        background.shutdown();
+        try {
+            background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            log.close();
+        }
+    }
+}
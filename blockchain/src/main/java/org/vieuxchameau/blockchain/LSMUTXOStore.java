@@ -0,0 +1,65 @@
+package org.vieuxchameau.blockchain;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link UTXOStore} over an {@link LSMTree}, the UTXOs and outputs being encoded by {@link UTXOCodec}
+ * <p>
+ * Unlike {@link FileUTXOStore}, nothing is kept in memory per UTXO, so the set can be far larger than the heap.
+ */
+public class LSMUTXOStore implements UTXOStore {
+
+    private final LSMTree tree;
+
+    /**
+     * The store owns {@code tree}, which is closed with it
+     */
+    public LSMUTXOStore(final LSMTree tree) {
+        this.tree = tree;
+    }
+
+    @Override
+    public Transaction.Output get(final UTXO utxo) {
+        final byte[] output = tree.get(UTXOCodec.encodeKey(utxo));
+        return output == null ? null : UTXOCodec.decodeOutput(output);
+    }
+
+    @Override
+    public void write(final Map<UTXO, Transaction.Output> batch) {
+        final LSMTree.Batch changes = new LSMTree.Batch();
+        for (Map.Entry<UTXO, Transaction.Output> entry : batch.entrySet()) {
+            if (entry.getValue() == null) {
+                changes.delete(UTXOCodec.encodeKey(entry.getKey()));
+            } else {
+                changes.put(UTXOCodec.encodeKey(entry.getKey()), UTXOCodec.encodeOutput(entry.getValue()));
+            }
+        }
+        tree.write(changes);
+    }
+
+    @Override
+    public void forEach(final BiConsumer<UTXO, Transaction.Output> action) {
+        tree.forEach((key, output) -> action.accept(UTXOCodec.decodeKey(key), UTXOCodec.decodeOutput(output)));
+    }
+
+    /**
+     * Counts the UTXOs by scanning the whole tree, the deletions not telling whether the keys were present
+     */
+    @Override
+    public long size() {
+        final long[] size = new long[1];
+        tree.forEach((key, output) -> size[0]++);
+        return size[0];
+    }
+
+    public LSMTree getTree() {
+        return tree;
+    }
+
+    @Override
+    public void close() throws IOException {
+        tree.close();
+    }
+}
@@ -0,0 +1,27 @@
+package org.vieuxchameau.blockchain;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link BlockStore} keeping the blocks themselves in memory, the default one of the {@link BlockChain}
+ */
+public class MemoryBlockStore implements BlockStore {
+
+    private final Map<ByteArrayWrapper, Block> blocks = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(final Block block) {
+        blocks.put(new ByteArrayWrapper(block.getHash()), block);
+    }
+
+    @Override
+    public Block get(final byte[] blockHash) {
+        return blocks.get(new ByteArrayWrapper(blockHash));
+    }
+
+    @Override
+    public void remove(final byte[] blockHash) {
+        blocks.remove(new ByteArrayWrapper(blockHash));
+    }
+}
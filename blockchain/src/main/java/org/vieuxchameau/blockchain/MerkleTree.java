@@ -0,0 +1,218 @@
+package org.vieuxchameau.blockchain;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Merkle tree over transaction hashes, built incrementally as leaves are appended
+ * <p>
+ * A leaf node is the SHA-256 of {@code 0x00} and the leaf, an inner node the SHA-256 of {@code 0x01}, its left
+ * child and its right child, so an inner node cannot pass as a leaf. The last node of a level with an odd number of
+ * nodes is promoted unchanged to the next level rather than paired with itself, so two different lists of leaves
+ * cannot share a root. Only the complete inner nodes are stored: appending a leaf hashes at most one node per level
+ * and the nodes on the right edge are computed on demand. Appending many leaves at once hashes each level in
+ * parallel.
+ */
+public class MerkleTree {
+
+    private static final byte LEAF_NODE_PREFIX = 0x00;
+    private static final byte INNER_NODE_PREFIX = 0x01;
+    private static final int HASH_SIZE = 32;
+    /**
+     * minimum number of nodes of a level to hash it in parallel
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 10;
+
+    /**
+     * Path from a leaf to the root
+     */
+    public static class Proof {
+        private final int index;
+        private final int numLeaves;
+        private final byte[][] siblings;
+
+        public Proof(final int index, final int numLeaves, final byte[][] siblings) {
+            this.index = index;
+            this.numLeaves = numLeaves;
+            this.siblings = siblings;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getNumLeaves() {
+            return numLeaves;
+        }
+
+        /**
+         * @return the siblings of the path from the leaf to the root, the levels where the node of the path is
+         * promoted having none
+         */
+        public List<byte[]> getSiblings() {
+            return Collections.unmodifiableList(Arrays.asList(siblings));
+        }
+    }
+
+    private final List<byte[]> leaves = new ArrayList<>();
+    /**
+     * {@code levels.get(0)} holds the leaf nodes, each next level the complete parents of the previous one
+     */
+    private final List<List<byte[]>> levels = new ArrayList<>();
+
+    public MerkleTree() {
+        levels.add(new ArrayList<>());
+    }
+
+    /**
+     * @return the tree over {@code leaves}
+     */
+    public static MerkleTree of(final List<byte[]> leaves) {
+        final MerkleTree tree = new MerkleTree();
+        tree.appendAll(leaves);
+        return tree;
+    }
+
+    public int getNumLeaves() {
+        return leaves.size();
+    }
+
+    public byte[] getLeaf(final int index) {
+        return leaves.get(index);
+    }
+
+    public void append(final byte[] leaf) {
+        appendAll(Collections.singletonList(leaf));
+    }
+
+    public void appendAll(final List<byte[]> leaves) {
+        final byte[][] leafNodes = new byte[leaves.size()][];
+        IntStream leafRange = IntStream.range(0, leafNodes.length);
+        if (leafNodes.length >= PARALLEL_THRESHOLD) {
+            leafRange = leafRange.parallel();
+        }
+        leafRange.forEach(i -> leafNodes[i] = hashLeafNode(leaves.get(i)));
+        this.leaves.addAll(leaves);
+        levels.get(0).addAll(Arrays.asList(leafNodes));
+        for (int level = 0; levels.get(level).size() > 1; level++) {
+            if (level + 1 == levels.size()) {
+                levels.add(new ArrayList<>());
+            }
+            final List<byte[]> children = levels.get(level);
+            final List<byte[]> parents = levels.get(level + 1);
+            final int from = parents.size();
+            final int to = children.size() / 2;
+            if (from == to) {
+                break;
+            }
+            final byte[][] newParents = new byte[to - from][];
+            IntStream range = IntStream.range(from, to);
+            if (to - from >= PARALLEL_THRESHOLD) {
+                range = range.parallel();
+            }
+            range.forEach(i -> newParents[i - from] = hashInnerNode(children.get(2 * i), children.get(2 * i + 1)));
+            parents.addAll(Arrays.asList(newParents));
+        }
+    }
+
+    /**
+     * @return the root of the tree, 32 zero bytes if it has no leaf
+     */
+    public byte[] getRoot() {
+        final int numLeaves = getNumLeaves();
+        if (numLeaves == 0) {
+            return new byte[HASH_SIZE];
+        }
+        int level = 0;
+        for (int numNodes = numLeaves; numNodes > 1; numNodes = (numNodes + 1) / 2) {
+            level++;
+        }
+        return getNode(level, 0);
+    }
+
+    /**
+     * @return the node at {@code index} of {@code level}, computing it if it is on the right edge of the tree
+     */
+    private byte[] getNode(final int level, final int index) {
+        if (level < levels.size() && index < levels.get(level).size()) {
+            return levels.get(level).get(index);
+        }
+        final byte[] left = getNode(level - 1, 2 * index);
+        if (2 * index + 1 >= getNumNodes(level - 1)) {
+            return left;
+        }
+        return hashInnerNode(left, getNode(level - 1, 2 * index + 1));
+    }
+
+    private int getNumNodes(final int level) {
+        int numNodes = getNumLeaves();
+        for (int i = 0; i < level; i++) {
+            numNodes = (numNodes + 1) / 2;
+        }
+        return numNodes;
+    }
+
+    /**
+     * @return the proof that the leaf at {@code index} is in the tree
+     */
+    public Proof getProof(final int index) {
+        final int numLeaves = getNumLeaves();
+        if (index < 0 || index >= numLeaves) {
+            throw new IllegalArgumentException("No leaf at " + index + ", the tree has " + numLeaves + " leaves");
+        }
+        final List<byte[]> siblings = new ArrayList<>();
+        int level = 0;
+        int nodeIndex = index;
+        for (int numNodes = numLeaves; numNodes > 1; numNodes = (numNodes + 1) / 2) {
+            final int siblingIndex = nodeIndex ^ 1;
+            if (siblingIndex < numNodes) {
+                siblings.add(getNode(level, siblingIndex));
+            }
+            nodeIndex /= 2;
+            level++;
+        }
+        return new Proof(index, numLeaves, siblings.toArray(new byte[0][]));
+    }
+
+    /**
+     * @return true if {@code proof} leads from {@code leaf} to {@code root}
+     */
+    public static boolean verify(final byte[] leaf, final Proof proof, final byte[] root) {
+        if (proof.index < 0 || proof.index >= proof.numLeaves) {
+            return false;
+        }
+        byte[] node = hashLeafNode(leaf);
+        int nodeIndex = proof.index;
+        int sibling = 0;
+        for (int numNodes = proof.numLeaves; numNodes > 1; numNodes = (numNodes + 1) / 2) {
+            if ((nodeIndex ^ 1) < numNodes) {
+                if (sibling == proof.siblings.length) {
+                    return false;
+                }
+                final byte[] siblingNode = proof.siblings[sibling++];
+                node = (nodeIndex & 1) == 0 ? hashInnerNode(node, siblingNode) : hashInnerNode(siblingNode, node);
+            }
+            nodeIndex /= 2;
+        }
+        return sibling == proof.siblings.length && MessageDigest.isEqual(node, root);
+    }
+
+    private static byte[] hashLeafNode(final byte[] leaf) {
+        final MessageDigest md = Block.newDigest();
+        md.update(LEAF_NODE_PREFIX);
+        md.update(leaf);
+        return md.digest();
+    }
+
+    private static byte[] hashInnerNode(final byte[] left, final byte[] right) {
+        final MessageDigest md = Block.newDigest();
+        md.update(INNER_NODE_PREFIX);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+}
@@ -0,0 +1,180 @@
+package org.vieuxchameau.blockchain;
+
+import java.io.Closeable;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Searches a nonce giving a block a hash which meets its difficulty
+ * <p>
+ * The nonce space is split between the threads, thread {@code t} trying the nonces {@code t},
+ * {@code t + threads}, ... The first {@link Block#HEADER_PREFIX_SIZE} bytes of the header are hashed once and each
+ * attempt clones that midstate to only hash the difficulty and the nonce. A search stops when a thread finds a
+ * nonce or when {@link #cancel()} is called, typically because a competing block has extended the chain.
+ * <p>
+ * Each cancellation starts a new generation. A caller reads {@link #getGeneration()} before reading the parent of
+ * the block to mine, so a cancellation arriving before the search starts still stops it.
+ * <p>
+ * The threads are kept between searches until the miner is {@linkplain #close() closed}.
+ */
+public class Miner implements Closeable {
+
+    /**
+     * number of attempts between two updates of the shared hash counter
+     */
+    private static final int REPORT_INTERVAL = 1 << 12;
+
+    private final int threads;
+    private final ExecutorService executor;
+    /**
+     * incremented by each cancellation, a search runs as long as it is the one it has been started with
+     */
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long lastHashes;
+    private volatile long lastNanos;
+
+    public Miner(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("A miner needs at least one thread: " + threads);
+        }
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, new BlockChain.DaemonThreadFactory("miner"));
+    }
+
+    /**
+     * Sets the nonce and the hash of {@code block} once a nonce meeting its difficulty is found, unless the search
+     * is cancelled
+     *
+     * @return true if a nonce has been found, false if the search has been cancelled
+     */
+    public boolean mine(final Block block) {
+        return mine(block, getGeneration());
+    }
+
+    /**
+     * Sets the nonce and the hash of {@code block} once a nonce meeting its difficulty is found. Only one search
+     * runs at a time.
+     *
+     * @param generation generation read before the parent of {@code block}, the search does not start if
+     *                   {@link #cancel()} has been called since
+     * @return true if a nonce has been found, false if the search has been cancelled
+     */
+    public synchronized boolean mine(final Block block, final long generation) {
+        final byte[] header = block.getHeader(0);
+        final MessageDigest midstate = Block.newDigest();
+        midstate.update(header, 0, Block.HEADER_PREFIX_SIZE);
+
+        final AtomicBoolean found = new AtomicBoolean();
+        final AtomicLong nonce = new AtomicLong();
+        final AtomicLong hashes = new AtomicLong();
+        final long start = System.nanoTime();
+        final List<Future<?>> searches = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final long firstNonce = t;
+            searches.add(executor.submit(() -> search(firstNonce, midstate, header, block.getDifficulty(), generation, found, nonce, hashes)));
+        }
+        try {
+            for (Future<?> search : searches) {
+                search.get();
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            cancel();
+            throw new IllegalStateException("A mining thread has failed", e.getCause());
+        } finally {
+            lastNanos = System.nanoTime() - start;
+            lastHashes = hashes.get();
+        }
+        if (!found.get()) {
+            return false;
+        }
+        block.setNonce(nonce.get());
+        block.finalize();
+        return true;
+    }
+
+    private void search(final long firstNonce, final MessageDigest sharedMidstate, final byte[] header, final int difficulty,
+                        final long expectedGeneration, final AtomicBoolean found, final AtomicLong foundNonce, final AtomicLong hashes) {
+        final MessageDigest midstate = cloneOf(sharedMidstate);
+        final byte[] tail = new byte[Block.HEADER_SIZE - Block.HEADER_PREFIX_SIZE];
+        System.arraycopy(header, Block.HEADER_PREFIX_SIZE, tail, 0, tail.length);
+        long attempts = 0;
+        for (long nonce = firstNonce; !found.get() && generation.get() == expectedGeneration; nonce += threads) {
+            for (int i = 0; i < Long.BYTES; i++) {
+                tail[tail.length - 1 - i] = (byte) (nonce >>> (8 * i));
+            }
+            final MessageDigest attempt = cloneOf(midstate);
+            attempt.update(tail);
+            final byte[] hash = attempt.digest();
+            if (++attempts == REPORT_INTERVAL) {
+                hashes.addAndGet(attempts);
+                attempts = 0;
+            }
+            if (Block.meetsDifficulty(hash, difficulty) && found.compareAndSet(false, true)) {
+                foundNonce.set(nonce);
+            }
+        }
+        hashes.addAndGet(attempts);
+    }
+
+    private static MessageDigest cloneOf(final MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("The SHA-256 implementation cannot be cloned", e);
+        }
+    }
+
+    /**
+     * Stops the running search, if any, and the searches started with the current generation
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return the current generation, to be passed to {@link #mine(Block, long)}
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @return the number of hashes computed by the last search
+     */
+    public long getLastHashes() {
+        return lastHashes;
+    }
+
+    /**
+     * @return the hashes per second of the last search
+     */
+    public double getLastHashrate() {
+        return lastNanos == 0 ? 0 : lastHashes * 1e9 / lastNanos;
+    }
+
+    /**
+     * Cancels the running search and stops the threads, the miner must not be used afterwards
+     */
+    @Override
+    public void close() {
+        cancel();
+        executor.shutdown();
+    }
+
+    /**
+     * @return true once the miner has been closed
+     */
+    public boolean isClosed() {
+        return executor.isShutdown();
+    }
+}
@@ -4,25 +4,26 @@ import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.interfaces.RSAPublicKey;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class Transaction {
 
     public class Input {
         /**
-         * hash of the Transaction whose output is being used
+         * hash of the Transaction whose output is being used, never handed out so it cannot be modified
          */
-        public byte[] prevTxHash;
+        private final byte[] prevTxHash;
         /**
          * used output's index in the previous transaction
          */
-        public int outputIndex;
+        public final int outputIndex;
         /**
-         * the signature produced to check validity
+         * the signature produced to check validity, never modified once set
          */
-        public byte[] signature;
+        private byte[] signature;
 
         public Input(byte[] prevHash, int index) {
             if (prevHash == null) {
@@ -33,7 +34,29 @@ public class Transaction {
             outputIndex = index;
         }
 
+        /**
+         * @return a copy of the hash of the Transaction whose output is being used
+         */
+        public byte[] getPrevTxHash() {
+            return prevTxHash == null ? null : prevTxHash.clone();
+        }
+
+        /**
+         * @return the UTXO claimed by this input
+         */
+        public UTXO getUTXO() {
+            return new UTXO(prevTxHash, outputIndex);
+        }
+
+        /**
+         * @return a copy of the signature produced to check validity, or null if the input is not signed
+         */
+        public byte[] getSignature() {
+            return signature == null ? null : signature.clone();
+        }
+
         public void addSignature(byte[] sig) {
+            checkNotFinalized();
             if (sig == null) {
                 signature = null;
             } else {
@@ -86,15 +109,15 @@ public class Transaction {
         /**
          * value in bitcoins of the output
          */
-        public double value;
+        public final double value;
         /**
-         * the address or public key of the recipient
+         * the interned address of the recipient
          */
-        public PublicKey address;
+        public final Address address;
 
         public Output(double v, PublicKey addr) {
             value = v;
-            address = addr;
+            address = Address.of(addr);
         }
 
         public boolean equals(Object other) {
@@ -110,22 +133,14 @@ public class Transaction {
             if (value != op.value) {
                 return false;
             }
-            if (!((RSAPublicKey) address).getPublicExponent().equals(
-                    ((RSAPublicKey) op.address).getPublicExponent())) {
-                return false;
-            }
-            if (!((RSAPublicKey) address).getModulus().equals(
-                    ((RSAPublicKey) op.address).getModulus())) {
-                return false;
-            }
-            return true;
+            // addresses are interned, one instance per public key
+            return address == op.address;
         }
 
         public int hashCode() {
             int hash = 1;
             hash = hash * 17 + (int) value * 10000;
-            hash = hash * 31 + ((RSAPublicKey) address).getPublicExponent().hashCode();
-            hash = hash * 31 + ((RSAPublicKey) address).getModulus().hashCode();
+            hash = hash * 31 + address.getId();
             return hash;
         }
     }
@@ -136,6 +151,13 @@ public class Transaction {
     private byte[] hash;
     private ArrayList<Input> inputs;
     private ArrayList<Output> outputs;
+    /**
+     * set once by {@link #finalize()}, after which the transaction can no longer be modified and the
+     * encoded forms below are never recomputed
+     */
+    private volatile boolean finalized;
+    private byte[] rawTx;
+    private byte[][] rawDataToSign;
     private boolean coinbase;
 
     public Transaction() {
@@ -145,8 +167,13 @@ public class Transaction {
     }
 
     public Transaction(Transaction tx) {
-        hash = tx.hash.clone();
-        inputs = new ArrayList<Input>(tx.inputs);
+        hash = tx.hash == null ? null : tx.hash.clone();
+        inputs = new ArrayList<Input>(tx.inputs.size());
+        for (Input in : tx.inputs) {
+            Input copy = new Input(in.prevTxHash, in.outputIndex);
+            copy.signature = in.signature;
+            inputs.add(copy);
+        }
         outputs = new ArrayList<Output>(tx.outputs);
         coinbase = false;
     }
@@ -167,24 +194,27 @@ public class Transaction {
     }
 
     public void addInput(byte[] prevTxHash, int outputIndex) {
+        checkNotFinalized();
         Input in = new Input(prevTxHash, outputIndex);
         inputs.add(in);
     }
 
     public void addOutput(double value, PublicKey address) {
+        checkNotFinalized();
         Output op = new Output(value, address);
         outputs.add(op);
     }
 
     public void removeInput(int index) {
+        checkNotFinalized();
         inputs.remove(index);
     }
 
     public void removeInput(UTXO ut) {
+        checkNotFinalized();
         for (int i = 0; i < inputs.size(); i++) {
             Input in = inputs.get(i);
-            UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
-            if (u.equals(ut)) {
+            if (in.getUTXO().equals(ut)) {
                 inputs.remove(i);
                 return;
             }
@@ -193,45 +223,25 @@ public class Transaction {
 
     public byte[] getRawDataToSign(int index) {
         // ith input and all outputs
-        ArrayList<Byte> sigData = new ArrayList<Byte>();
-        if (index > inputs.size()) {
+        if (index >= inputs.size()) {
             return null;
         }
-        Input in = inputs.get(index);
+        if (finalized) {
+            return rawDataToSign[index].clone();
+        }
+        return encodeDataToSign(inputs.get(index));
+    }
+
+    private byte[] encodeDataToSign(Input in) {
         byte[] prevTxHash = in.prevTxHash;
-        ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-        b.putInt(in.outputIndex);
-        byte[] outputIndex = b.array();
+        int size = (prevTxHash == null ? 0 : prevTxHash.length) + Integer.BYTES + outputsSize();
+        ByteBuffer sigData = ByteBuffer.allocate(size);
         if (prevTxHash != null) {
-            for (int i = 0; i < prevTxHash.length; i++) {
-                sigData.add(prevTxHash[i]);
-            }
+            sigData.put(prevTxHash);
         }
-        for (int i = 0; i < outputIndex.length; i++) {
-            sigData.add(outputIndex[i]);
-        }
-        for (Output op : outputs) {
-            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
-            bo.putDouble(op.value);
-            byte[] value = bo.array();
-            byte[] addressExponent = ((RSAPublicKey) op.address).getPublicExponent().toByteArray();
-            byte[] addressModulus = ((RSAPublicKey) op.address).getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++) {
-                sigData.add(value[i]);
-            }
-            for (int i = 0; i < addressExponent.length; i++) {
-                sigData.add(addressExponent[i]);
-            }
-            for (int i = 0; i < addressModulus.length; i++) {
-                sigData.add(addressModulus[i]);
-            }
-        }
-        byte[] sigD = new byte[sigData.size()];
-        int i = 0;
-        for (Byte sb : sigData) {
-            sigD[i++] = sb;
-        }
-        return sigD;
+        sigData.putInt(in.outputIndex);
+        putOutputs(sigData);
+        return sigData.array();
     }
 
     public void addSignature(byte[] signature, int index) {
@@ -239,75 +249,115 @@ public class Transaction {
     }
 
     public byte[] getRawTx() {
-        ArrayList<Byte> rawTx = new ArrayList<Byte>();
+        if (finalized) {
+            return rawTx.clone();
+        }
+        return encodeRawTx();
+    }
+
+    private byte[] encodeRawTx() {
+        int size = outputsSize();
         for (Input in : inputs) {
-            byte[] prevTxHash = in.prevTxHash;
-            ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-            b.putInt(in.outputIndex);
-            byte[] outputIndex = b.array();
-            byte[] signature = in.signature;
-            if (prevTxHash != null) {
-                for (int i = 0; i < prevTxHash.length; i++) {
-                    rawTx.add(prevTxHash[i]);
-                }
+            size += (in.prevTxHash == null ? 0 : in.prevTxHash.length) + Integer.BYTES
+                    + (in.signature == null ? 0 : in.signature.length);
+        }
+        ByteBuffer rawTx = ByteBuffer.allocate(size);
+        for (Input in : inputs) {
+            if (in.prevTxHash != null) {
+                rawTx.put(in.prevTxHash);
             }
-            for (int i = 0; i < outputIndex.length; i++) {
-                rawTx.add(outputIndex[i]);
-            }
-            if (signature != null) {
-                for (int i = 0; i < signature.length; i++) {
-                    rawTx.add(signature[i]);
-                }
+            rawTx.putInt(in.outputIndex);
+            if (in.signature != null) {
+                rawTx.put(in.signature);
             }
         }
+        putOutputs(rawTx);
+        return rawTx.array();
+    }
+
+    private int outputsSize() {
+        int size = 0;
         for (Output op : outputs) {
-            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
-            b.putDouble(op.value);
-            byte[] value = b.array();
-            byte[] addressExponent = ((RSAPublicKey) op.address).getPublicExponent().toByteArray();
-            byte[] addressModulus = ((RSAPublicKey) op.address).getModulus().toByteArray();
-            for (int i = 0; i < value.length; i++) {
-                rawTx.add(value[i]);
-            }
-            for (int i = 0; i < addressExponent.length; i++) {
-                rawTx.add(addressExponent[i]);
-            }
-            for (int i = 0; i < addressModulus.length; i++) {
-                rawTx.add(addressModulus[i]);
-            }
+            size += Double.BYTES + op.address.getEncoded().length;
         }
-        byte[] tx = new byte[rawTx.size()];
-        int i = 0;
-        for (Byte b : rawTx) {
-            tx[i++] = b;
+        return size;
+    }
+
+    private void putOutputs(ByteBuffer buffer) {
+        for (Output op : outputs) {
+            buffer.putDouble(op.value);
+            buffer.put(op.address.getEncoded());
         }
-        return tx;
     }
 
+    /**
+     * Computes the hash, the raw transaction and the data to sign of every input once and freezes
+     * the transaction: any later attempt to modify it fails with an {@code IllegalStateException}.
+     * Calling it again on a finalized transaction does nothing. The inputs, outputs, signatures and
+     * encodings are only handed out as read-only views or copies, so a finalized transaction can be
+     * shared between threads.
+     */
     public void finalize() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawTx());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
+        if (finalized) {
+            return;
+        }
+        synchronized (this) {
+            if (finalized) {
+                return;
+            }
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                rawTx = encodeRawTx();
+                md.update(rawTx);
+                hash = md.digest();
+                rawDataToSign = new byte[inputs.size()][];
+                for (int i = 0; i < rawDataToSign.length; i++) {
+                    rawDataToSign[i] = encodeDataToSign(inputs.get(i));
+                }
+                finalized = true;
+            } catch (NoSuchAlgorithmException x) {
+                x.printStackTrace(System.err);
+            }
+        }
+    }
+
+    /**
+     * @return true once {@link #finalize()} has been called, the transaction is then immutable
+     */
+    public boolean isFinalized() {
+        return finalized;
+    }
+
+    private void checkNotFinalized() {
+        if (finalized) {
+            throw new IllegalStateException("Transaction is finalized and can no longer be modified");
         }
     }
 
     public void setHash(byte[] h) {
+        checkNotFinalized();
         hash = h;
     }
 
+    /**
+     * @return a copy of the hash, so a finalized transaction cannot be modified through it
+     */
     public byte[] getHash() {
-        return hash;
+        return hash == null ? null : hash.clone();
     }
 
-    public ArrayList<Input> getInputs() {
-        return inputs;
+    /**
+     * @return a read-only view of the inputs
+     */
+    public List<Input> getInputs() {
+        return Collections.unmodifiableList(inputs);
     }
 
-    public ArrayList<Output> getOutputs() {
-        return outputs;
+    /**
+     * @return a read-only view of the outputs
+     */
+    public List<Output> getOutputs() {
+        return Collections.unmodifiableList(outputs);
     }
 
     public Input getInput(int index) {
@@ -374,4 +424,44 @@ public class Transaction {
         }
         return hash;
     }
+
+    /**
+     * Mutable builder of a {@code Transaction}, {@link #build()} returns the finalized, immutable
+     * transaction. The builder cannot be used any more once built.
+     */
+    public static class Builder {
+        private final Transaction tx = new Transaction();
+
+        public Builder addInput(byte[] prevTxHash, int outputIndex) {
+            tx.addInput(prevTxHash, outputIndex);
+            return this;
+        }
+
+        public Builder addOutput(double value, PublicKey address) {
+            tx.addOutput(value, address);
+            return this;
+        }
+
+        public Builder removeInput(int index) {
+            tx.removeInput(index);
+            return this;
+        }
+
+        /**
+         * @return the data the owner of the output claimed by input {@code index} has to sign
+         */
+        public byte[] getRawDataToSign(int index) {
+            return tx.getRawDataToSign(index);
+        }
+
+        public Builder addSignature(byte[] signature, int index) {
+            tx.addSignature(signature, index);
+            return this;
+        }
+
+        public Transaction build() {
+            tx.finalize();
+            return tx;
+        }
+    }
 }
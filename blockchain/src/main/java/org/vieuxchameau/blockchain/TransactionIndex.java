@@ -0,0 +1,351 @@
+package org.vieuxchameau.blockchain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Index from the hash of a confirmed transaction to the height of the block containing it on the max height
+ * branch and the position of the transaction in the block. The branch has a single block per height, which
+ * {@link BlockChain#getBlockAt(int, byte[])} returns, so the block hash is not stored.
+ * <p>
+ * The entries are fixed size slots of an open addressing table with linear probing, stored in
+ * {@link ByteBuffer} segments of up to 2^{@value #SEGMENT_BITS} slots each: on the heap, or memory-mapped
+ * on consecutive regions of a file so that a large index is paged by the operating system rather than held by
+ * the JVM. Slots are addressed by a {@code long}, so the table is not limited by the size of a single buffer.
+ * A slot is
+ * <pre>
+ * state int | transaction hash 32 bytes | height int | position int
+ * </pre>
+ * Removed entries leave a tombstone until the next resize. The hashes being SHA-256, their first bytes are used
+ * as is to pick the first slot.
+ */
+public class TransactionIndex implements Closeable {
+
+    private static final int HASH_SIZE = 32;
+    private static final int STATE_OFFSET = 0;
+    private static final int TX_HASH_OFFSET = 4;
+    private static final int HEIGHT_OFFSET = TX_HASH_OFFSET + HASH_SIZE;
+    private static final int POSITION_OFFSET = HEIGHT_OFFSET + Integer.BYTES;
+    private static final int SLOT_SIZE = POSITION_OFFSET + Integer.BYTES;
+    /**
+     * a segment holds at most 2^20 slots, 44 MB
+     */
+    private static final int SEGMENT_BITS = 20;
+    private static final long MAX_CAPACITY = 1L << 40;
+
+    private static final int EMPTY = 0;
+    private static final int USED = 1;
+    private static final int REMOVED = 2;
+
+    /**
+     * Where a transaction has been confirmed
+     */
+    public static class Location {
+        private final int height;
+        private final int position;
+
+        private Location(final int height, final int position) {
+            this.height = height;
+            this.position = position;
+        }
+
+        /**
+         * @return the height of the block of the max height branch containing the transaction
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return the index of the transaction in {@link Block#getTransactions()}
+         */
+        public int getPosition() {
+            return position;
+        }
+    }
+
+    /**
+     * null when the slots are on the heap
+     */
+    private final Path file;
+    private final int maxSegmentBits;
+    private FileChannel channel;
+    private ByteBuffer[] segments;
+    private int segmentBits;
+    private long capacity;
+    private long size;
+    private long removedSlots;
+
+    /**
+     * Creates an index on the heap
+     */
+    public TransactionIndex(final long initialCapacity) {
+        this.file = null;
+        this.maxSegmentBits = SEGMENT_BITS;
+        try {
+            allocate(toCapacity(initialCapacity), null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates an index memory-mapped on {@code file}, which is truncated
+     */
+    public TransactionIndex(final Path file, final long initialCapacity) throws IOException {
+        this(file, initialCapacity, SEGMENT_BITS);
+    }
+
+    /**
+     * Creates an index memory-mapped on {@code file} in segments of at most 2^{@code maxSegmentBits} slots
+     */
+    TransactionIndex(final Path file, final long initialCapacity, final int maxSegmentBits) throws IOException {
+        this.file = file;
+        this.maxSegmentBits = maxSegmentBits;
+        this.channel = openTruncated(file);
+        allocate(toCapacity(initialCapacity), channel);
+    }
+
+    private static FileChannel openTruncated(final Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static long toCapacity(final long expectedSize) {
+        if (expectedSize < 0 || expectedSize > MAX_CAPACITY / 2) {
+            throw new IllegalArgumentException("The capacity must be between 0 and " + MAX_CAPACITY / 2 + ": " + expectedSize);
+        }
+        return Math.max(16, Long.highestOneBit(Math.max(1, expectedSize * 2 - 1)) << 1);
+    }
+
+    /**
+     * Replaces the segments by empty ones holding {@code newCapacity} slots, on the heap or mapped on the regions
+     * of {@code newChannel}
+     */
+    private void allocate(final long newCapacity, final FileChannel newChannel) throws IOException {
+        segmentBits = Math.min(maxSegmentBits, Long.numberOfTrailingZeros(newCapacity));
+        final int segmentSize = (1 << segmentBits) * SLOT_SIZE;
+        final ByteBuffer[] newSegments = new ByteBuffer[(int) (newCapacity >>> segmentBits)];
+        for (int i = 0; i < newSegments.length; i++) {
+            newSegments[i] = newChannel == null ? ByteBuffer.allocate(segmentSize)
+                    : newChannel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentSize, segmentSize);
+        }
+        segments = newSegments;
+        capacity = newCapacity;
+    }
+
+    private ByteBuffer segment(final long slot) {
+        return segments[(int) (slot >>> segmentBits)];
+    }
+
+    private int offset(final long slot) {
+        return (int) (slot & ((1 << segmentBits) - 1)) * SLOT_SIZE;
+    }
+
+    /**
+     * Indexes the transaction with {@code txHash} at {@code position} in the block at {@code height},
+     * replacing its previous location if it was already indexed
+     */
+    public void put(final byte[] txHash, final int height, final int position) {
+        put(txHash, height, position, true);
+    }
+
+    /**
+     * Indexes the transaction with {@code txHash} at {@code position} in the block at {@code height} unless it
+     * is already indexed
+     *
+     * @return true if it has been indexed
+     */
+    public boolean putIfAbsent(final byte[] txHash, final int height, final int position) {
+        return put(txHash, height, position, false);
+    }
+
+    private boolean put(final byte[] txHash, final int height, final int position, final boolean replace) {
+        checkHash(txHash);
+        if (size + removedSlots + 1 > capacity / 4 * 3) {
+            resize();
+        }
+        long slot = findSlot(txHash);
+        if (slot >= 0 && !replace) {
+            return false;
+        }
+        if (slot < 0) {
+            slot = -slot - 1;
+            final ByteBuffer segment = segment(slot);
+            final int offset = offset(slot);
+            if (segment.getInt(offset + STATE_OFFSET) == REMOVED) {
+                removedSlots--;
+            }
+            size++;
+            for (int i = 0; i < HASH_SIZE; i++) {
+                segment.put(offset + TX_HASH_OFFSET + i, txHash[i]);
+            }
+            segment.putInt(offset + STATE_OFFSET, USED);
+        }
+        final ByteBuffer segment = segment(slot);
+        final int offset = offset(slot);
+        segment.putInt(offset + HEIGHT_OFFSET, height);
+        segment.putInt(offset + POSITION_OFFSET, position);
+        return true;
+    }
+
+    /**
+     * Removes the transaction with {@code txHash} if it is indexed in the block at {@code height}
+     *
+     * @return true if it has been removed
+     */
+    public boolean remove(final byte[] txHash, final int height) {
+        checkHash(txHash);
+        final long slot = findSlot(txHash);
+        if (slot < 0 || segment(slot).getInt(offset(slot) + HEIGHT_OFFSET) != height) {
+            return false;
+        }
+        segment(slot).putInt(offset(slot) + STATE_OFFSET, REMOVED);
+        size--;
+        removedSlots++;
+        return true;
+    }
+
+    /**
+     * @return where the transaction with {@code txHash} has been confirmed, or null if it is not indexed
+     */
+    public Location get(final byte[] txHash) {
+        checkHash(txHash);
+        final long slot = findSlot(txHash);
+        if (slot < 0) {
+            return null;
+        }
+        final ByteBuffer segment = segment(slot);
+        final int offset = offset(slot);
+        return new Location(segment.getInt(offset + HEIGHT_OFFSET), segment.getInt(offset + POSITION_OFFSET));
+    }
+
+    /**
+     * @return the slot of {@code txHash}, or {@code -(slot + 1)} where it would be inserted: the first removed
+     * slot met while probing, or else the empty slot ending the probe
+     */
+    private long findSlot(final byte[] txHash) {
+        final long mask = capacity - 1;
+        long firstRemoved = -1;
+        for (long slot = ByteBuffer.wrap(txHash).getLong() & mask; ; slot = (slot + 1) & mask) {
+            final ByteBuffer segment = segment(slot);
+            final int offset = offset(slot);
+            final int state = segment.getInt(offset + STATE_OFFSET);
+            if (state == EMPTY) {
+                return -((firstRemoved >= 0 ? firstRemoved : slot) + 1);
+            }
+            if (state == REMOVED) {
+                if (firstRemoved < 0) {
+                    firstRemoved = slot;
+                }
+            } else if (matches(segment, offset + TX_HASH_OFFSET, txHash)) {
+                return slot;
+            }
+        }
+    }
+
+    private static boolean matches(final ByteBuffer segment, final int offset, final byte[] hash) {
+        for (int i = 0; i < HASH_SIZE; i++) {
+            if (segment.get(offset + i) != hash[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rehashes the entries in a table twice as large, or of the same size if most of the used slots are
+     * removed ones; a memory-mapped index is rehashed in a new file which then replaces the previous one
+     */
+    private void resize() {
+        final long newCapacity = size + 1 > capacity / 4 ? capacity * 2 : capacity;
+        if (newCapacity > MAX_CAPACITY) {
+            throw new IllegalStateException("The transaction index cannot hold more than " + MAX_CAPACITY / 4 * 3 + " transactions");
+        }
+        final ByteBuffer[] oldSegments = segments;
+        final int oldSegmentBits = segmentBits;
+        try {
+            FileChannel newChannel = null;
+            Path newFile = null;
+            if (file != null) {
+                newFile = Paths.get(file + ".resize");
+                newChannel = openTruncated(newFile);
+            }
+            allocate(newCapacity, newChannel);
+            removedSlots = 0;
+            final byte[] txHash = new byte[HASH_SIZE];
+            final int oldSegmentSlots = 1 << oldSegmentBits;
+            for (ByteBuffer oldSegment : oldSegments) {
+                for (int oldSlot = 0; oldSlot < oldSegmentSlots; oldSlot++) {
+                    final int oldOffset = oldSlot * SLOT_SIZE;
+                    if (oldSegment.getInt(oldOffset + STATE_OFFSET) != USED) {
+                        continue;
+                    }
+                    for (int i = 0; i < HASH_SIZE; i++) {
+                        txHash[i] = oldSegment.get(oldOffset + TX_HASH_OFFSET + i);
+                    }
+                    final long slot = -findSlot(txHash) - 1;
+                    final ByteBuffer segment = segment(slot);
+                    final int offset = offset(slot);
+                    for (int i = 0; i < SLOT_SIZE; i++) {
+                        segment.put(offset + i, oldSegment.get(oldOffset + i));
+                    }
+                }
+            }
+            if (file != null) {
+                channel.close();
+                Files.move(newFile, file, StandardCopyOption.REPLACE_EXISTING);
+                channel = newChannel;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("The transaction index file cannot be resized", e);
+        }
+    }
+
+    private static void checkHash(final byte[] hash) {
+        if (hash == null || hash.length != HASH_SIZE) {
+            throw new IllegalArgumentException("A hash must have " + HASH_SIZE + " bytes");
+        }
+    }
+
+    /**
+     * @return the number of indexed transactions
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of slots
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of buffers the slots are split into
+     */
+    public int getNumSegments() {
+        return segments.length;
+    }
+
+    public boolean isMemoryMapped() {
+        return file != null;
+    }
+
+    /**
+     * Closes the file of a memory-mapped index, the index must not be used afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -1,40 +1,171 @@
 package org.vieuxchameau.blockchain;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Implements a pool of transactions, required when creating a new
  * block
+ * <p>
+ * The transactions are kept in the order they have been added, so a transaction spending the outputs of
+ * another pooled transaction comes after it. The pool indexes the coin each pooled transaction spends and the
+ * outputs each one creates so that {@link #addTransaction(Transaction, UTXOPool)} detects conflicts in
+ * O(inputs). The pool is thread-safe.
  */
 public class TransactionPool {
 
-    private HashMap<ByteArrayWrapper, Transaction> H;
+    private final LinkedHashMap<ByteArrayWrapper, Transaction> H;
+    /**
+     * the pooled transaction spending each coin
+     */
+    private final Map<UTXO, Transaction> spenders;
+    /**
+     * the outputs of the pooled transactions, which other pooled transactions may spend
+     */
+    private final Map<UTXO, Transaction.Output> pendingOutputs;
 
     public TransactionPool() {
-        H = new HashMap<ByteArrayWrapper, Transaction>();
+        H = new LinkedHashMap<ByteArrayWrapper, Transaction>();
+        spenders = new HashMap<>();
+        pendingOutputs = new HashMap<>();
     }
 
     public TransactionPool(TransactionPool txPool) {
-        H = new HashMap<ByteArrayWrapper, Transaction>(txPool.H);
+        synchronized (txPool) {
+            H = new LinkedHashMap<ByteArrayWrapper, Transaction>(txPool.H);
+            spenders = new HashMap<>(txPool.spenders);
+            pendingOutputs = new HashMap<>(txPool.pendingOutputs);
+        }
     }
 
-    public void addTransaction(Transaction tx) {
-        ByteArrayWrapper hash = new ByteArrayWrapper(tx.getHash());
+    /**
+     * Adds {@code tx} if each coin it claims is either in {@code utxoPool} or an output of a pooled transaction,
+     * and is not spent by another pooled transaction. The values and signatures are not checked here.
+     *
+     * @return true if {@code tx} has been added, false if it conflicts with the pool or is already pooled
+     */
+    public synchronized boolean addTransaction(final Transaction tx, final UTXOPool utxoPool) {
+        final ByteArrayWrapper hash = new ByteArrayWrapper(tx.getHash());
+        if (H.containsKey(hash)) {
+            return false;
+        }
+        for (Transaction.Input input : tx.getInputs()) {
+            final UTXO claimedUTXO = input.getUTXO();
+            if (spenders.containsKey(claimedUTXO)) {
+                return false;
+            }
+            if (!pendingOutputs.containsKey(claimedUTXO) && !utxoPool.contains(claimedUTXO)) {
+                return false;
+            }
+        }
         H.put(hash, tx);
+        index(tx);
+        return true;
+    }
+
+    private void index(final Transaction tx) {
+        for (Transaction.Input input : tx.getInputs()) {
+            spenders.putIfAbsent(input.getUTXO(), tx);
+        }
+        for (int i = 0; i < tx.numOutputs(); i++) {
+            pendingOutputs.put(new UTXO(tx.getHash(), i), tx.getOutput(i));
+        }
     }
 
-    public void removeTransaction(byte[] txHash) {
+    public synchronized void removeTransaction(byte[] txHash) {
         ByteArrayWrapper hash = new ByteArrayWrapper(txHash);
-        H.remove(hash);
+        final Transaction tx = H.remove(hash);
+        if (tx == null) {
+            return;
+        }
+        for (Transaction.Input input : tx.getInputs()) {
+            spenders.remove(input.getUTXO(), tx);
+        }
+        for (int i = 0; i < tx.numOutputs(); i++) {
+            pendingOutputs.remove(new UTXO(txHash, i));
+        }
+    }
+
+    /**
+     * Removes the pooled transactions other than {@code confirmedTx} which spend one of its coins, and all the
+     * pooled transactions depending on them
+     */
+    public synchronized void removeConflicts(final Transaction confirmedTx) {
+        for (Transaction.Input input : confirmedTx.getInputs()) {
+            final Transaction spender = spenders.get(input.getUTXO());
+            if (spender != null && spender != confirmedTx) {
+                removeWithDescendants(spender);
+            }
+        }
     }
 
-    public Transaction getTransaction(byte[] txHash) {
+    private void removeWithDescendants(final Transaction tx) {
+        final Deque<Transaction> toRemove = new ArrayDeque<>();
+        toRemove.push(tx);
+        while (!toRemove.isEmpty()) {
+            final Transaction removed = toRemove.pop();
+            removeTransaction(removed.getHash());
+            for (int i = 0; i < removed.numOutputs(); i++) {
+                final Transaction spender = spenders.get(new UTXO(removed.getHash(), i));
+                if (spender != null) {
+                    toRemove.push(spender);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps only the transactions which can still be added, in order, on top of {@code utxoPool}, typically
+     * after the max height block has moved to another branch
+     */
+    public synchronized void revalidate(final UTXOPool utxoPool) {
+        revalidate(utxoPool, new ArrayList<>());
+    }
+
+    /**
+     * Same as {@link #revalidate(UTXOPool)}, {@code readmittedTxs} being added first, in order, typically the
+     * transactions of the blocks the max height block has moved away from, which the pooled transactions may
+     * depend on
+     */
+    public synchronized void revalidate(final UTXOPool utxoPool, final List<Transaction> readmittedTxs) {
+        final List<Transaction> transactions = new ArrayList<>(readmittedTxs);
+        transactions.addAll(H.values());
+        H.clear();
+        spenders.clear();
+        pendingOutputs.clear();
+        for (Transaction tx : transactions) {
+            addTransaction(tx, utxoPool);
+        }
+    }
+
+    public synchronized Transaction getTransaction(byte[] txHash) {
         ByteArrayWrapper hash = new ByteArrayWrapper(txHash);
         return H.get(hash);
     }
 
-    public ArrayList<Transaction> getTransactions() {
+    /**
+     * @return the pooled transaction spending {@code utxo}, or null
+     */
+    public synchronized Transaction getSpender(final UTXO utxo) {
+        return spenders.get(utxo);
+    }
+
+    /**
+     * @return the output created by a pooled transaction at {@code utxo}, or null
+     */
+    public synchronized Transaction.Output getPendingOutput(final UTXO utxo) {
+        return pendingOutputs.get(utxo);
+    }
+
+    /**
+     * @return the pooled transactions in the order they have been added
+     */
+    public synchronized ArrayList<Transaction> getTransactions() {
         ArrayList<Transaction> T = new ArrayList<Transaction>();
         for (Transaction tx : H.values()) {
             T.add(tx);
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Function;
 
 public class TxHandler {
 
@@ -16,7 +17,19 @@ public class TxHandler {
      * constructor.
      */
     public TxHandler(final UTXOPool utxoPool) {
-        this.utxoPool = new UTXOPool(utxoPool);
+        this(utxoPool, true);
+    }
+
+    private TxHandler(final UTXOPool utxoPool, final boolean copy) {
+        this.utxoPool = copy ? new UTXOPool(utxoPool) : utxoPool;
+    }
+
+    /**
+     * @return a handler whose ledger is an {@link UTXOPool#overlay() overlay} of {@code utxoPool} rather than a
+     * copy, for a pool too large to be copied, which must not change while the handler is used
+     */
+    public static TxHandler overlaying(final UTXOPool utxoPool) {
+        return new TxHandler(utxoPool.overlay(), false);
     }
 
     /**
@@ -29,13 +42,25 @@ public class TxHandler {
      * values; and false otherwise.
      */
     public boolean isValidTx(final Transaction tx) {
+        return isValidTx(tx, utxoPool::getTxOutput, null);
+    }
+
+    /**
+     * Same checks as {@link #isValidTx(Transaction)} against the coins found by {@code unspentOutputs}, which
+     * returns null for a coin which does not exist or is already spent. When {@code signatureChecks} is not
+     * null the signatures (check #2) are not verified, they are added to {@code signatureChecks} instead.
+     */
+    static boolean isValidTx(final Transaction tx, final Function<UTXO, Transaction.Output> unspentOutputs, final List<SignatureCheck> signatureChecks) {
+        // The cheap checks come first so that a transaction claiming missing coins, which the pool filter
+        // usually rejects without a lookup, never costs a signature verification
         final Set<UTXO> claimedUTXOs = new HashSet<>(tx.numInputs());
+        final Transaction.Output[] claimedOutputs = new Transaction.Output[tx.numInputs()];
         double inputSum = 0;
         for (int i = 0; i < tx.numInputs(); i++) {
             final Transaction.Input input = tx.getInput(i);
 
-            final UTXO claimedUTXO = new UTXO(input.prevTxHash, input.outputIndex);
-            final Transaction.Output output = utxoPool.getTxOutput(claimedUTXO);
+            final UTXO claimedUTXO = input.getUTXO();
+            final Transaction.Output output = unspentOutputs.apply(claimedUTXO);
             if (output == null) { // check #1
                 show("Tx invalid because coin claimed from input {0} does not exist in the utxoPool", i);
                 return false;
@@ -46,14 +71,8 @@ public class TxHandler {
                 return false;
             }
 
-            final byte[] rawDataToSign = tx.getRawDataToSign(i);
-            if (!Crypto.verifySignature(output.address, rawDataToSign, input.signature)) { // check #2
-                show("Tx invalid because Input {0} signature is not valid", i);
-                return false;
-            }
-
-
             claimedUTXOs.add(claimedUTXO);
+            claimedOutputs[i] = output;
             inputSum += output.value;
         }
 
@@ -71,10 +90,20 @@ public class TxHandler {
             show("Tx invalid because the sum of the output values is greater than the sum of the input value");
             return false;
         }
+
+        for (int i = 0; i < tx.numInputs(); i++) {
+            final SignatureCheck signatureCheck = new SignatureCheck(claimedOutputs[i], tx.getRawDataToSign(i), tx.getInput(i).getSignature());
+            if (signatureChecks != null) {
+                signatureChecks.add(signatureCheck);
+            } else if (!signatureCheck.verify()) { // check #2
+                show("Tx invalid because Input {0} signature is not valid", i);
+                return false;
+            }
+        }
         return true;
     }
 
-    private void show(final String pattern, final Object... arguments) {
+    private static void show(final String pattern, final Object... arguments) {
         System.out.println(MessageFormat.format(pattern, arguments));
     }
 
@@ -105,7 +134,7 @@ public class TxHandler {
         validTx.finalize();
 
         for (Transaction.Input input : validTx.getInputs()) {
-            final UTXO claimedUTXO = new UTXO(input.prevTxHash, input.outputIndex);
+            final UTXO claimedUTXO = input.getUTXO();
             utxoPool.removeUTXO(claimedUTXO);
         }
 
@@ -116,4 +145,22 @@ public class TxHandler {
         }
     }
 
+    /**
+     * A signature of an input waiting to be verified against the address of the output it claims
+     */
+    public static class SignatureCheck {
+        private final Transaction.Output claimedOutput;
+        private final byte[] rawDataToSign;
+        private final byte[] signature;
+
+        private SignatureCheck(final Transaction.Output claimedOutput, final byte[] rawDataToSign, final byte[] signature) {
+            this.claimedOutput = claimedOutput;
+            this.rawDataToSign = rawDataToSign;
+            this.signature = signature;
+        }
+
+        public boolean verify() {
+            return Crypto.verifySignature(claimedOutput.address.getPublicKey(), rawDataToSign, signature);
+        }
+    }
 }
@@ -0,0 +1,370 @@
+package org.vieuxchameau.blockchain;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded write-back cache of UTXOs over a {@link UTXOStore}, meant to hold the UTXOs of a {@link UTXOPool}
+ * <p>
+ * At most {@code maxEntries} UTXOs are kept in memory. Looking up a UTXO which is not cached reads it from the
+ * store and caches it; adding or removing a UTXO only changes the cache and marks the entry dirty. The dirty
+ * entries are only written to the store, as a single batch, by {@link #flush()}, which the owner calls once the
+ * pool is in a consistent state, the block chain once a block or batch of blocks is settled, so the store never
+ * holds part of a block. A UTXO added then removed between two flushes is never written. The entries are evicted
+ * with the CLOCK algorithm: the hand skips, and clears, the entries used since it last passed and the dirty ones.
+ * When all of them are dirty the cache grows past {@code maxEntries} until the next flush, by the changes of the
+ * block being applied, and then evicts back to {@code maxEntries}.
+ * <p>
+ * Iterating over the map reads the whole store.
+ */
+public class UTXOCache extends AbstractMap<UTXO, Transaction.Output> {
+
+    private static class Entry {
+        final UTXO utxo;
+        /**
+         * null for a removal not yet written
+         */
+        Transaction.Output output;
+        boolean dirty;
+        /**
+         * not in the store, so a removal does not have to be written
+         */
+        boolean fresh;
+        boolean referenced;
+        int slot;
+
+        Entry(final UTXO utxo, final Transaction.Output output) {
+            this.utxo = utxo;
+            this.output = output;
+        }
+    }
+
+    private final UTXOStore store;
+    private final int maxEntries;
+    private final Map<UTXO, Entry> entries;
+    private Entry[] clock;
+    private int[] freeSlots;
+    private int numFreeSlots;
+    private int hand;
+    /**
+     * the entries marked dirty since the last flush, in order, some of them dropped since
+     */
+    private final List<Entry> dirtyEntries = new ArrayList<>();
+    private int numDirtyEntries;
+    /**
+     * number of UTXOs in the store seen through the cache
+     */
+    private long size;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long flushes;
+    private long flushedWrites;
+    private long skippedWrites;
+    private long lastFlushNanos;
+    private long totalFlushNanos;
+
+    public UTXOCache(final UTXOStore store, final int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The cache must hold at least one entry: " + maxEntries);
+        }
+        this.store = store;
+        this.maxEntries = maxEntries;
+        this.entries = new HashMap<>(Math.min(maxEntries, 1 << 16) * 2);
+        this.clock = new Entry[maxEntries];
+        this.freeSlots = new int[maxEntries];
+        for (int i = 0; i < maxEntries; i++) {
+            freeSlots[i] = maxEntries - 1 - i;
+        }
+        this.numFreeSlots = maxEntries;
+        this.size = store.size();
+    }
+
+    @Override
+    public Transaction.Output get(final Object key) {
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            hits++;
+            entry.referenced = true;
+            return entry.output;
+        }
+        misses++;
+        final UTXO utxo = (UTXO) key;
+        final Transaction.Output output = store.get(utxo);
+        if (output != null) {
+            insert(new Entry(utxo, output));
+        }
+        return output;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous output of {@code utxo}, read from the store if it is not cached
+     */
+    @Override
+    public Transaction.Output put(final UTXO utxo, final Transaction.Output output) {
+        if (output == null) {
+            throw new IllegalArgumentException("A UTXO must have an output");
+        }
+        Entry entry = entries.get(utxo);
+        final Transaction.Output previous;
+        if (entry != null) {
+            hits++;
+            previous = entry.output;
+        } else {
+            misses++;
+            previous = store.get(utxo);
+            entry = new Entry(utxo, null);
+            entry.fresh = previous == null;
+            insert(entry);
+        }
+        entry.output = output;
+        markDirty(entry);
+        entry.referenced = true;
+        if (previous == null) {
+            size++;
+        }
+        return previous;
+    }
+
+    @Override
+    public Transaction.Output remove(final Object key) {
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            final UTXO utxo = (UTXO) key;
+            final Transaction.Output previous = store.get(utxo);
+            if (previous != null) {
+                final Entry removal = new Entry(utxo, null);
+                insert(removal);
+                markDirty(removal);
+                size--;
+            }
+            return previous;
+        }
+        hits++;
+        final Transaction.Output previous = entry.output;
+        if (previous == null) {
+            return null;
+        }
+        size--;
+        if (entry.fresh) {
+            skippedWrites++;
+            drop(entry);
+        } else {
+            entry.output = null;
+            markDirty(entry);
+        }
+        return previous;
+    }
+
+    private void markDirty(final Entry entry) {
+        if (!entry.dirty) {
+            entry.dirty = true;
+            dirtyEntries.add(entry);
+            numDirtyEntries++;
+        }
+    }
+
+    private void insert(final Entry entry) {
+        if (entries.size() >= maxEntries) {
+            // the hand only goes round when a clean entry can be evicted
+            if (entries.size() > numDirtyEntries) {
+                evict();
+            } else if (numFreeSlots == 0) {
+                grow();
+            }
+        }
+        entry.slot = freeSlots[--numFreeSlots];
+        clock[entry.slot] = entry;
+        entries.put(entry.utxo, entry);
+    }
+
+    private void drop(final Entry entry) {
+        if (entry.dirty) {
+            // left in the dirty entries, skipped by the flush
+            entry.dirty = false;
+            numDirtyEntries--;
+        }
+        entries.remove(entry.utxo);
+        clock[entry.slot] = null;
+        freeSlots[numFreeSlots++] = entry.slot;
+    }
+
+    /**
+     * Evicts one clean entry, the hand passing at most twice over the entries when there is one
+     *
+     * @return false if all the entries are dirty and none has been evicted
+     */
+    private boolean evict() {
+        for (int step = 0; step < 2 * clock.length; step++) {
+            final Entry entry = clock[hand];
+            hand = (hand + 1) % clock.length;
+            if (entry == null || entry.dirty) {
+                continue;
+            }
+            if (entry.referenced) {
+                entry.referenced = false;
+                continue;
+            }
+            evictions++;
+            drop(entry);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Doubles the number of slots, the dirty entries being only written by {@link #flush()}
+     */
+    private void grow() {
+        final int length = clock.length;
+        clock = Arrays.copyOf(clock, 2 * length);
+        freeSlots = Arrays.copyOf(freeSlots, 2 * length);
+        for (int i = 0; i < length; i++) {
+            freeSlots[numFreeSlots++] = 2 * length - 1 - i;
+        }
+    }
+
+    /**
+     * Writes the dirty entries to the store as a single batch, then evicts the clean entries past
+     * {@code maxEntries}
+     */
+    public void flush() {
+        final long start = System.nanoTime();
+        final Map<UTXO, Transaction.Output> batch = new LinkedHashMap<>();
+        final List<Entry> written = new ArrayList<>(numDirtyEntries);
+        for (Entry entry : dirtyEntries) {
+            if (entry.dirty) {
+                batch.put(entry.utxo, entry.output);
+                written.add(entry);
+            }
+        }
+        if (batch.isEmpty()) {
+            dirtyEntries.clear();
+            return;
+        }
+        store.write(batch);
+        dirtyEntries.clear();
+        for (Entry entry : written) {
+            entry.dirty = false;
+            entry.fresh = false;
+            if (entry.output == null) {
+                drop(entry);
+            }
+        }
+        numDirtyEntries = 0;
+        while (entries.size() > maxEntries) {
+            evict();
+        }
+        flushes++;
+        flushedWrites += batch.size();
+        lastFlushNanos = System.nanoTime() - start;
+        totalFlushNanos += lastFlushNanos;
+    }
+
+    /**
+     * Iterates over a snapshot of the whole store seen through the changes not yet written, without flushing
+     */
+    @Override
+    public Set<Map.Entry<UTXO, Transaction.Output>> entrySet() {
+        final List<Map.Entry<UTXO, Transaction.Output>> snapshot = new ArrayList<>();
+        store.forEach((utxo, output) -> {
+            final Entry entry = entries.get(utxo);
+            if (entry == null || !entry.dirty) {
+                snapshot.add(new SimpleImmutableEntry<>(utxo, output));
+            }
+        });
+        for (Entry entry : entries.values()) {
+            if (entry.dirty && entry.output != null) {
+                snapshot.add(new SimpleImmutableEntry<>(entry.utxo, entry.output));
+            }
+        }
+        return new AbstractSet<Map.Entry<UTXO, Transaction.Output>>() {
+            @Override
+            public Iterator<Map.Entry<UTXO, Transaction.Output>> iterator() {
+                return snapshot.iterator();
+            }
+
+            @Override
+            public int size() {
+                return snapshot.size();
+            }
+        };
+    }
+
+    /**
+     * @return the number of UTXOs, kept up to date without reading the store
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    public UTXOStore getStore() {
+        return store;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the number of cached entries, including the removals not yet written, above
+     * {@link #getMaxEntries()} while more entries are dirty
+     */
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    /**
+     * @return the share of lookups, additions and removals served without reading the store
+     */
+    public double getHitRate() {
+        final long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * @return the number of additions and removals written to the store
+     */
+    public long getFlushedWrites() {
+        return flushedWrites;
+    }
+
+    /**
+     * @return the number of UTXOs added then removed between two flushes, which have never been written
+     */
+    public long getSkippedWrites() {
+        return skippedWrites;
+    }
+
+    public long getLastFlushNanos() {
+        return lastFlushNanos;
+    }
+
+    public double getMeanFlushNanos() {
+        return flushes == 0 ? 0 : (double) totalFlushNanos / flushes;
+    }
+}
@@ -0,0 +1,94 @@
+package org.vieuxchameau.blockchain;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Applies blocks of transactions to a {@link UTXOPool} backed by a {@link UTXOCache} over a
+ * {@link FileUTXOStore} in a temporary file, flushing the pool after each block, and reports the hit rate of the
+ * cache and the flush latency
+ * <p>
+ * Each transaction spends one UTXO and creates two. Half of the spent UTXOs were created by the last 6 blocks,
+ * as coins tend to be spent soon after being received, the others are picked among all the UTXOs.
+ * <p>
+ * Arguments: number of blocks (default 200), transactions per block (default 2000), cache size in UTXOs
+ * (default 50000), seed (default 1).
+ */
+public class UTXOCacheBenchmark {
+
+    private static final int NUM_ADDRESSES = 1000;
+    private static final int RECENT_BLOCKS = 6;
+
+    public static void main(final String[] args) throws GeneralSecurityException, IOException {
+        final int numBlocks = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int txsPerBlock = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        final int cacheSize = args.length > 2 ? Integer.parseInt(args[2]) : 50_000;
+        final Random random = new Random(args.length > 3 ? Long.parseLong(args[3]) : 1);
+
+        // the keys only need to be distinct, random moduli are enough
+        final KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        final PublicKey[] keys = new PublicKey[NUM_ADDRESSES];
+        for (int i = 0; i < NUM_ADDRESSES; i++) {
+            keys[i] = keyFactory.generatePublic(new RSAPublicKeySpec(new BigInteger(1024, random).setBit(1023).setBit(0), BigInteger.valueOf(65537)));
+        }
+
+        final Path file = Files.createTempFile("utxos", ".log");
+        final Transaction factory = new Transaction();
+        final List<UTXO> utxos = new ArrayList<>();
+        long blockNanos = 0;
+        try (FileUTXOStore store = new FileUTXOStore(file)) {
+            final UTXOCache cache = new UTXOCache(store, cacheSize);
+            final UTXOPool utxoPool = new UTXOPool(cache);
+            final UTXO coinbase = new UTXO(new byte[32], 0);
+            utxoPool.addUTXO(coinbase, factory.new Output(25, keys[0]));
+            utxos.add(coinbase);
+            utxoPool.flush();
+
+            // UTXOs of the list created by the last blocks start at this position
+            final int[] blockStarts = new int[RECENT_BLOCKS];
+            for (int block = 0; block < numBlocks; block++) {
+                final long start = System.nanoTime();
+                final int recentStart = Math.min(blockStarts[block % RECENT_BLOCKS], utxos.size() - 1);
+                blockStarts[block % RECENT_BLOCKS] = utxos.size();
+                for (int i = 0; i < txsPerBlock; i++) {
+                    final int bound = random.nextBoolean() ? recentStart : 0;
+                    final int spent = bound + random.nextInt(utxos.size() - bound);
+                    final UTXO utxo = utxos.get(spent);
+                    utxos.set(spent, utxos.get(utxos.size() - 1));
+                    utxos.remove(utxos.size() - 1);
+                    final Transaction.Output output = utxoPool.getTxOutput(utxo);
+                    utxoPool.removeUTXO(utxo);
+
+                    final byte[] txHash = new byte[32];
+                    random.nextBytes(txHash);
+                    for (int index = 0; index < 2; index++) {
+                        final UTXO created = new UTXO(txHash, index);
+                        utxoPool.addUTXO(created, factory.new Output(output.value / 2, keys[random.nextInt(NUM_ADDRESSES)]));
+                        utxos.add(created);
+                    }
+                }
+                utxoPool.flush();
+                blockNanos += System.nanoTime() - start;
+            }
+
+            System.out.println(numBlocks + " blocks of " + txsPerBlock + " transactions, " + utxos.size() + " UTXOs, cache of "
+                    + cacheSize);
+            System.out.println("block: " + blockNanos / 1e6 / numBlocks + " ms, flush: " + cache.getMeanFlushNanos() / 1e6
+                    + " ms mean, " + cache.getLastFlushNanos() / 1e6 + " ms last, " + cache.getFlushes() + " flushes");
+            System.out.println("hit rate: " + cache.getHitRate() + ", evictions: " + cache.getEvictions());
+            System.out.println("writes: " + cache.getFlushedWrites() + " flushed, " + cache.getSkippedWrites()
+                    + " skipped, log: " + store.getLogSize() / (1024 * 1024) + " MB for " + store.size() + " UTXOs");
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
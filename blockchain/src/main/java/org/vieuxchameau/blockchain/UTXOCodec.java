@@ -0,0 +1,62 @@
+package org.vieuxchameau.blockchain;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+
+/**
+ * Binary forms of the UTXOs and of their outputs, used by the {@link UTXOStore}s
+ * <pre>
+ * key:    transaction hash | output index int
+ * output: value double | exponent length int | public exponent | modulus
+ * </pre>
+ * Keys sort like the UTXOs with the same transaction hash length, by hash then by index.
+ */
+public final class UTXOCodec {
+
+    /**
+     * only used to create outputs, which are inner instances of {@code Transaction}
+     */
+    private static final Transaction OUTPUT_FACTORY = new Transaction();
+
+    private UTXOCodec() {
+    }
+
+    public static byte[] encodeKey(final UTXO utxo) {
+        final byte[] txHash = utxo.getTxHash();
+        return ByteBuffer.allocate(txHash.length + Integer.BYTES).put(txHash).putInt(utxo.getIndex()).array();
+    }
+
+    public static UTXO decodeKey(final byte[] key) {
+        final int hashLength = key.length - Integer.BYTES;
+        return new UTXO(Arrays.copyOf(key, hashLength), ByteBuffer.wrap(key, hashLength, Integer.BYTES).getInt());
+    }
+
+    public static byte[] encodeOutput(final Transaction.Output output) {
+        final RSAPublicKey publicKey = (RSAPublicKey) output.address.getPublicKey();
+        final byte[] exponent = publicKey.getPublicExponent().toByteArray();
+        final byte[] modulus = publicKey.getModulus().toByteArray();
+        return ByteBuffer.allocate(Double.BYTES + Integer.BYTES + exponent.length + modulus.length)
+                .putDouble(output.value).putInt(exponent.length).put(exponent).put(modulus).array();
+    }
+
+    public static Transaction.Output decodeOutput(final byte[] encoded) {
+        final ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        final double value = buffer.getDouble();
+        final byte[] exponent = new byte[buffer.getInt()];
+        buffer.get(exponent);
+        final byte[] modulus = new byte[buffer.remaining()];
+        buffer.get(modulus);
+        try {
+            final RSAPublicKeySpec keySpec = new RSAPublicKeySpec(new BigInteger(modulus), new BigInteger(exponent));
+            return OUTPUT_FACTORY.new Output(value, KeyFactory.getInstance("RSA").generatePublic(keySpec));
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException("The address of a stored output cannot be decoded", e);
+        }
+    }
+}
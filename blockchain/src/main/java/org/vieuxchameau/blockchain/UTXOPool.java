@@ -1,42 +1,362 @@
 package org.vieuxchameau.blockchain;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 public class UTXOPool {
 
     /**
-     * The current collection of UTXOs, with each one mapped to its corresponding transaction output
+     * The current collection of UTXOs, with each one mapped to its corresponding transaction output, held in
+     * memory or by a {@link UTXOCache}
      */
-    private HashMap<UTXO, Transaction.Output> H;
+    private Map<UTXO, Transaction.Output> H;
+
+    /**
+     * Optional filter rejecting the UTXOs which are definitely not in the pool before looking them up in {@code H}
+     */
+    private final CountingBloomFilter filter;
+    /**
+     * lookups of missing UTXOs, counted from the concurrent readers of the pool
+     */
+    private final LongAdder filterRejections = new LongAdder();
+    private final LongAdder filterFalsePositives = new LongAdder();
+    /**
+     * Optional index of the UTXOs of each address, see {@link #indexAddresses()}
+     */
+    private HashMap<Address, Set<UTXO>> utxosByAddress;
+    /**
+     * Optional hash of the UTXOs, see {@link #trackSetHash()}
+     */
+    private UTXOSetHash setHash;
 
     /**
      * Creates a new empty UTXOPool
      */
     public UTXOPool() {
         H = new HashMap<UTXO, Transaction.Output>();
+        filter = null;
+    }
+
+    /**
+     * Creates a new empty UTXOPool whose lookups of missing UTXOs are short-circuited by a counting Bloom filter
+     * sized for {@code expectedSize} UTXOs with a false positive rate of {@code falsePositiveRate}
+     */
+    public UTXOPool(int expectedSize, double falsePositiveRate) {
+        H = new HashMap<UTXO, Transaction.Output>();
+        filter = new CountingBloomFilter(expectedSize, falsePositiveRate);
+    }
+
+    /**
+     * Creates a UTXOPool holding its UTXOs in {@code cache}, so only the most recently used ones stay in memory.
+     * The pool starts with the UTXOs already in the store of the cache; the changes reach the store when the pool
+     * is {@link #flush() flushed}.
+     */
+    public UTXOPool(UTXOCache cache) {
+        H = cache;
+        filter = null;
     }
 
     /**
-     * Creates a new UTXOPool that is a copy of {@code uPool}
+     * Same as {@link #UTXOPool(UTXOCache)} with a counting Bloom filter, filled with the UTXOs already in the
+     * store, sparing a read of the store for most of the missing UTXOs
+     */
+    public UTXOPool(UTXOCache cache, int expectedSize, double falsePositiveRate) {
+        H = cache;
+        filter = new CountingBloomFilter(expectedSize, falsePositiveRate);
+        cache.getStore().forEach((utxo, output) -> filter.add(utxo));
+    }
+
+    /**
+     * Creates a UTXOPool over {@code utxos}, without filter, for instance a read-only view of the UTXOs of
+     * another pool whose {@code put} and {@code remove} throw an {@code UnsupportedOperationException}
+     */
+    UTXOPool(Map<UTXO, Transaction.Output> utxos) {
+        H = utxos;
+        filter = null;
+    }
+
+    /**
+     * Creates a new UTXOPool that is a copy of {@code uPool}, held in memory even if {@code uPool} is backed by
+     * a {@link UTXOCache}
      */
     public UTXOPool(UTXOPool uPool) {
         H = new HashMap<UTXO, Transaction.Output>(uPool.H);
+        filter = uPool.filter == null ? null : new CountingBloomFilter(uPool.filter);
+        if (uPool.utxosByAddress != null) {
+            utxosByAddress = new HashMap<>(uPool.utxosByAddress.size());
+            for (Map.Entry<Address, Set<UTXO>> entry : uPool.utxosByAddress.entrySet()) {
+                utxosByAddress.put(entry.getKey(), new HashSet<>(entry.getValue()));
+            }
+        }
+        if (uPool.setHash != null) {
+            setHash = new UTXOSetHash(uPool.setHash);
+        }
+    }
+
+    /**
+     * @return a pool reading through to the UTXOs of this one and keeping its own additions and removals in
+     * memory, so that transactions can be applied on top of a large pool, or of a read-only view, without
+     * copying it. This pool must not change while the overlay is used.
+     */
+    public UTXOPool overlay() {
+        return new UTXOPool(new Overlay(this));
+    }
+
+    /**
+     * UTXOs of a base pool seen through the changes made on top of it
+     */
+    private static class Overlay extends AbstractMap<UTXO, Transaction.Output> {
+        private final UTXOPool base;
+        /**
+         * UTXOs added on top of the base pool, mapped to null when they are removed
+         */
+        private final Map<UTXO, Transaction.Output> changes = new HashMap<>();
+
+        private Overlay(final UTXOPool base) {
+            this.base = base;
+        }
+
+        @Override
+        public Transaction.Output get(final Object key) {
+            if (!(key instanceof UTXO)) {
+                return null;
+            }
+            return changes.containsKey(key) ? changes.get(key) : base.getTxOutput((UTXO) key);
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Transaction.Output put(final UTXO utxo, final Transaction.Output output) {
+            final Transaction.Output previous = get(utxo);
+            changes.put(utxo, output);
+            return previous;
+        }
+
+        @Override
+        public Transaction.Output remove(final Object key) {
+            final Transaction.Output previous = get(key);
+            if (previous != null) {
+                changes.put((UTXO) key, null);
+            }
+            return previous;
+        }
+
+        /**
+         * @return a snapshot of the UTXOs, reading the whole base pool
+         */
+        @Override
+        public Set<Map.Entry<UTXO, Transaction.Output>> entrySet() {
+            final Map<UTXO, Transaction.Output> utxos = new HashMap<>();
+            base.forEach((utxo, output) -> {
+                if (!changes.containsKey(utxo)) {
+                    utxos.put(utxo, output);
+                }
+            });
+            for (Map.Entry<UTXO, Transaction.Output> change : changes.entrySet()) {
+                if (change.getValue() != null) {
+                    utxos.put(change.getKey(), change.getValue());
+                }
+            }
+            return Collections.unmodifiableMap(utxos).entrySet();
+        }
     }
 
     /**
      * Adds a mapping from UTXO {@code utxo} to transaction output @code{txOut} to the pool
      */
     public void addUTXO(UTXO utxo, Transaction.Output txOut) {
-        H.put(utxo, txOut);
+        final Transaction.Output previousOutput = H.put(utxo, txOut);
+        if (previousOutput == null && filter != null) {
+            filter.add(utxo);
+        }
+        if (utxosByAddress != null) {
+            if (previousOutput != null) {
+                unindex(utxo, previousOutput);
+            }
+            utxosByAddress.computeIfAbsent(txOut.address, address -> new HashSet<>()).add(utxo);
+        }
+        if (setHash != null) {
+            if (previousOutput != null) {
+                setHash.remove(utxo, previousOutput);
+            }
+            setHash.add(utxo, txOut);
+        }
     }
 
     /**
      * Removes the UTXO {@code utxo} from the pool
      */
     public void removeUTXO(UTXO utxo) {
-        H.remove(utxo);
+        final Transaction.Output removedOutput = H.remove(utxo);
+        if (removedOutput == null) {
+            return;
+        }
+        if (filter != null) {
+            filter.remove(utxo);
+        }
+        if (utxosByAddress != null) {
+            unindex(utxo, removedOutput);
+        }
+        if (setHash != null) {
+            setHash.remove(utxo, removedOutput);
+        }
+    }
+
+    /**
+     * Addresses without UTXO are dropped from the index so its size follows the number of holders
+     */
+    private void unindex(UTXO utxo, Transaction.Output output) {
+        final Set<UTXO> utxos = utxosByAddress.get(output.address);
+        utxos.remove(utxo);
+        if (utxos.isEmpty()) {
+            utxosByAddress.remove(output.address);
+        }
+    }
+
+    /**
+     * Indexes the UTXOs of the pool by the address they pay to, the index being maintained from now on by
+     * {@link #addUTXO(UTXO, Transaction.Output)} and {@link #removeUTXO(UTXO)}. Does nothing if the pool is
+     * already indexed.
+     */
+    public void indexAddresses() {
+        if (utxosByAddress != null) {
+            return;
+        }
+        utxosByAddress = new HashMap<>();
+        for (Map.Entry<UTXO, Transaction.Output> entry : H.entrySet()) {
+            utxosByAddress.computeIfAbsent(entry.getValue().address, address -> new HashSet<>()).add(entry.getKey());
+        }
+    }
+
+    /**
+     * Hashes the UTXOs of the pool, the hash being updated from now on by
+     * {@link #addUTXO(UTXO, Transaction.Output)} and {@link #removeUTXO(UTXO)}. Does nothing if the hash is
+     * already tracked.
+     */
+    public void trackSetHash() {
+        if (setHash == null) {
+            setHash = computeSetHash();
+        }
+    }
+
+    /**
+     * Tracks the hash of the UTXOs from {@code setHash}, which must be the hash of the UTXOs of the pool, for
+     * instance a hash recorded when the pool was last in the same state
+     */
+    public void trackSetHash(UTXOSetHash setHash) {
+        this.setHash = new UTXOSetHash(setHash);
+    }
+
+    /**
+     * Stops tracking the hash of the UTXOs, typically during a batch of changes whose resulting hash is known
+     */
+    public void untrackSetHash() {
+        setHash = null;
+    }
+
+    /**
+     * @return a copy of the hash of the UTXOs if it is tracked, otherwise the hash computed from all of them,
+     * for instance to check a pool loaded from a snapshot
+     */
+    public UTXOSetHash getSetHash() {
+        return setHash != null ? new UTXOSetHash(setHash) : computeSetHash();
+    }
+
+    private UTXOSetHash computeSetHash() {
+        final UTXOSetHash hash = new UTXOSetHash();
+        for (Map.Entry<UTXO, Transaction.Output> entry : H.entrySet()) {
+            hash.add(entry.getKey(), entry.getValue());
+        }
+        return hash;
+    }
+
+    public boolean isAddressIndexed() {
+        return utxosByAddress != null;
+    }
+
+    /**
+     * @return the UTXOs paying to {@code address}, a read-only view if the pool is indexed by address,
+     * otherwise found by scanning the whole pool
+     */
+    public Set<UTXO> getUTXOs(Address address) {
+        if (utxosByAddress != null) {
+            final Set<UTXO> utxos = utxosByAddress.get(address);
+            return utxos == null ? Collections.<UTXO>emptySet() : Collections.unmodifiableSet(utxos);
+        }
+        final Set<UTXO> utxos = new HashSet<>();
+        for (Map.Entry<UTXO, Transaction.Output> entry : H.entrySet()) {
+            if (entry.getValue().address == address) {
+                utxos.add(entry.getKey());
+            }
+        }
+        return utxos;
+    }
+
+    /**
+     * @return the sum of the values of the UTXOs paying to {@code address}
+     */
+    public double getBalance(Address address) {
+        double balance = 0;
+        for (UTXO utxo : getUTXOs(address)) {
+            balance += H.get(utxo).value;
+        }
+        return balance;
+    }
+
+    /**
+     * Picks UTXOs of {@code address} worth at least {@code amount}: the smallest single UTXO covering it if
+     * there is one, so the change is minimal, otherwise the largest UTXOs first, so the inputs are few.
+     * The UTXOs rejected by {@code spendable}, typically the ones already spent by pending transactions, are
+     * skipped.
+     *
+     * @return the selected UTXOs, or null if the spendable UTXOs of {@code address} are not worth {@code amount}
+     */
+    public List<UTXO> selectCoins(Address address, double amount, Predicate<UTXO> spendable) {
+        if (amount <= 0) {
+            return Collections.emptyList();
+        }
+        final List<UTXO> candidates = new ArrayList<>();
+        UTXO smallestCovering = null;
+        for (UTXO utxo : getUTXOs(address)) {
+            if (!spendable.test(utxo)) {
+                continue;
+            }
+            final double value = H.get(utxo).value;
+            if (value >= amount) {
+                if (smallestCovering == null || value < H.get(smallestCovering).value) {
+                    smallestCovering = utxo;
+                }
+            } else {
+                candidates.add(utxo);
+            }
+        }
+        if (smallestCovering != null) {
+            return Collections.singletonList(smallestCovering);
+        }
+        candidates.sort((utxo, other) -> Double.compare(H.get(other).value, H.get(utxo).value));
+        final List<UTXO> selected = new ArrayList<>();
+        double total = 0;
+        for (UTXO utxo : candidates) {
+            selected.add(utxo);
+            total += H.get(utxo).value;
+            if (total >= amount) {
+                return selected;
+            }
+        }
+        return null;
     }
 
     /**
@@ -44,14 +364,83 @@ public class UTXOPool {
      * not in the pool.
      */
     public Transaction.Output getTxOutput(UTXO ut) {
-        return H.get(ut);
+        // without filter the lookup itself answers, mightContain would look the UTXO up twice
+        if (filter != null && !mightContain(ut)) {
+            return null;
+        }
+        final Transaction.Output output = H.get(ut);
+        if (output == null && filter != null) {
+            filterFalsePositives.increment();
+        }
+        return output;
     }
 
     /**
      * @return true if UTXO {@code utxo} is in the pool and false otherwise
      */
     public boolean contains(UTXO utxo) {
-        return H.containsKey(utxo);
+        return getTxOutput(utxo) != null;
+    }
+
+    /**
+     * @return false if UTXO {@code utxo} is definitely not in the pool, true if it may be. Without filter it
+     * is the same as {@link #contains(UTXO)}
+     */
+    public boolean mightContain(UTXO utxo) {
+        if (filter == null) {
+            return H.containsKey(utxo);
+        }
+        if (!filter.mightContain(utxo)) {
+            filterRejections.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the false positive rate of the filter measured on the lookups of missing UTXOs made so far, or 0
+     * if there was none. The configured and expected rates are available through {@link #getFilter()}
+     */
+    public double getFilterFalsePositiveRate() {
+        // read once each, the counters may move while they are summed
+        final long falsePositives = filterFalsePositives.sum();
+        final long missingLookups = filterRejections.sum() + falsePositives;
+        if (missingLookups == 0) {
+            return 0;
+        }
+        return (double) falsePositives / missingLookups;
+    }
+
+    /**
+     * @return the filter of this pool or null if it has none
+     */
+    public CountingBloomFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Writes the changes made since the last flush to the store if the pool is backed by a {@link UTXOCache},
+     * otherwise does nothing
+     */
+    public void flush() {
+        if (H instanceof UTXOCache) {
+            ((UTXOCache) H).flush();
+        }
+    }
+
+    /**
+     * @return the number of UTXOs in the pool, without reading them
+     */
+    public int size() {
+        return H.size();
+    }
+
+    /**
+     * Calls {@code action} for each UTXO of the pool and its output, reading the whole store if the pool is
+     * backed by a {@link UTXOCache}
+     */
+    void forEach(BiConsumer<UTXO, Transaction.Output> action) {
+        H.forEach(action);
     }
 
     /**
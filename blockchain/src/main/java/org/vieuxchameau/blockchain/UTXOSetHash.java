@@ -0,0 +1,85 @@
+package org.vieuxchameau.blockchain;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Multiset hash of a set of UTXOs, updated in constant time when a UTXO is added or removed, whatever the order
+ * <p>
+ * Same construction as MuHash: each UTXO, with the value and the address of its output, is hashed to a number
+ * modulo the prime {@code 2^3072 - 1103717}; the set is the product of its elements. Removals are multiplied in
+ * a separate denominator so that the single modular inversion is only made when the digest is computed. The
+ * element is the SHA-256 of the UTXO expanded to 3072 bits by hashing it again with a counter. As
+ * {@code 2^3072 = 1103717} modulo the prime, products are reduced with shifts and a small multiplication rather
+ * than a division.
+ */
+public class UTXOSetHash {
+
+    private static final int ELEMENT_SIZE = 3072 / 8;
+    private static final BigInteger PRIME_OFFSET = BigInteger.valueOf(1103717);
+    private static final BigInteger PRIME = BigInteger.ONE.shiftLeft(ELEMENT_SIZE * 8).subtract(PRIME_OFFSET);
+
+    private BigInteger numerator = BigInteger.ONE;
+    private BigInteger denominator = BigInteger.ONE;
+
+    /**
+     * Creates the hash of the empty set
+     */
+    public UTXOSetHash() {
+    }
+
+    public UTXOSetHash(final UTXOSetHash other) {
+        this.numerator = other.numerator;
+        this.denominator = other.denominator;
+    }
+
+    public void add(final UTXO utxo, final Transaction.Output output) {
+        numerator = reduce(numerator.multiply(toElement(utxo, output)));
+    }
+
+    /**
+     * {@code utxo} must be in the set with {@code output}
+     */
+    public void remove(final UTXO utxo, final Transaction.Output output) {
+        denominator = reduce(denominator.multiply(toElement(utxo, output)));
+    }
+
+    /**
+     * @return the SHA-256 of the set as a 3072 bits big endian number, equal for two equal sets
+     */
+    public byte[] getDigest() {
+        final byte[] value = numerator.multiply(denominator.modInverse(PRIME)).mod(PRIME).toByteArray();
+        final byte[] encoded = new byte[ELEMENT_SIZE];
+        final int length = Math.min(value.length, ELEMENT_SIZE);
+        System.arraycopy(value, value.length - length, encoded, ELEMENT_SIZE - length, length);
+        return Block.newDigest().digest(encoded);
+    }
+
+    private static BigInteger toElement(final UTXO utxo, final Transaction.Output output) {
+        final MessageDigest md = Block.newDigest();
+        md.update(utxo.getTxHash());
+        md.update(ByteBuffer.allocate(Integer.BYTES + Long.BYTES).putInt(utxo.getIndex()).putLong(Double.doubleToLongBits(output.value)).array());
+        md.update(output.address.getEncoded());
+        final byte[] seed = md.digest();
+
+        final byte[] expanded = new byte[ELEMENT_SIZE];
+        for (int block = 0; block < ELEMENT_SIZE / seed.length; block++) {
+            md.update(seed);
+            md.update((byte) block);
+            System.arraycopy(md.digest(), 0, expanded, block * seed.length, seed.length);
+        }
+        return reduce(new BigInteger(1, expanded));
+    }
+
+    /**
+     * @return {@code value}, non negative, modulo the prime
+     */
+    private static BigInteger reduce(BigInteger value) {
+        while (value.bitLength() > ELEMENT_SIZE * 8) {
+            final BigInteger high = value.shiftRight(ELEMENT_SIZE * 8);
+            value = value.subtract(high.shiftLeft(ELEMENT_SIZE * 8)).add(high.multiply(PRIME_OFFSET));
+        }
+        return value.compareTo(PRIME) >= 0 ? value.subtract(PRIME) : value;
+    }
+}
@@ -0,0 +1,34 @@
+package org.vieuxchameau.blockchain;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Durable store of UTXOs, the bottom tier of a {@link UTXOCache}
+ * <p>
+ * The implementations report their I/O failures with an {@code IllegalStateException}.
+ */
+public interface UTXOStore extends Closeable {
+
+    /**
+     * @return the output of {@code utxo}, or null if it is not in the store
+     */
+    Transaction.Output get(UTXO utxo);
+
+    /**
+     * Applies {@code batch}, where a null output removes the UTXO, as a whole: once it returns the batch is
+     * durable, and after a crash either all of it or none of it is visible.
+     */
+    void write(Map<UTXO, Transaction.Output> batch);
+
+    /**
+     * Calls {@code action} for each UTXO of the store, in no particular order
+     */
+    void forEach(BiConsumer<UTXO, Transaction.Output> action);
+
+    /**
+     * @return the number of UTXOs in the store
+     */
+    long size();
+}
@@ -0,0 +1,107 @@
+package org.vieuxchameau.blockchain;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Changes made by a block to the UTXO pool, in order, so that the pool can be moved back to the parent of the
+ * block and forward again
+ * <p>
+ * Each change sets one UTXO and remembers the output it replaces: an input removes the output it spends, an
+ * output of a transaction is added, usually where there was none. Undoing the changes in reverse order restores
+ * the pool exactly, including when a transaction spends an output created earlier in the same block or when
+ * two coinbases to the same address share a hash.
+ */
+public class UndoRecord {
+
+    private UTXO[] utxos = new UTXO[8];
+    private Transaction.Output[] previousOutputs = new Transaction.Output[8];
+    private Transaction.Output[] newOutputs = new Transaction.Output[8];
+    private int size;
+
+    /**
+     * Spends the inputs of {@code tx} and adds its outputs to {@code utxoPool}, {@code tx} being finalized
+     */
+    public void applyTransaction(final UTXOPool utxoPool, final Transaction tx) {
+        for (Transaction.Input input : tx.getInputs()) {
+            apply(utxoPool, input.getUTXO(), null);
+        }
+        for (int i = 0; i < tx.numOutputs(); i++) {
+            apply(utxoPool, new UTXO(tx.getHash(), i), tx.getOutput(i));
+        }
+    }
+
+    /**
+     * Sets {@code utxo} to {@code output} in {@code utxoPool}, removing it if {@code output} is null
+     */
+    public void apply(final UTXOPool utxoPool, final UTXO utxo, final Transaction.Output output) {
+        if (size == utxos.length) {
+            resize(Math.max(8, 2 * size));
+        }
+        utxos[size] = utxo;
+        previousOutputs[size] = utxoPool.getTxOutput(utxo);
+        newOutputs[size] = output;
+        size++;
+        set(utxoPool, utxo, output);
+    }
+
+    /**
+     * Reverts the changes on {@code utxoPool}, which must be in the state they have left it in
+     */
+    public void undo(final UTXOPool utxoPool) {
+        undo((utxo, output) -> set(utxoPool, utxo, output));
+    }
+
+    /**
+     * Passes the reverted changes to {@code setter}, the last one first, a null output removing the UTXO
+     */
+    public void undo(final BiConsumer<UTXO, Transaction.Output> setter) {
+        for (int i = size - 1; i >= 0; i--) {
+            setter.accept(utxos[i], previousOutputs[i]);
+        }
+    }
+
+    /**
+     * Makes the changes again on {@code utxoPool}, which must be in the state they have been recorded from
+     */
+    public void redo(final UTXOPool utxoPool) {
+        redo((utxo, output) -> set(utxoPool, utxo, output));
+    }
+
+    /**
+     * Passes the changes to {@code setter} in order, a null output removing the UTXO
+     */
+    public void redo(final BiConsumer<UTXO, Transaction.Output> setter) {
+        for (int i = 0; i < size; i++) {
+            setter.accept(utxos[i], newOutputs[i]);
+        }
+    }
+
+    private static void set(final UTXOPool utxoPool, final UTXO utxo, final Transaction.Output output) {
+        if (output == null) {
+            utxoPool.removeUTXO(utxo);
+        } else {
+            utxoPool.addUTXO(utxo, output);
+        }
+    }
+
+    /**
+     * Releases the unused capacity once the block has been applied
+     */
+    public void trim() {
+        resize(size);
+    }
+
+    private void resize(final int capacity) {
+        utxos = Arrays.copyOf(utxos, capacity);
+        previousOutputs = Arrays.copyOf(previousOutputs, capacity);
+        newOutputs = Arrays.copyOf(newOutputs, capacity);
+    }
+
+    /**
+     * @return the number of changes
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,343 @@
+package org.vieuxchameau.blockchain;
+
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlockChainTest {
+
+    private final KeyPair scrooge;
+    private final PublicKey miner;
+    private final Block genesis;
+    private final BlockChain blockChain;
+    private long nextNonce;
+
+    public BlockChainTest() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        scrooge = generator.generateKeyPair();
+        miner = generator.generateKeyPair().getPublic();
+        genesis = new Block(null, scrooge.getPublic());
+        genesis.finalize();
+        blockChain = new BlockChain(genesis);
+    }
+
+    /**
+     * @return a new block, whose nonce tells it apart from the other children of {@code parent}
+     */
+    private Block newBlock(final Block parent, final Transaction... txs) {
+        final Block block = new Block(parent.getHash(), miner);
+        for (Transaction tx : txs) {
+            block.addTransaction(tx);
+        }
+        block.setNonce(nextNonce++);
+        block.finalize();
+        return block;
+    }
+
+    private Block addBlock(final Block parent, final Transaction... txs) {
+        final Block block = newBlock(parent, txs);
+        assertTrue(blockChain.addBlock(block));
+        return block;
+    }
+
+    private Transaction spend(final Transaction tx, final int outputIndex) throws GeneralSecurityException {
+        final Transaction spending = new Transaction();
+        spending.addInput(tx.getHash(), outputIndex);
+        spending.addOutput(tx.getOutput(outputIndex).value, scrooge.getPublic());
+        final Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(scrooge.getPrivate());
+        signature.update(spending.getRawDataToSign(0));
+        spending.addSignature(signature.sign(), 0);
+        spending.finalize();
+        return spending;
+    }
+
+    @Test
+    public void createdBlockShouldHoldThePooledTransactions() throws Exception {
+        final Transaction tx = spend(genesis.getCoinbase(), 0);
+        assertTrue(blockChain.addTransaction(tx));
+        assertTrue(blockChain.addTransaction(spend(tx, 0)));
+
+        final Block block;
+        try (BlockHandler handler = new BlockHandler(blockChain)) {
+            block = handler.createBlock(miner);
+        }
+
+        assertNotNull(block);
+        assertEquals(2, block.getTransactions().size());
+        assertArrayEquals(block.getHash(), blockChain.getMaxHeightBlock().getHash());
+        assertTrue(blockChain.getTransactionPool().getTransactions().isEmpty());
+    }
+
+    @Test
+    public void rejectedBlockShouldNotReachTheStore() throws Exception {
+        final MemoryUTXOStore store = new MemoryUTXOStore();
+        final BlockChain cachedChain = new BlockChain(genesis, new UTXOPool(new UTXOCache(store, 1)));
+        final int writes = store.writes;
+        final Transaction tx = spend(genesis.getCoinbase(), 0);
+        final Transaction child = spend(tx, 0);
+        final Block block = newBlock(genesis, tx, child, spend(child, 0), spend(tx, 0));
+
+        assertFalse(cachedChain.addBlock(block));
+
+        // the pool is back at the genesis block before the only flush
+        assertTrue(store.writes <= writes + 1);
+        assertEquals(1, store.size());
+        assertNotNull(store.get(new UTXO(genesis.getCoinbase().getHash(), 0)));
+    }
+
+    @Test
+    public void transactionShouldBeAddedWhileHoldingTheLock() throws Exception {
+        final Transaction tx = spend(genesis.getCoinbase(), 0);
+
+        synchronized (blockChain) {
+            assertTrue(blockChain.addTransaction(tx));
+        }
+
+        assertNotNull(blockChain.getTransactionPool().getTransaction(tx.getHash()));
+    }
+
+    @Test
+    public void sideBranchShouldKeepItsTransactionsPooled() throws Exception {
+        final Transaction tx = spend(genesis.getCoinbase(), 0);
+        final Block mainBlock = addBlock(genesis);
+        assertTrue(blockChain.addTransaction(tx));
+
+        addBlock(genesis, tx);
+
+        assertArrayEquals(mainBlock.getHash(), blockChain.getMaxHeightBlock().getHash());
+        assertNotNull(blockChain.getTransactionPool().getTransaction(tx.getHash()));
+    }
+
+    @Test
+    public void extendedBranchShouldRemoveItsTransactionsFromThePool() throws Exception {
+        final Transaction tx = spend(genesis.getCoinbase(), 0);
+        assertTrue(blockChain.addTransaction(tx));
+        final Transaction child = spend(tx, 0);
+        assertTrue(blockChain.addTransaction(child));
+
+        addBlock(genesis, tx);
+
+        assertNull(blockChain.getTransactionPool().getTransaction(tx.getHash()));
+        assertNotNull(blockChain.getTransactionPool().getTransaction(child.getHash()));
+    }
+
+    @Test
+    public void reorgShouldReadmitTheTransactionsOfDisconnectedBlocks() throws Exception {
+        final Transaction tx = spend(genesis.getCoinbase(), 0);
+        addBlock(genesis, tx);
+        final Transaction child = spend(tx, 0);
+        assertTrue(blockChain.addTransaction(child));
+
+        final Block fork = addBlock(genesis);
+        final Block forkTip = addBlock(fork);
+
+        assertArrayEquals(forkTip.getHash(), blockChain.getMaxHeightBlock().getHash());
+        assertEquals(2, blockChain.getTransactionPool().getTransactions().size());
+        assertNotNull(blockChain.getTransactionPool().getTransaction(tx.getHash()));
+        assertNotNull(blockChain.getTransactionPool().getTransaction(child.getHash()));
+    }
+
+    @Test
+    public void reorgShouldNotReadmitTransactionsConfirmedByTheNewBranch() throws Exception {
+        final Transaction tx = spend(genesis.getCoinbase(), 0);
+        addBlock(genesis, tx);
+
+        final Block fork = addBlock(genesis, tx);
+        addBlock(fork);
+
+        assertTrue(blockChain.getTransactionPool().getTransactions().isEmpty());
+    }
+
+    private List<BlockHeader> headersOf(final Block... blocks) {
+        final List<BlockHeader> headers = new ArrayList<>();
+        for (Block block : blocks) {
+            headers.add(block.getBlockHeader());
+        }
+        return headers;
+    }
+
+    private Transaction spendMissingCoin() {
+        final Transaction tx = new Transaction();
+        tx.addInput(new byte[32], 0);
+        tx.addOutput(1, miner);
+        return tx;
+    }
+
+    @Test
+    public void invalidBodyShouldMoveTheBestHeaderBack() throws Exception {
+        final Block valid = newBlock(genesis);
+        final Block invalid = newBlock(valid, spendMissingCoin());
+        final Block above = newBlock(invalid);
+        final Block sideBranch = newBlock(genesis);
+        assertTrue(blockChain.addBlock(sideBranch));
+        assertTrue(blockChain.addHeaders(headersOf(valid, invalid, above)));
+        assertArrayEquals(above.getHash(), blockChain.getBestHeader().getHash());
+
+        assertTrue(blockChain.addBlock(valid));
+        assertFalse(blockChain.addBlock(invalid));
+
+        // back to the max height block, the side branch having arrived first at the same height
+        assertArrayEquals(sideBranch.getHash(), blockChain.getBestHeader().getHash());
+        assertArrayEquals(sideBranch.getHash(), blockChain.getMaxHeightBlock().getHash());
+        assertTrue(blockChain.getMissingBodies(10).isEmpty());
+        assertEquals(0, blockChain.getNumHeaderOnlyNodes());
+        assertFalse(blockChain.addHeaders(headersOf(invalid)));
+    }
+
+    @Test
+    public void invalidBodyInABatchShouldBeMarkedInvalid() throws Exception {
+        final Block valid = newBlock(genesis);
+        final Block invalid = newBlock(valid, spendMissingCoin());
+        assertTrue(blockChain.addHeaders(headersOf(valid, invalid)));
+
+        assertFalse(blockChain.addBlocks(Arrays.asList(valid, invalid)));
+
+        assertEquals(1, blockChain.getNumHeaderOnlyNodes());
+        assertEquals(1, blockChain.getMissingBodies(10).size());
+        assertArrayEquals(valid.getHash(), blockChain.getBestHeader().getHash());
+    }
+
+    @Test
+    public void headerOnlyNodesShouldBeBounded() {
+        blockChain.setMaxHeaderOnlyNodes(2);
+        final Block first = newBlock(genesis);
+        final Block second = newBlock(first);
+        final Block third = newBlock(second);
+
+        assertFalse(blockChain.addHeaders(headersOf(first, second, third)));
+        assertEquals(0, blockChain.getNumHeaderOnlyNodes());
+        assertTrue(blockChain.addHeaders(headersOf(first, second)));
+        assertEquals(2, blockChain.getNumHeaderOnlyNodes());
+        assertTrue(blockChain.addBlock(first));
+        assertEquals(1, blockChain.getNumHeaderOnlyNodes());
+    }
+
+    @Test
+    public void deadHeaderOnlyBranchShouldMakeRoomForNewHeaders() {
+        blockChain.setMaxHeaderOnlyNodes(1);
+        final Block stale = newBlock(genesis);
+        assertTrue(blockChain.addHeaders(headersOf(stale)));
+        Block tip = genesis;
+        for (int i = 0; i < BlockChain.CUT_OFF_AGE + 1; i++) {
+            tip = addBlock(tip);
+        }
+        assertTrue(blockChain.addHeaders(headersOf(newBlock(tip))));
+
+        assertEquals(1, blockChain.getNumHeaderOnlyNodes());
+        assertEquals(-1, blockChain.getDepth(stale.getHash()));
+    }
+
+    @Test
+    public void blockAddedAgainShouldBeRejected() {
+        final Block block = addBlock(genesis);
+
+        assertFalse(blockChain.addBlock(block));
+        assertFalse(blockChain.addBlocks(Arrays.asList(block)));
+        assertTrue(blockChain.getForks().isEmpty());
+    }
+
+    @Test
+    public void reorgBackAndForthShouldRestoreTheUTXOs() throws Exception {
+        final Transaction tx = spend(genesis.getCoinbase(), 0);
+        final Block main = addBlock(genesis, tx);
+        final byte[] mainDigest = blockChain.getUTXOSetDigest(main.getHash());
+        final Block fork = addBlock(addBlock(genesis));
+
+        final UTXOPool forkPool = blockChain.getMaxHeightUTXOPool();
+        assertArrayEquals(fork.getHash(), blockChain.getMaxHeightBlock().getHash());
+        assertTrue(forkPool.contains(new UTXO(genesis.getCoinbase().getHash(), 0)));
+        assertFalse(forkPool.contains(new UTXO(tx.getHash(), 0)));
+
+        addBlock(addBlock(main));
+
+        final UTXOPool mainPool = blockChain.getMaxHeightUTXOPool();
+        assertFalse(mainPool.contains(new UTXO(genesis.getCoinbase().getHash(), 0)));
+        assertTrue(mainPool.contains(new UTXO(tx.getHash(), 0)));
+        assertArrayEquals(mainDigest, blockChain.getUTXOSetDigest(main.getHash()));
+    }
+
+    @Test
+    public void branchBehindTheWindowShouldBeDropped() {
+        final Block stale = addBlock(genesis);
+        final Block staleChild = addBlock(stale);
+        Block tip = addBlock(genesis);
+        for (int i = 0; i < BlockChain.CUT_OFF_AGE + 2; i++) {
+            tip = addBlock(tip);
+        }
+
+        assertTrue(blockChain.getForks().isEmpty());
+        assertEquals(-1, blockChain.getDepth(stale.getHash()));
+        assertEquals(-1, blockChain.getDepth(staleChild.getHash()));
+        assertEquals(BlockChain.CUT_OFF_AGE + 4, blockChain.getDepth(genesis.getHash()));
+        assertNull(blockChain.getBlockAt(1, staleChild.getHash()));
+    }
+
+    @Test
+    public void undoRecordsBehindTheWindowShouldBeDropped() throws Exception {
+        Transaction tx = genesis.getCoinbase();
+        final List<Block> branch = new ArrayList<>();
+        Block tip = genesis;
+        for (int i = 0; i < BlockChain.CUT_OFF_AGE + 5; i++) {
+            tx = spend(tx, 0);
+            tip = addBlock(tip, tx);
+            branch.add(tip);
+        }
+
+        // the undo records above the lowest block which can be extended, and the genesis one, each block
+        // spending one output and adding one plus its coinbase
+        assertEquals(3L * BlockChain.CUT_OFF_AGE + 1, blockChain.getNumUndoChanges());
+        assertNull(blockChain.getUTXOPoolAt(branch.get(0).getHash()));
+        assertNotNull(blockChain.getUTXOPoolAt(tip.getHash()));
+        final Block lowest = branch.get(branch.size() - 1 - BlockChain.CUT_OFF_AGE);
+        assertNotNull(blockChain.getUTXOPoolAt(lowest.getHash()).getTxOutput(new UTXO(lowest.getTransaction(0).getHash(), 0)));
+        assertNotNull(blockChain.getBlockAt(1, tip.getHash()));
+    }
+
+    @Test
+    public void undoRecordsAboveALiveForkPointShouldBeKept() {
+        Block tip = addBlock(genesis);
+        final Block forkPoint = tip;
+        final Block fork = addBlock(forkPoint);
+        for (int i = 0; i < BlockChain.CUT_OFF_AGE; i++) {
+            tip = addBlock(tip);
+        }
+
+        // the fork is still within the window: the max height branch can be undone down to the fork point
+        assertEquals(1, blockChain.getForks().size());
+        assertTrue(blockChain.addBlock(newBlock(fork)));
+        assertNotNull(blockChain.getUTXOPoolAt(fork.getHash()));
+        assertNotNull(blockChain.getUTXOPoolAt(forkPoint.getHash()));
+    }
+
+    @Test
+    public void reorgShouldMoveTheTransactionLocations() throws Exception {
+        final Transaction tx = spend(genesis.getCoinbase(), 0);
+        final Block main = addBlock(genesis, tx);
+        final int height = blockChain.getTransactionLocation(tx.getHash()).getHeight();
+        assertArrayEquals(main.getHash(), blockChain.getBlockAt(height, main.getHash()).getHash());
+
+        final Block forkTip = addBlock(addBlock(genesis), tx);
+
+        final TransactionIndex.Location location = blockChain.getTransactionLocation(tx.getHash());
+        assertEquals(2, location.getHeight());
+        assertArrayEquals(forkTip.getHash(), blockChain.getBlockAt(location.getHeight(), forkTip.getHash()).getHash());
+        assertEquals(0, location.getPosition());
+        assertEquals(1, blockChain.getConfirmations(tx.getHash()));
+    }
+}
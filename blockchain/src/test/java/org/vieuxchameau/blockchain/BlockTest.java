@@ -0,0 +1,96 @@
+package org.vieuxchameau.blockchain;
+
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlockTest {
+
+    private final PublicKey scrooge;
+    private final PublicKey donald;
+
+    public BlockTest() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        scrooge = generator.generateKeyPair().getPublic();
+        donald = generator.generateKeyPair().getPublic();
+    }
+
+    @Test
+    public void headerShouldCommitToTheCoinbase() {
+        final Block block = new Block(new byte[32], scrooge);
+        final Block stolen = new Block(new byte[32], donald);
+
+        assertFalse(Arrays.equals(block.getTransactionsCommitment(), stolen.getTransactionsCommitment()));
+    }
+
+    @Test
+    public void decodedBlockShouldKeepItsProofOfWork() {
+        final Block block = new Block(new byte[32], scrooge);
+        block.finalize();
+
+        final Block decoded = BlockCodec.decode(BlockCodec.encode(block));
+
+        assertTrue(decoded.hasValidProofOfWork());
+        assertTrue(Arrays.equals(block.getHash(), decoded.getHash()));
+    }
+
+    @Test
+    public void swappedCoinbaseShouldChangeTheHash() {
+        final Block block = new Block(new byte[32], scrooge);
+        block.finalize();
+
+        final Block swapped = new Block(new byte[32], donald);
+        swapped.setNonce(block.getNonce());
+        swapped.finalize();
+
+        assertFalse(Arrays.equals(block.getHash(), swapped.getHash()));
+    }
+
+    @Test
+    public void coinbaseShouldHaveAProof() {
+        final Block block = new Block(new byte[32], scrooge);
+        final MerkleTree.Proof proof = block.getProof(block.getCoinbase().getHash());
+
+        assertNotNull(proof);
+        assertTrue(MerkleTree.verify(block.getCoinbase().getHash(), proof, block.getTransactionsCommitment()));
+    }
+
+    private Transaction payment(final double value) {
+        final Transaction tx = new Transaction();
+        tx.addInput(new byte[32], 0);
+        tx.addOutput(value, donald);
+        tx.finalize();
+        return tx;
+    }
+
+    @Test
+    public void transactionsShouldHaveAProofAtTheirPosition() {
+        final Block block = new Block(new byte[32], scrooge);
+        final Transaction first = payment(1);
+        final Transaction second = payment(2);
+        final Transaction third = payment(3);
+        block.addTransaction(first);
+        block.addTransactions(Arrays.asList(second, third));
+
+        final MerkleTree.Proof proof = block.getProof(third.getHash());
+
+        assertEquals(3, proof.getIndex());
+        assertTrue(MerkleTree.verify(third.getHash(), proof, block.getTransactionsCommitment()));
+        assertEquals(2, block.getProof(second.getHash()).getIndex());
+        assertNull(block.getProof(payment(4).getHash()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void transactionsShouldOnlyBeAddedThroughTheBlock() {
+        new Block(new byte[32], scrooge).getTransactions().add(payment(1));
+    }
+}
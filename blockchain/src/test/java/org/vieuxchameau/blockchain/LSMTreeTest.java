@@ -0,0 +1,197 @@
+package org.vieuxchameau.blockchain;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class LSMTreeTest {
+
+    private final Path directory;
+
+    public LSMTreeTest() throws IOException {
+        directory = Files.createTempDirectory("lsm");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        for (Path file : files()) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    private List<Path> files() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private List<Path> files(final String prefix) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (Path file : files()) {
+            if (file.getFileName().toString().startsWith(prefix)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Table large enough to only be written by {@link LSMTree#flush()}, at most 2 segments
+     */
+    private LSMTree open() throws IOException {
+        return new LSMTree(directory, 1 << 20, 2);
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putFiller(final LSMTree tree, final int numKeys) {
+        final LSMTree.Batch batch = new LSMTree.Batch();
+        for (int i = 0; i < numKeys; i++) {
+            batch.put(bytes("filler-" + i), new byte[64]);
+        }
+        tree.write(batch);
+    }
+
+    @Test
+    public void tornWriteShouldBeCutOffOnReplay() throws IOException {
+        try (LSMTree tree = open()) {
+            tree.put(bytes("a"), bytes("1"));
+            tree.put(bytes("b"), bytes("2"));
+        }
+        final Path log = files("log-").get(0);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (LSMTree tree = open()) {
+            assertArrayEquals(bytes("1"), tree.get(bytes("a")));
+            assertNull(tree.get(bytes("b")));
+            tree.put(bytes("c"), bytes("3"));
+        }
+
+        // the writes made after the cut are replayed too
+        try (LSMTree tree = open()) {
+            assertArrayEquals(bytes("1"), tree.get(bytes("a")));
+            assertNull(tree.get(bytes("b")));
+            assertArrayEquals(bytes("3"), tree.get(bytes("c")));
+        }
+    }
+
+    @Test
+    public void corruptedBatchShouldBeCutOffOnReplay() throws IOException {
+        try (LSMTree tree = open()) {
+            tree.put(bytes("a"), bytes("1"));
+            tree.write(new LSMTree.Batch().put(bytes("b"), bytes("2")).put(bytes("c"), bytes("3")));
+        }
+        final Path log = files("log-").get(0);
+        final byte[] content = Files.readAllBytes(log);
+        content[content.length - 1] = (byte) ~content[content.length - 1];
+        Files.write(log, content);
+
+        try (LSMTree tree = open()) {
+            assertArrayEquals(bytes("1"), tree.get(bytes("a")));
+            // neither change of the corrupted batch is applied
+            assertNull(tree.get(bytes("b")));
+            assertNull(tree.get(bytes("c")));
+        }
+    }
+
+    @Test
+    public void reopenedTreeShouldRecoverTheSegmentsOfTheManifest() throws IOException {
+        try (LSMTree tree = open()) {
+            tree.put(bytes("a"), bytes("1"));
+            tree.flush();
+            tree.put(bytes("b"), bytes("2"));
+        }
+        // left by a flush which did not complete, and by a manifest which was not moved in place
+        Files.write(directory.resolve("segment-999.sst"), new byte[16]);
+        Files.write(directory.resolve("MANIFEST.tmp"), bytes("garbage"));
+
+        try (LSMTree tree = open()) {
+            assertEquals(1, tree.getNumSegments());
+            assertArrayEquals(bytes("1"), tree.get(bytes("a")));
+            assertArrayEquals(bytes("2"), tree.get(bytes("b")));
+        }
+        assertFalse(Files.exists(directory.resolve("segment-999.sst")));
+        // the log flushed into the segment is no longer needed
+        assertEquals(1, files("log-").size());
+    }
+
+    @Test
+    public void compactionShouldKeepTheNewestVersion() throws IOException {
+        try (LSMTree tree = open()) {
+            tree.put(bytes("a"), bytes("1"));
+            tree.flush();
+            tree.put(bytes("a"), bytes("2"));
+            tree.flush();
+            tree.put(bytes("a"), bytes("3"));
+            tree.flush();
+
+            assertEquals(1, tree.getCompactions());
+            assertArrayEquals(bytes("3"), tree.get(bytes("a")));
+        }
+        try (LSMTree tree = open()) {
+            assertArrayEquals(bytes("3"), tree.get(bytes("a")));
+        }
+    }
+
+    @Test
+    public void compactionShouldKeepTheDeletionsAboveAnOlderSegment() throws IOException {
+        try (LSMTree tree = open()) {
+            tree.put(bytes("b"), bytes("1"));
+            putFiller(tree, 200);
+            tree.flush();
+            tree.delete(bytes("b"));
+            tree.flush();
+            tree.put(bytes("c"), bytes("2"));
+            tree.flush();
+
+            // the two small new segments are merged, the large old one still holds b
+            assertEquals(1, tree.getCompactions());
+            assertEquals(2, tree.getNumSegments());
+            assertNull(tree.get(bytes("b")));
+        }
+        try (LSMTree tree = open()) {
+            assertNull(tree.get(bytes("b")));
+            assertArrayEquals(bytes("2"), tree.get(bytes("c")));
+        }
+    }
+
+    @Test
+    public void compactionShouldDropTheDeletionsWhenMergingTheOldestSegment() throws IOException {
+        try (LSMTree tree = open()) {
+            tree.put(bytes("b"), bytes("1"));
+            tree.flush();
+            tree.delete(bytes("b"));
+            tree.flush();
+            putFiller(tree, 200);
+            tree.flush();
+
+            // the deletion and the value it hides are merged into nothing
+            assertEquals(1, tree.getCompactions());
+            assertEquals(1, tree.getNumSegments());
+            assertNull(tree.get(bytes("b")));
+        }
+    }
+}
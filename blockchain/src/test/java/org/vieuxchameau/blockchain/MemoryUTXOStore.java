@@ -0,0 +1,44 @@
+package org.vieuxchameau.blockchain;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Store counting the batches written to it
+ */
+class MemoryUTXOStore implements UTXOStore {
+    private final Map<UTXO, Transaction.Output> utxos = new HashMap<>();
+    int writes;
+
+    @Override
+    public Transaction.Output get(final UTXO utxo) {
+        return utxos.get(utxo);
+    }
+
+    @Override
+    public void write(final Map<UTXO, Transaction.Output> batch) {
+        writes++;
+        for (Map.Entry<UTXO, Transaction.Output> entry : batch.entrySet()) {
+            if (entry.getValue() == null) {
+                utxos.remove(entry.getKey());
+            } else {
+                utxos.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void forEach(final BiConsumer<UTXO, Transaction.Output> action) {
+        utxos.forEach(action);
+    }
+
+    @Override
+    public long size() {
+        return utxos.size();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,88 @@
+package org.vieuxchameau.blockchain;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MerkleTreeTest {
+
+    private static byte[] leaf(final int i) {
+        return Block.newDigest().digest(new byte[]{(byte) i, (byte) (i >>> 8)});
+    }
+
+    private static List<byte[]> leaves(final int numLeaves) {
+        final List<byte[]> leaves = new ArrayList<>();
+        for (int i = 0; i < numLeaves; i++) {
+            leaves.add(leaf(i));
+        }
+        return leaves;
+    }
+
+    private static byte[] innerNode(final byte[] left, final byte[] right) {
+        final MessageDigest md = Block.newDigest();
+        md.update((byte) 0x01);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    @Test
+    public void everyLeafShouldHaveAValidProof() {
+        for (int numLeaves = 1; numLeaves <= 17; numLeaves++) {
+            final MerkleTree tree = MerkleTree.of(leaves(numLeaves));
+            for (int i = 0; i < numLeaves; i++) {
+                assertTrue(numLeaves + " leaves, leaf " + i, MerkleTree.verify(leaf(i), tree.getProof(i), tree.getRoot()));
+            }
+        }
+    }
+
+    @Test
+    public void appendingOneByOneShouldGiveTheSameRoot() {
+        final MerkleTree tree = new MerkleTree();
+        for (int i = 0; i < 33; i++) {
+            tree.append(leaf(i));
+            assertArrayEquals(MerkleTree.of(leaves(i + 1)).getRoot(), tree.getRoot());
+        }
+    }
+
+    @Test
+    public void proofShouldNotVerifyAnotherLeaf() {
+        final MerkleTree tree = MerkleTree.of(leaves(5));
+
+        assertFalse(MerkleTree.verify(leaf(1), tree.getProof(0), tree.getRoot()));
+        assertFalse(MerkleTree.verify(leaf(5), tree.getProof(4), tree.getRoot()));
+    }
+
+    @Test
+    public void innerNodeShouldNotPassAsALeaf() {
+        final byte[] x = leaf(0);
+        final byte[] y = leaf(1);
+        final byte[] z = leaf(2);
+        final MerkleTree tree = MerkleTree.of(Arrays.asList(x, y, z));
+        final byte[] forgedLeaf = innerNode(x, y);
+
+        final MerkleTree forged = MerkleTree.of(Arrays.asList(forgedLeaf, z));
+
+        assertFalse(Arrays.equals(tree.getRoot(), forged.getRoot()));
+        assertFalse(MerkleTree.verify(forgedLeaf, forged.getProof(0), tree.getRoot()));
+        assertFalse(MerkleTree.verify(forgedLeaf, new MerkleTree.Proof(0, 2, new byte[][]{z}), tree.getRoot()));
+    }
+
+    @Test
+    public void promotedNodeShouldNotCollideWithDuplicatedLeaf() {
+        final MerkleTree odd = MerkleTree.of(leaves(3));
+        final List<byte[]> duplicated = leaves(3);
+        duplicated.add(leaf(2));
+
+        assertFalse(Arrays.equals(odd.getRoot(), MerkleTree.of(duplicated).getRoot()));
+        assertEquals(3, odd.getNumLeaves());
+    }
+}
@@ -0,0 +1,64 @@
+package org.vieuxchameau.blockchain;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MinerTest {
+
+    private final PublicKey scrooge;
+    private final Miner miner = new Miner(2);
+
+    public MinerTest() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        scrooge = generator.generateKeyPair().getPublic();
+    }
+
+    @After
+    public void closeMiner() {
+        miner.close();
+    }
+
+    @Test
+    public void minedBlockShouldMeetItsDifficulty() {
+        final Block block = new Block(new byte[32], scrooge);
+        block.setDifficulty(8);
+
+        assertTrue(miner.mine(block));
+        assertTrue(block.hasValidProofOfWork());
+    }
+
+    @Test
+    public void cancelBeforeTheSearchShouldStopIt() {
+        final long generation = miner.getGeneration();
+        final Block block = new Block(new byte[32], scrooge);
+        block.setDifficulty(Block.MAX_DIFFICULTY);
+
+        miner.cancel();
+
+        assertFalse(miner.mine(block, generation));
+        assertNull(block.getHash());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void difficultyAboveTheHashSizeShouldBeRejected() {
+        new BlockHandler(null).setDifficulty(Block.MAX_DIFFICULTY + 1);
+    }
+
+    @Test
+    public void closedHandlerShouldStopTheThreadsOfItsMiner() {
+        final BlockHandler handler = new BlockHandler(null);
+        final Miner handlerMiner = handler.getMiner();
+
+        handler.close();
+
+        assertTrue(handlerMiner.isClosed());
+    }
+}
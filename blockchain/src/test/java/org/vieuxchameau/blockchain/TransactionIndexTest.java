@@ -0,0 +1,153 @@
+package org.vieuxchameau.blockchain;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionIndexTest {
+
+    /**
+     * @return a hash whose first bytes, which pick the first slot, are {@code slotByte}
+     */
+    private static byte[] hash(final int slotByte, final int id) {
+        final byte[] hash = new byte[32];
+        for (int i = 0; i < 8; i++) {
+            hash[i] = (byte) slotByte;
+        }
+        hash[31] = (byte) id;
+        hash[30] = (byte) (id >>> 8);
+        return hash;
+    }
+
+    @Test
+    public void putShouldReplaceTheLocation() {
+        final TransactionIndex index = new TransactionIndex(16);
+        final byte[] tx = hash(1, 0);
+
+        index.put(tx, 3, 1);
+        index.put(tx, 4, 2);
+
+        final TransactionIndex.Location location = index.get(tx);
+        assertEquals(4, location.getHeight());
+        assertEquals(2, location.getPosition());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void putIfAbsentShouldKeepTheFirstLocation() {
+        final TransactionIndex index = new TransactionIndex(16);
+        final byte[] tx = hash(1, 0);
+
+        assertTrue(index.putIfAbsent(tx, 3, 1));
+        assertFalse(index.putIfAbsent(tx, 4, 2));
+
+        assertEquals(3, index.get(tx).getHeight());
+    }
+
+    @Test
+    public void removeShouldOnlyRemoveTheLocationAtTheGivenHeight() {
+        final TransactionIndex index = new TransactionIndex(16);
+        final byte[] tx = hash(1, 0);
+        index.put(tx, 3, 1);
+
+        assertFalse(index.remove(tx, 4));
+        assertTrue(index.remove(tx, 3));
+
+        assertNull(index.get(tx));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void collidingHashesShouldBeFoundPastARemovedSlot() {
+        final TransactionIndex index = new TransactionIndex(16);
+        final byte[] first = hash(7, 1);
+        final byte[] second = hash(7, 2);
+        final byte[] third = hash(7, 3);
+        index.put(first, 1, 0);
+        index.put(second, 1, 1);
+        index.put(third, 1, 2);
+
+        index.remove(second, 1);
+
+        assertEquals(2, index.get(third).getPosition());
+        // the removed slot is reused without duplicating the transaction further down the probe
+        index.put(third, 2, 0);
+        assertEquals(2, index.size());
+        assertTrue(index.remove(third, 2));
+        assertNull(index.get(third));
+        assertEquals(0, index.get(first).getPosition());
+    }
+
+    @Test
+    public void resizeShouldKeepTheEntries() {
+        final TransactionIndex index = new TransactionIndex(16);
+        final long capacity = index.getCapacity();
+
+        for (int i = 0; i < 1000; i++) {
+            index.put(hash(i, i), i, i);
+        }
+
+        assertTrue(index.getCapacity() > capacity);
+        assertEquals(1000, index.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, index.get(hash(i, i)).getHeight());
+        }
+    }
+
+    @Test
+    public void removedSlotsShouldBeReclaimedWithoutGrowing() {
+        final TransactionIndex index = new TransactionIndex(16);
+        final long capacity = index.getCapacity();
+
+        for (int i = 0; i < 1000; i++) {
+            index.put(hash(i, i), i, 0);
+            index.remove(hash(i, i), i);
+        }
+
+        assertEquals(capacity, index.getCapacity());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void memoryMappedIndexShouldKeepTheEntriesWhenResized() throws IOException {
+        final Path file = Files.createTempFile("transactions", ".idx");
+        try (TransactionIndex index = new TransactionIndex(file, 16)) {
+            for (int i = 0; i < 1000; i++) {
+                index.put(hash(i, i), i, i);
+            }
+
+            assertTrue(index.isMemoryMapped());
+            assertEquals(1000, index.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, index.get(hash(i, i)).getPosition());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void entriesShouldBeSpreadOverTheSegmentsOfTheFile() throws IOException {
+        final Path file = Files.createTempFile("transactions", ".idx");
+        // segments of 2^4 slots
+        try (TransactionIndex index = new TransactionIndex(file, 16, 4)) {
+            for (int i = 0; i < 1000; i++) {
+                index.put(hash(i, i), i, i);
+            }
+
+            assertEquals(index.getCapacity() / 16, index.getNumSegments());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i, index.get(hash(i, i)).getHeight());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
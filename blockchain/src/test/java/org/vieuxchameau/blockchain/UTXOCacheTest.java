@@ -0,0 +1,191 @@
+package org.vieuxchameau.blockchain;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UTXOCacheTest {
+
+    private final Transaction transaction = new Transaction();
+
+    public UTXOCacheTest() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        final PublicKey address = generator.generateKeyPair().getPublic();
+        for (int i = 0; i < 10; i++) {
+            transaction.addOutput(i, address);
+        }
+        transaction.finalize();
+    }
+
+    private UTXO utxo(final int index) {
+        return new UTXO(transaction.getHash(), index);
+    }
+
+    @Test
+    public void dirtyEntriesShouldOnlyBeWrittenByAFlush() {
+        final MemoryUTXOStore store = new MemoryUTXOStore();
+        final UTXOCache cache = new UTXOCache(store, 4);
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(utxo(i), transaction.getOutput(i));
+        }
+
+        assertEquals(0, store.writes);
+        assertEquals(10, cache.getNumEntries());
+        assertEquals(10, cache.size());
+
+        cache.flush();
+
+        assertEquals(1, store.writes);
+        assertEquals(10, store.size());
+        assertEquals(4, cache.getNumEntries());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(transaction.getOutput(i).value, cache.get(utxo(i)).value, 0);
+        }
+        assertTrue(cache.getNumEntries() <= 4);
+    }
+
+    @Test
+    public void utxoAddedThenRemovedShouldNeverBeWritten() {
+        final MemoryUTXOStore store = new MemoryUTXOStore();
+        final UTXOCache cache = new UTXOCache(store, 4);
+
+        cache.put(utxo(0), transaction.getOutput(0));
+        cache.remove(utxo(0));
+        cache.flush();
+
+        assertEquals(0, store.writes);
+        assertEquals(1, cache.getSkippedWrites());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void removalShouldReachTheStoreOnFlush() {
+        final MemoryUTXOStore store = new MemoryUTXOStore();
+        final UTXOCache cache = new UTXOCache(store, 4);
+        cache.put(utxo(0), transaction.getOutput(0));
+        cache.flush();
+
+        cache.remove(utxo(0));
+
+        assertEquals(0, cache.size());
+        assertEquals(1, store.size());
+        assertTrue(cache.entrySet().isEmpty());
+        cache.flush();
+        assertEquals(0, store.size());
+        assertNull(cache.get(utxo(0)));
+    }
+
+    @Test
+    public void fileStoreShouldBeReopenedWithItsFlushedUTXOs() throws IOException {
+        final Path file = Files.createTempFile("utxos", ".log");
+        try {
+            try (FileUTXOStore store = new FileUTXOStore(file)) {
+                final UTXOCache cache = new UTXOCache(store, 4);
+                for (int i = 0; i < 6; i++) {
+                    cache.put(utxo(i), transaction.getOutput(i));
+                }
+                cache.flush();
+                cache.remove(utxo(0));
+                cache.flush();
+            }
+
+            try (FileUTXOStore store = new FileUTXOStore(file)) {
+                assertEquals(5, store.size());
+                assertNull(store.get(utxo(0)));
+                assertEquals(transaction.getOutput(5).value, store.get(utxo(5)).value, 0);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void tornBatchShouldBeCutOffOnReopening() throws IOException {
+        final Path file = Files.createTempFile("utxos", ".log");
+        try {
+            final long firstBatchSize;
+            try (FileUTXOStore store = new FileUTXOStore(file)) {
+                store.write(singleton(utxo(0), transaction.getOutput(0)));
+                firstBatchSize = store.getLogSize();
+                store.write(singleton(utxo(1), transaction.getOutput(1)));
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(Files.size(file) - 1);
+            }
+
+            try (FileUTXOStore store = new FileUTXOStore(file)) {
+                assertEquals(1, store.size());
+                assertNull(store.get(utxo(1)));
+                assertEquals(firstBatchSize, store.getLogSize());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void corruptedBatchShouldBeCutOffOnReopening() throws IOException {
+        final Path file = Files.createTempFile("utxos", ".log");
+        try {
+            try (FileUTXOStore store = new FileUTXOStore(file)) {
+                store.write(singleton(utxo(0), transaction.getOutput(0)));
+                store.write(singleton(utxo(1), transaction.getOutput(1)));
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final ByteBuffer lastByte = ByteBuffer.allocate(1);
+                channel.read(lastByte, channel.size() - 1);
+                lastByte.put(0, (byte) ~lastByte.get(0));
+                lastByte.rewind();
+                channel.write(lastByte, channel.size() - 1);
+            }
+
+            try (FileUTXOStore store = new FileUTXOStore(file)) {
+                assertEquals(1, store.size());
+                assertNull(store.get(utxo(1)));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static Map<UTXO, Transaction.Output> singleton(final UTXO utxo, final Transaction.Output output) {
+        final Map<UTXO, Transaction.Output> batch = new HashMap<>();
+        batch.put(utxo, output);
+        return batch;
+    }
+
+    @Test
+    public void manyDirtyEntriesShouldBeWrittenByASingleFlush() {
+        final MemoryUTXOStore store = new MemoryUTXOStore();
+        final UTXOCache cache = new UTXOCache(store, 1000);
+
+        // far more changes than entries, as when a long branch is applied before the flush
+        for (int i = 0; i < 200_000; i++) {
+            cache.put(new UTXO(transaction.getHash(), i), transaction.getOutput(i % 10));
+        }
+        for (int i = 0; i < 200_000; i += 2) {
+            cache.remove(new UTXO(transaction.getHash(), i));
+        }
+        cache.flush();
+
+        assertEquals(1, store.writes);
+        assertEquals(100_000, store.size());
+        assertEquals(1000, cache.getNumEntries());
+        assertEquals(100_000, cache.getSkippedWrites());
+    }
+}
@@ -0,0 +1,56 @@
+package org.vieuxchameau.blockchain;
+
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UTXOPoolTest {
+
+    private final UTXOPool utxoPool = new UTXOPool();
+    private final Transaction transaction = new Transaction();
+
+    public UTXOPoolTest() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        final PublicKey address = generator.generateKeyPair().getPublic();
+        for (int i = 0; i < 3; i++) {
+            transaction.addOutput(i, address);
+        }
+        transaction.finalize();
+        for (int i = 0; i < 2; i++) {
+            utxoPool.addUTXO(new UTXO(transaction.getHash(), i), transaction.getOutput(i));
+        }
+    }
+
+    @Test
+    public void overlayShouldReadThroughToItsBase() {
+        final UTXOPool overlay = utxoPool.overlay();
+
+        assertSame(transaction.getOutput(0), overlay.getTxOutput(new UTXO(transaction.getHash(), 0)));
+        assertEquals(2, overlay.size());
+    }
+
+    @Test
+    public void overlayShouldNotChangeItsBase() {
+        final UTXOPool overlay = utxoPool.overlay();
+        final UTXO spent = new UTXO(transaction.getHash(), 0);
+        final UTXO created = new UTXO(transaction.getHash(), 2);
+
+        overlay.removeUTXO(spent);
+        overlay.addUTXO(created, transaction.getOutput(2));
+
+        assertFalse(overlay.contains(spent));
+        assertTrue(overlay.contains(created));
+        assertEquals(2, overlay.size());
+        assertTrue(utxoPool.contains(spent));
+        assertNull(utxoPool.getTxOutput(created));
+        assertEquals(2, utxoPool.size());
+    }
+}
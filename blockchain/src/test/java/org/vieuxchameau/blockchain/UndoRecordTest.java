@@ -0,0 +1,88 @@
+package org.vieuxchameau.blockchain;
+
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class UndoRecordTest {
+
+    private final PublicKey scrooge;
+    private final UTXOPool utxoPool = new UTXOPool();
+    private final Transaction coinbase;
+
+    public UndoRecordTest() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        scrooge = generator.generateKeyPair().getPublic();
+        coinbase = new Transaction(Block.COINBASE, scrooge);
+        utxoPool.addUTXO(new UTXO(coinbase.getHash(), 0), coinbase.getOutput(0));
+    }
+
+    private Transaction spend(final Transaction tx) {
+        final Transaction spending = new Transaction();
+        spending.addInput(tx.getHash(), 0);
+        spending.addOutput(tx.getOutput(0).value, scrooge);
+        spending.finalize();
+        return spending;
+    }
+
+    @Test
+    public void undoShouldRestoreThePoolWhenABlockSpendsItsOwnOutputs() {
+        final Transaction tx = spend(coinbase);
+        final Transaction child = spend(tx);
+        final UndoRecord undo = new UndoRecord();
+
+        undo.applyTransaction(utxoPool, tx);
+        undo.applyTransaction(utxoPool, child);
+        undo.trim();
+        assertEquals(1, utxoPool.size());
+        assertSame(child.getOutput(0), utxoPool.getTxOutput(new UTXO(child.getHash(), 0)));
+
+        undo.undo(utxoPool);
+
+        assertEquals(1, utxoPool.size());
+        assertSame(coinbase.getOutput(0), utxoPool.getTxOutput(new UTXO(coinbase.getHash(), 0)));
+        assertNull(utxoPool.getTxOutput(new UTXO(tx.getHash(), 0)));
+    }
+
+    @Test
+    public void undoShouldKeepTheCoinbaseSharingItsHashWithAnEarlierOne() {
+        // a second coinbase to the same address overwrites the same UTXO
+        final Transaction sameCoinbase = new Transaction(Block.COINBASE, scrooge);
+        final UndoRecord undo = new UndoRecord();
+        undo.apply(utxoPool, new UTXO(sameCoinbase.getHash(), 0), sameCoinbase.getOutput(0));
+
+        undo.undo(utxoPool);
+
+        assertSame(coinbase.getOutput(0), utxoPool.getTxOutput(new UTXO(coinbase.getHash(), 0)));
+    }
+
+    @Test
+    public void redoShouldMakeTheChangesAgain() {
+        final Transaction tx = spend(coinbase);
+        final UndoRecord undo = new UndoRecord();
+        undo.applyTransaction(utxoPool, tx);
+        undo.undo(utxoPool);
+
+        undo.redo(utxoPool);
+
+        assertEquals(1, utxoPool.size());
+        assertNull(utxoPool.getTxOutput(new UTXO(coinbase.getHash(), 0)));
+        assertSame(tx.getOutput(0), utxoPool.getTxOutput(new UTXO(tx.getHash(), 0)));
+    }
+
+    @Test
+    public void applyShouldGrowARecordTrimmedEmpty() {
+        final UndoRecord undo = new UndoRecord();
+        undo.trim();
+
+        undo.applyTransaction(utxoPool, spend(coinbase));
+
+        assertEquals(2, undo.size());
+    }
+}
@@ -0,0 +1,60 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.util.Set;
+
+/**
+ * Base of the malicious nodes which do more than staying silent: it remembers every transaction it has
+ * been given or has heard of, and lets the subclass decide what to send each round.
+ */
+public abstract class AdversarialNode implements Node {
+
+    private TransactionIdSet heardTxs = TransactionIdSet.EMPTY;
+    private int currentRound = 0;
+
+    public void setFollowees(boolean[] followees) {
+        return;
+    }
+
+    public void setFollowees(int[] followees, int numNodes) {
+        return;
+    }
+
+    public void setPendingTransaction(Set<Transaction> pendingTransactions) {
+        heardTxs = heardTxs.union(TransactionIdSet.of(pendingTransactions));
+    }
+
+    public Set<Transaction> sendToFollowers() {
+        return propose(currentRound, heardTxs).toTransactions();
+    }
+
+    public void receiveFromFollowees(Set<Candidate> candidates) {
+        receiveFromFollowees(CandidateBatch.of(candidates));
+    }
+
+    public void receiveFromFollowees(CandidateBatch candidates) {
+        for (int group = 0; group < candidates.getNumGroups(); group++) {
+            heardTxs = heardTxs.union(TransactionIdSet.copyOf(candidates.getTxIds(), candidates.getGroupStart(group), candidates.getGroupEnd(group)));
+        }
+        heard(currentRound, heardTxs);
+        currentRound++;
+    }
+
+    /**
+     * @return the number of rounds this node has received candidates in
+     */
+    protected int getCurrentRound() {
+        return currentRound;
+    }
+
+    /**
+     * @param heardTxs the transactions given to this node or received so far
+     * @return the transactions to send to the followers at {@code round}
+     */
+    protected abstract TransactionIdSet propose(int round, TransactionIdSet heardTxs);
+
+    /**
+     * Called at the end of each round this node has received candidates
+     */
+    protected void heard(final int round, final TransactionIdSet heardTxs) {
+    }
+}
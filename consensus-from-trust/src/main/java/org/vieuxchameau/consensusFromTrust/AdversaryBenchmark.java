@@ -0,0 +1,182 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures what each kind of adversary costs the compliant nodes: the CPU time spent in the calls to the
+ * compliant nodes in the average and in the slowest round, the heap retained by the compliant nodes alone once
+ * the simulation is over, and the agreement reached. The mean round time of the whole engine, adversaries and
+ * routing included, and the candidates routed in the busiest round are printed alongside. Every adversary runs
+ * on the same graph, with the same malicious positions and the same initial transactions as the silent
+ * {@link MaliciousNode} it is compared with.
+ * <p>
+ * The nodes are called from the benchmark thread, so the CPU time of a compliant node is the CPU time of that
+ * thread around its calls, or their wall time if the JVM does not measure it. The heap of the compliant nodes
+ * is the heap released when they are dropped from the simulation.
+ * <p>
+ * The fabricated ids of the flood are dropped by the engine before they reach the compliant nodes, so the
+ * {@code flood} row only measures the cost of checking them. The {@code flood-routed} row routes them to the
+ * compliant nodes, which then have to inspect them and detect the flooding followees themselves. Its flooding
+ * nodes do not relay each other's floods, which would otherwise reach every node, and send a smaller flood.
+ */
+public class AdversaryBenchmark {
+
+    /**
+     * Optional arguments: number of nodes (1000), p_graph (.1), p_malicious (.3), numRounds (10), flood size
+     * (100000), seed (42) and routed flood size (1000)
+     */
+    public static void main(String[] args) {
+        final int numNodes = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final double p_graph = args.length > 1 ? Double.parseDouble(args[1]) : .1;
+        final double p_malicious = args.length > 2 ? Double.parseDouble(args[2]) : .3;
+        final int numRounds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        final int floodSize = args.length > 4 ? Integer.parseInt(args[4]) : 100_000;
+        final long seed = args.length > 5 ? Long.parseLong(args[5]) : 42;
+        final int routedFloodSize = args.length > 6 ? Integer.parseInt(args[6]) : 1000;
+        final double p_txDistribution = .05;
+
+        final Map<String, SimulationRun.MaliciousNodeFactory> adversaries = new LinkedHashMap<>();
+        adversaries.put("silent", (node, random) -> new MaliciousNode(p_graph, p_malicious, p_txDistribution, numRounds));
+        // seeded from the node rather than from the shared random, which would move the following draws
+        adversaries.put("flood", (node, random) -> new FloodingNode(floodSize, seed + node));
+        adversaries.put("flood-routed", (node, random) -> new FloodingNode(routedFloodSize, seed + node, false));
+        adversaries.put("flip-flop", (node, random) -> new FlipFlopNode());
+        adversaries.put("late-duplicate", (node, random) -> new LateDuplicateNode(2));
+        final SybilNode.Cluster cluster = new SybilNode.Cluster(numRounds - 2);
+        adversaries.put("sybil", (node, random) -> new SybilNode(cluster));
+
+        System.out.println("adversary       engine round ms  compliant round ms  compliant max ms  max routed  compliant MB  consensus  agreement size");
+        for (Map.Entry<String, SimulationRun.MaliciousNodeFactory> adversary : adversaries.entrySet()) {
+            final Random random = new Random(seed);
+            final FollowGraph graph = FollowGraph.random(numNodes, p_graph, random);
+            final SimulationRun setup = new SimulationRun(numNodes, p_graph, p_malicious, p_txDistribution, numRounds);
+            setup.setMaliciousNodeFactory(adversary.getValue());
+            final boolean[] compliant = new boolean[numNodes];
+            final Node[] nodes = setup.createNodes(random, compliant);
+            final TimedNode.Clock clock = new TimedNode.Clock();
+            for (int i = 0; i < numNodes; i++) {
+                if (compliant[i]) {
+                    nodes[i] = new TimedNode(nodes[i], clock);
+                }
+            }
+            final SimulationEngine engine = new SimulationEngine(nodes, graph, setup.distributeTransactions(nodes, random));
+            engine.setRouteInvalidTransactions(adversary.getKey().equals("flood-routed"));
+
+            long totalNanos = 0;
+            long compliantNanos = 0;
+            long maxCompliantNanos = 0;
+            for (int round = 0; round < numRounds; round++) {
+                final long start = System.nanoTime();
+                final long compliantStart = clock.nanos;
+                engine.runRound();
+                totalNanos += System.nanoTime() - start;
+                final long elapsed = clock.nanos - compliantStart;
+                compliantNanos += elapsed;
+                maxCompliantNanos = Math.max(maxCompliantNanos, elapsed);
+            }
+            final SimulationRun.SimulationResult result = SimulationRun.SimulationResult.of(nodes, compliant, totalNanos);
+
+            // the engine shares the array of nodes, dropping the compliant ones releases the state they alone hold
+            final long heapWithCompliant = usedHeap();
+            for (int i = 0; i < numNodes; i++) {
+                if (compliant[i]) {
+                    nodes[i] = null;
+                }
+            }
+            final long compliantRetained = heapWithCompliant - usedHeap();
+            // read after the measures so the engine stays reachable until then
+            long maxRouted = 0;
+            for (SimulationEngine.RoundStats stats : engine.getRoundStats()) {
+                maxRouted = Math.max(maxRouted, stats.getRoutedCandidates());
+            }
+
+            System.out.println(String.format("%-14s %16.1f %19.1f %17.1f %11d %13.1f %10.3f %15d", adversary.getKey(),
+                    totalNanos / 1e6 / numRounds, compliantNanos / 1e6 / numRounds, maxCompliantNanos / 1e6, maxRouted,
+                    compliantRetained / 1e6, result.getConsensusRate(), result.getAgreementSetSize()));
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Adds the time spent in the round calls of the node it wraps to a {@link Clock}
+     */
+    private static final class TimedNode implements Node {
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        /**
+         * time spent in the wrapped nodes, they are called from a single thread
+         */
+        private static final class Clock {
+            private long nanos;
+        }
+
+        private final Node node;
+        private final Clock clock;
+
+        private TimedNode(final Node node, final Clock clock) {
+            this.node = node;
+            this.clock = clock;
+        }
+
+        private static long now() {
+            return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+        }
+
+        @Override
+        public void setFollowees(final boolean[] followees) {
+            node.setFollowees(followees);
+        }
+
+        @Override
+        public void setFollowees(final int[] followees, final int numNodes) {
+            node.setFollowees(followees, numNodes);
+        }
+
+        @Override
+        public void setPendingTransaction(final Set<Transaction> pendingTransactions) {
+            node.setPendingTransaction(pendingTransactions);
+        }
+
+        @Override
+        public Set<Transaction> sendToFollowers() {
+            final long start = now();
+            final Set<Transaction> proposal = node.sendToFollowers();
+            clock.nanos += now() - start;
+            return proposal;
+        }
+
+        @Override
+        public void receiveFromFollowees(final Set<Candidate> candidates) {
+            final long start = now();
+            node.receiveFromFollowees(candidates);
+            clock.nanos += now() - start;
+        }
+
+        @Override
+        public void receiveFromFollowees(final CandidateBatch candidates) {
+            final long start = now();
+            node.receiveFromFollowees(candidates);
+            clock.nanos += now() - start;
+        }
+
+        @Override
+        public boolean supportsDeltaGossip() {
+            return node.supportsDeltaGossip();
+        }
+
+        @Override
+        public boolean isRoundDependent() {
+            return node.isRoundDependent();
+        }
+    }
+}
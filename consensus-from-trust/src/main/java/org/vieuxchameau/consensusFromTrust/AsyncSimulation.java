@@ -0,0 +1,419 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Discrete event simulation of the nodes without rounds. Each node ticks on its own clock: it is given the
+ * proposals which have reached it since its previous tick, spends some processing time, then sends its
+ * proposal to its followers. Every message travels with the latency of its link and may be lost, so the
+ * followees of a node are heard at different times, out of order or not at all.
+ * <p>
+ * Times are in microseconds of simulated time. The events are kept in a binary heap ordered by time then by
+ * scheduling order, which keeps a run reproducible from its seed, and are recycled once processed so that
+ * a long run does not allocate one object per message.
+ */
+public class AsyncSimulation {
+
+    private static final int TICK = 0;
+    private static final int DELIVER = 1;
+
+    /**
+     * Latency of the messages sent from one node to another
+     */
+    public interface LatencyModel {
+        long getLatency(int sender, int receiver, Random random);
+
+        static LatencyModel constant(final long latency) {
+            return (sender, receiver, random) -> latency;
+        }
+
+        /**
+         * Each link has its own base latency between {@code min} and {@code max}, to which every message adds
+         * an exponentially distributed jitter of mean {@code meanJitter}
+         */
+        static LatencyModel perLink(final long min, final long max, final long meanJitter) {
+            return (sender, receiver, random) -> {
+                // a cheap hash of the link, stable for the whole run
+                long link = (sender * 0x9E3779B97F4A7C15L) ^ (receiver * 0xC2B2AE3D27D4EB4FL);
+                link ^= link >>> 29;
+                final long base = min + Math.floorMod(link, max - min + 1);
+                return base + (long) (-meanJitter * Math.log(1 - random.nextDouble()));
+            };
+        }
+    }
+
+    private final Node[] nodes;
+    private final FollowGraph graph;
+    private final TransactionIdSet validTxIds;
+    private final Random random;
+    private LatencyModel latencyModel = LatencyModel.constant(100_000);
+    private double lossProbability;
+    private long tickInterval = 1_000_000;
+    private long processingCost = 1_000;
+    private long processingCostPerCandidate = 1;
+
+    /**
+     * {@code followeeOffsets[i]} is the first inbox slot of node {@code i}, one slot per followee
+     */
+    private final int[] followeeOffsets;
+    /**
+     * inbox slot of each (sender, follower) edge, in the order of {@link FollowGraph#getFollower(int, int)}
+     */
+    private final int[] slotByFollowerEdge;
+    private final int[] followerOffsets;
+    private final Message[] latestBySlot;
+    private final boolean[] freshBySlot;
+    private final Message[] lastMessageBySender;
+    private final long[] nextSeqBySender;
+    private final CandidateBatch batch = new CandidateBatch();
+    private final EventQueue queue = new EventQueue();
+    private long now;
+
+    private long processedEvents;
+    private long deliveredMessages;
+    private long lostMessages;
+    private long deliveredCandidates;
+    private long ticks;
+
+    /**
+     * Notifies every node of its followees
+     *
+     * @param validTxIds only the transactions with these ids are sent
+     * @param random     draws the latencies, the losses and the phase of the clock of each node
+     */
+    public AsyncSimulation(final Node[] nodes, final FollowGraph graph, final TransactionIdSet validTxIds, final Random random) {
+        this.nodes = nodes;
+        this.graph = graph;
+        this.validTxIds = validTxIds;
+        this.random = random;
+        final int numNodes = nodes.length;
+
+        this.followeeOffsets = new int[numNodes + 1];
+        this.followerOffsets = new int[numNodes + 1];
+        for (int i = 0; i < numNodes; i++) {
+            followeeOffsets[i + 1] = followeeOffsets[i] + graph.getNumFollowees(i);
+            followerOffsets[i + 1] = followerOffsets[i] + graph.getNumFollowers(i);
+        }
+        final int numEdges = followeeOffsets[numNodes];
+        // the followers of a sender are visited in ascending order, so the sender is found at the next
+        // position of each follower's followee list
+        this.slotByFollowerEdge = new int[numEdges];
+        final int[] nextPosition = new int[numNodes];
+        for (int sender = 0; sender < numNodes; sender++) {
+            for (int k = 0; k < graph.getNumFollowers(sender); k++) {
+                final int follower = graph.getFollower(sender, k);
+                slotByFollowerEdge[followerOffsets[sender] + k] = followeeOffsets[follower] + nextPosition[follower]++;
+            }
+        }
+        this.latestBySlot = new Message[numEdges];
+        this.freshBySlot = new boolean[numEdges];
+        this.lastMessageBySender = new Message[numNodes];
+        this.nextSeqBySender = new long[numNodes];
+
+        for (int i = 0; i < numNodes; i++) {
+            nodes[i].setFollowees(graph.getFollowees(i), numNodes);
+        }
+    }
+
+    public void setLatencyModel(final LatencyModel latencyModel) {
+        this.latencyModel = latencyModel;
+    }
+
+    public void setLossProbability(final double lossProbability) {
+        if (lossProbability < 0 || lossProbability >= 1) {
+            throw new IllegalArgumentException("The loss probability must be in [0, 1): " + lossProbability);
+        }
+        this.lossProbability = lossProbability;
+    }
+
+    /**
+     * @param tickInterval time between the end of the processing of a tick and the next tick of a node
+     */
+    public void setTickInterval(final long tickInterval) {
+        this.tickInterval = tickInterval;
+    }
+
+    /**
+     * A tick takes {@code processingCost + processingCostPerCandidate * candidates} to process, the node sends
+     * its proposal once done
+     */
+    public void setProcessingCost(final long processingCost, final long processingCostPerCandidate) {
+        this.processingCost = processingCost;
+        this.processingCostPerCandidate = processingCostPerCandidate;
+    }
+
+    /**
+     * Runs until the simulated time reaches {@code endTime}, the first tick of each node happens at a random
+     * time of the first tick interval
+     */
+    public void run(final long endTime) {
+        if (ticks == 0 && queue.isEmpty()) {
+            for (int i = 0; i < nodes.length; i++) {
+                schedule(TICK, (long) (random.nextDouble() * tickInterval), i, null);
+            }
+        }
+        while (!queue.isEmpty() && queue.peekTime() < endTime) {
+            final Event event = queue.poll();
+            now = event.time;
+            processedEvents++;
+            if (event.type == TICK) {
+                tick(event.target);
+            } else {
+                deliver(event.target, event.message);
+            }
+            queue.recycle(event);
+        }
+        now = Math.max(now, endTime);
+    }
+
+    private void deliver(final int slot, final Message message) {
+        final Message latest = latestBySlot[slot];
+        // a message overtaken by a more recent one from the same sender is dropped
+        if (latest == null || message.seq > latest.seq) {
+            latestBySlot[slot] = message;
+            freshBySlot[slot] = true;
+        }
+        deliveredMessages++;
+    }
+
+    private void tick(final int node) {
+        ticks++;
+        // the slots of a node are in the order of its followees, hence of the senders
+        for (int k = 0; k < graph.getNumFollowees(node); k++) {
+            final int slot = followeeOffsets[node] + k;
+            if (freshBySlot[slot]) {
+                final Message message = latestBySlot[slot];
+                batch.addGroup(graph.getFollowee(node, k), message.txIds, message.txIds.length);
+                freshBySlot[slot] = false;
+            }
+        }
+        final int numCandidates = batch.size();
+        if (!batch.isEmpty()) {
+            nodes[node].receiveFromFollowees(batch);
+        }
+        batch.clear();
+        deliveredCandidates += numCandidates;
+
+        final long sendTime = now + processingCost + processingCostPerCandidate * numCandidates;
+        final Message message = toMessage(node, nodes[node].sendToFollowers());
+        for (int k = 0; k < graph.getNumFollowers(node); k++) {
+            if (lossProbability > 0 && random.nextDouble() < lossProbability) {
+                lostMessages++;
+                continue;
+            }
+            final int follower = graph.getFollower(node, k);
+            schedule(DELIVER, sendTime + latencyModel.getLatency(node, follower, random),
+                    slotByFollowerEdge[followerOffsets[node] + k], message);
+        }
+        schedule(TICK, sendTime + tickInterval, node, null);
+    }
+
+    /**
+     * The sorted valid ids of the proposal, the ids of the previous message of the sender are reused when they have not changed
+     */
+    private Message toMessage(final int sender, final Set<Transaction> proposal) {
+        int[] txIds = new int[proposal.size()];
+        int numTxIds = 0;
+        for (Transaction tx : proposal) {
+            if (validTxIds.contains(tx.id)) { // ensure that each tx is actually valid
+                txIds[numTxIds++] = tx.id;
+            }
+        }
+        Arrays.sort(txIds, 0, numTxIds);
+        txIds = numTxIds == txIds.length ? txIds : Arrays.copyOf(txIds, numTxIds);
+
+        final Message last = lastMessageBySender[sender];
+        if (last != null && Arrays.equals(last.txIds, txIds)) {
+            return new Message(last.txIds, nextSeqBySender[sender]++);
+        }
+        final Message message = new Message(txIds, nextSeqBySender[sender]++);
+        lastMessageBySender[sender] = message;
+        return message;
+    }
+
+    private void schedule(final int type, final long time, final int target, final Message message) {
+        final Event event = queue.obtain();
+        event.type = type;
+        event.time = time;
+        event.target = target;
+        event.message = message;
+        queue.add(event);
+    }
+
+    public Node[] getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the current simulated time
+     */
+    public long getTime() {
+        return now;
+    }
+
+    public long getProcessedEvents() {
+        return processedEvents;
+    }
+
+    public long getDeliveredMessages() {
+        return deliveredMessages;
+    }
+
+    public long getLostMessages() {
+        return lostMessages;
+    }
+
+    /**
+     * @return the number of transaction ids given to the nodes
+     */
+    public long getDeliveredCandidates() {
+        return deliveredCandidates;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Runs the same setup as {@link Simulation} for {@code numRounds} tick intervals, latencies between 50 and
+     * 150 ms with a 20 ms jitter. Arguments: p_graph, p_malicious, p_txDistribution, numRounds, then optionally
+     * the loss probability, the number of nodes and the seed.
+     */
+    public static void main(String[] args) {
+        final double p_graph = Double.parseDouble(args[0]);
+        final double p_malicious = Double.parseDouble(args[1]);
+        final double p_txDistribution = Double.parseDouble(args[2]);
+        final int numRounds = Integer.parseInt(args[3]);
+        final double lossProbability = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+        final int numNodes = args.length > 5 ? Integer.parseInt(args[5]) : 100;
+        final Random random = args.length > 6 ? new Random(Long.parseLong(args[6])) : new Random();
+
+        final SimulationRun setup = new SimulationRun(numNodes, p_graph, p_malicious, p_txDistribution, numRounds);
+        final boolean[] compliant = new boolean[numNodes];
+        final Node[] nodes = setup.createNodes(random, compliant);
+        final TransactionIdSet validTxIds = setup.distributeTransactions(nodes, random);
+        final AsyncSimulation simulation = new AsyncSimulation(nodes, FollowGraph.random(numNodes, p_graph, random), validTxIds, random);
+        simulation.setLatencyModel(LatencyModel.perLink(50_000, 150_000, 20_000));
+        simulation.setLossProbability(lossProbability);
+
+        final long start = System.nanoTime();
+        simulation.run(numRounds * simulation.tickInterval);
+        final long elapsed = System.nanoTime() - start;
+
+        final SimulationRun.SimulationResult result = SimulationRun.SimulationResult.of(nodes, compliant, elapsed);
+        System.out.println(simulation.getProcessedEvents() + " events in " + elapsed / 1_000_000 + " ms ("
+                + (long) (simulation.getProcessedEvents() / (elapsed / 1e9)) + " events/s), "
+                + simulation.getDeliveredMessages() + " messages delivered, " + simulation.getLostMessages() + " lost");
+        System.out.println(result.getNumAgreeingNodes() + " of " + result.getNumCompliantNodes()
+                + " compliant nodes agree on " + result.getAgreementSetSize() + " txs");
+    }
+
+    /**
+     * Proposal of a sender, shared by all the followers it is sent to
+     */
+    private static final class Message {
+        private final int[] txIds;
+        /**
+         * increases with each message of the same sender
+         */
+        private final long seq;
+
+        private Message(final int[] txIds, final long seq) {
+            this.txIds = txIds;
+            this.seq = seq;
+        }
+    }
+
+    private static final class Event {
+        private long time;
+        /**
+         * breaks the ties between events of the same time, in scheduling order
+         */
+        private long order;
+        private int type;
+        /**
+         * the node for a tick, the inbox slot for a delivery
+         */
+        private int target;
+        private Message message;
+
+        private boolean isBefore(final Event other) {
+            return time < other.time || (time == other.time && order < other.order);
+        }
+    }
+
+    /**
+     * Binary min heap of events with a free list of processed events
+     */
+    private static final class EventQueue {
+        private Event[] heap = new Event[1024];
+        private int size;
+        private Event[] free = new Event[1024];
+        private int numFree;
+        private long nextOrder;
+
+        private Event obtain() {
+            return numFree > 0 ? free[--numFree] : new Event();
+        }
+
+        private void recycle(final Event event) {
+            event.message = null;
+            if (numFree == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[numFree++] = event;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private long peekTime() {
+            return heap[0].time;
+        }
+
+        private void add(final Event event) {
+            event.order = nextOrder++;
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, heap.length * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (!event.isBefore(heap[parent])) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = event;
+        }
+
+        private Event poll() {
+            final Event first = heap[0];
+            final Event last = heap[--size];
+            heap[size] = null;
+            if (size > 0) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && heap[child + 1].isBefore(heap[child])) {
+                        child++;
+                    }
+                    if (!heap[child].isBefore(last)) {
+                        break;
+                    }
+                    heap[i] = heap[child];
+                    i = child;
+                }
+                heap[i] = last;
+            }
+            return first;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Candidates received by a node during a round, as the parallel arrays {@code txIds} and {@code senders}:
+ * candidate {@code k} is transaction {@code getTxId(k)} sent by {@code getSender(k)}. The candidates are
+ * grouped by sender in ascending sender order and the ids of a group are sorted and distinct, group
+ * {@code g} spanning the indexes {@code getGroupStart(g)} to {@code getGroupEnd(g) - 1}.
+ * <p>
+ * In a delta batch each group only holds the transactions its sender has accepted since the previous round,
+ * and a followee with no group has sent nothing new. Delta batches are only delivered to the nodes which
+ * {@linkplain Node#supportsDeltaGossip() support} them.
+ * <p>
+ * A batch is a reusable buffer owned by whoever delivers it: a node must not keep a reference to it, nor
+ * to its arrays, once {@link Node#receiveFromFollowees(CandidateBatch)} has returned.
+ */
+public final class CandidateBatch {
+
+    private int[] txIds = new int[16];
+    private int[] senders = new int[16];
+    private int size;
+    private int[] groupSenders = new int[4];
+    private int[] groupStarts = new int[5];
+    private int numGroups;
+    private boolean delta;
+
+    /**
+     * @return a new batch of {@code candidates}, duplicated candidates are only kept once
+     */
+    public static CandidateBatch of(final Collection<Candidate> candidates) {
+        final long[] senderAndIds = new long[candidates.size()];
+        int k = 0;
+        for (Candidate candidate : candidates) {
+            // the id is flipped to an unsigned order so that sorting the longs sorts by sender then by id
+            senderAndIds[k++] = ((long) candidate.sender << 32) | ((candidate.tx.id ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+        }
+        Arrays.sort(senderAndIds);
+
+        final CandidateBatch batch = new CandidateBatch();
+        for (int i = 0; i < senderAndIds.length; i++) {
+            if (i > 0 && senderAndIds[i] == senderAndIds[i - 1]) {
+                continue;
+            }
+            batch.add((int) (senderAndIds[i] >>> 32), (int) senderAndIds[i] ^ Integer.MIN_VALUE);
+        }
+        return batch;
+    }
+
+    /**
+     * Appends the group of the first {@code length} ids of {@code sortedTxIds} sent by {@code sender}, which
+     * must be greater than the sender of the previous group. The ids must be sorted and distinct.
+     */
+    public void addGroup(final int sender, final int[] sortedTxIds, final int length) {
+        if (length == 0) {
+            return;
+        }
+        ensureCapacity(size + length);
+        System.arraycopy(sortedTxIds, 0, txIds, size, length);
+        Arrays.fill(senders, size, size + length, sender);
+        startGroup(sender);
+        size += length;
+        groupStarts[numGroups] = size;
+    }
+
+    private void add(final int sender, final int txId) {
+        ensureCapacity(size + 1);
+        if (numGroups == 0 || groupSenders[numGroups - 1] != sender) {
+            startGroup(sender);
+        }
+        txIds[size] = txId;
+        senders[size] = sender;
+        size++;
+        groupStarts[numGroups] = size;
+    }
+
+    private void startGroup(final int sender) {
+        if (numGroups + 1 == groupSenders.length) {
+            groupSenders = Arrays.copyOf(groupSenders, groupSenders.length * 2);
+            groupStarts = Arrays.copyOf(groupStarts, groupStarts.length * 2);
+        }
+        groupSenders[numGroups] = sender;
+        groupStarts[numGroups] = size;
+        numGroups++;
+    }
+
+    public void clear() {
+        size = 0;
+        numGroups = 0;
+        delta = false;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public void setDelta(final boolean delta) {
+        this.delta = delta;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getTxId(final int index) {
+        return txIds[index];
+    }
+
+    public int getSender(final int index) {
+        return senders[index];
+    }
+
+    /**
+     * @return the backing array of the ids, only its first {@link #size()} entries are meaningful
+     */
+    public int[] getTxIds() {
+        return txIds;
+    }
+
+    /**
+     * @return the backing array of the senders, only its first {@link #size()} entries are meaningful
+     */
+    public int[] getSenders() {
+        return senders;
+    }
+
+    public int getNumGroups() {
+        return numGroups;
+    }
+
+    public int getGroupSender(final int group) {
+        return groupSenders[group];
+    }
+
+    public int getGroupStart(final int group) {
+        return groupStarts[group];
+    }
+
+    public int getGroupEnd(final int group) {
+        return groupStarts[group + 1];
+    }
+
+    /**
+     * @return a new set of candidates, one instance per candidate of the batch
+     */
+    public Set<Candidate> toCandidates() {
+        final Set<Candidate> candidates = new HashSet<>(Math.max(16, (int) (size / .75f) + 1));
+        for (int k = 0; k < size; k++) {
+            candidates.add(new Candidate(new Transaction(txIds[k]), senders[k]));
+        }
+        return candidates;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > txIds.length) {
+            final int newLength = Math.max(capacity, txIds.length * 2);
+            txIds = Arrays.copyOf(txIds, newLength);
+            senders = Arrays.copyOf(senders, newLength);
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package org.vieuxchameau.consensusFromTrust;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+import java.util.Set;
 
 /* CompliantNode refers to a node that follows the rules (not malicious)*/
 public class CompliantNode implements Node {
@@ -10,11 +10,20 @@ public class CompliantNode implements Node {
     private final double p_malicious;
     private final double p_txDistribution;
     private final int numRounds;
-    private Set<Transaction> initialProposalTxs;
-    private boolean[] followees;
+    private TransactionIdSet proposal = TransactionIdSet.EMPTY;
+    /**
+     * {@code proposal} as a set of transactions, rebuilt only after the proposal has changed
+     */
+    private Set<Transaction> proposalTxs;
+    /**
+     * sorted indexes of the followees
+     */
+    private int[] followees;
     private int currentRound = 0;
-    private Map<Integer, FolloweeContext> receivedTxsBySender = new HashMap<>();
-    private final Set<Integer> maliciousNodes = new HashSet<>();
+    /**
+     * context of each followee, in the same order as {@code followees}
+     */
+    private FolloweeContext[] contextByFollowee;
 
 
     /**
@@ -31,101 +40,106 @@ public class CompliantNode implements Node {
     }
 
     public void setFollowees(boolean[] followees) {
+        int numFollowees = 0;
+        final int[] followeeIds = new int[followees.length];
+        for (int i = 0; i < followees.length; i++) {
+            if (followees[i]) {
+                followeeIds[numFollowees++] = i;
+            }
+        }
+        setFollowees(Arrays.copyOf(followeeIds, numFollowees), followees.length);
+    }
+
+    public void setFollowees(int[] followees, int numNodes) {
         this.followees = followees;
+        this.contextByFollowee = new FolloweeContext[followees.length];
     }
 
     public void setPendingTransaction(Set<Transaction> pendingTransactions) {
-        this.initialProposalTxs = pendingTransactions;
+        this.proposal = TransactionIdSet.of(pendingTransactions);
+        this.proposalTxs = null;
     }
 
     public Set<Transaction> sendToFollowers() {
-        return initialProposalTxs;
+        if (proposalTxs == null) {
+            proposalTxs = proposal.toTransactions();
+        }
+        return proposalTxs;
     }
 
     public void receiveFromFollowees(Set<Candidate> candidates) {
-        final Map<Integer, List<Candidate>> candidatesBySender = candidates.stream().collect(Collectors.groupingBy(c -> c.sender));
+        receiveFromFollowees(CandidateBatch.of(candidates));
+    }
+
+    /**
+     * The candidates sent by nodes which are not followed are ignored, such senders are malicious. As both the
+     * groups of the batch and the followees are sorted, they are matched by walking both at once. The full set
+     * each followee has sent is rebuilt from the deltas, so a delta round is inspected like a full one.
+     */
+    public void receiveFromFollowees(CandidateBatch candidates) {
         if (isFirstRound()) {
-            initContextByFollowee(candidatesBySender);
-            currentRound++;
-            return;
+            for (int i = 0; i < followees.length; i++) {
+                contextByFollowee[i] = new FolloweeContext();
+            }
         }
 
-
-        for (Map.Entry<Integer, List<Candidate>> candidatesOfSender : candidatesBySender.entrySet()) {
-            final List<Transaction> candidateTxsForRound = candidatesOfSender.getValue()
-                    .stream()
-                    .map(candidate -> candidate.tx)
-                    .collect(Collectors.toList());
-            inspectCandidates(candidatesOfSender.getKey(), candidateTxsForRound);
+        int group = 0;
+        final int[] txIds = candidates.getTxIds();
+        for (int followee = 0; followee < followees.length; followee++) {
+            while (group < candidates.getNumGroups() && candidates.getGroupSender(group) < followees[followee]) {
+                group++;
+            }
+            final FolloweeContext context = contextByFollowee[followee];
+            if (group < candidates.getNumGroups() && candidates.getGroupSender(group) == followees[followee]) {
+                final int from = candidates.getGroupStart(group);
+                final int to = candidates.getGroupEnd(group);
+                if (candidates.isDelta()) {
+                    context.receivedTxs = context.receivedTxs.union(TransactionIdSet.copyOf(txIds, from, to));
+                } else if (context.receivedTxs.size() != to - from || !context.receivedTxs.isContainedIn(txIds, from, to)) {
+                    context.receivedTxs = TransactionIdSet.copyOf(txIds, from, to);
+                }
+            } else if (!candidates.isDelta()) {
+                context.receivedTxs = TransactionIdSet.EMPTY;
+            }
+            // a followee which has never sent anything is not inspected
+            if (!context.receivedTxs.isEmpty()) {
+                inspectCandidates(context, context.receivedTxs);
+            }
         }
 
         currentRound++;
     }
 
-    private void inspectCandidates(final Integer sender, final List<Transaction> candidateTxsForRound) {
-        final FolloweeContext context = receivedTxsBySender.get(sender);
+    public boolean supportsDeltaGossip() {
+        return true;
+    }
 
-        if (context == null || isMaliciousNode(sender)) { // The sender is not a followee or it is but it is a malicious one
-            maliciousNodes.add(sender);
+    private void inspectCandidates(final FolloweeContext context, final TransactionIdSet candidateTxsForRound) {
+        if (context.malicious) { // The followee has already been detected as malicious
             return;
         }
 
         // All the verified transactions should be received again
         if (!candidateTxsForRound.containsAll(context.verifiedTxs)) {
-            maliciousNodes.add(sender);
+            context.malicious = true;
             return;
         }
-        // Remove all the verified transactions from the candidates
-        candidateTxsForRound.removeIf(context.verifiedTxs::contains);
-
-        // Remove the unverified transactions of the previous round from the candidates
-        final Set<Transaction> newlyVerifiedTxs = new HashSet<>(context.unverifiedTxs.size());
-        boolean isMalicious = false;
-        final Iterator<Transaction> it = context.unverifiedTxs.iterator();
-        while (it.hasNext()) {
-            final Transaction unverifiedTx = it.next();
-            // if an unverified transaction received from the previous round is received again we assume it is now verified
-            if (candidateTxsForRound.contains(unverifiedTx)) {
-                candidateTxsForRound.remove(unverifiedTx);
-                newlyVerifiedTxs.add(unverifiedTx);
-                it.remove();
-            } else {
-                isMalicious = true;
-                break;
-            }
-        }
 
+        // if the unverified transactions received from the previous round are received again we assume they are now verified.
         // A node is supposed to send all the previously sent transactions
-        if (isMalicious || !context.unverifiedTxs.isEmpty()) {
-            maliciousNodes.add(sender);
+        if (!candidateTxsForRound.containsAll(context.unverifiedTxs)) {
+            context.malicious = true;
             return;
         }
+        final TransactionIdSet newlyVerifiedTxs = context.unverifiedTxs;
 
-        initialProposalTxs.addAll(newlyVerifiedTxs);
-        context.addToVerifiedTxs(newlyVerifiedTxs);
-        context.addToUnverifiedTxs(candidateTxsForRound);
-    }
-
-    private boolean isMaliciousNode(final Integer sender) {
-        return maliciousNodes.contains(sender);
-    }
-
-
-    private void initContextByFollowee(Map<Integer, List<Candidate>> candidatesBySender) {
-        for (int i = 0; i < followees.length; i++) {
-            final boolean isFollowee = followees[i];
-            if (isFollowee) {
-                final FolloweeContext followeeContext = new FolloweeContext();
-                receivedTxsBySender.put(i, followeeContext);
-
-                final List<Candidate> candidates = candidatesBySender.get(i);
-                if (candidates != null && !candidates.isEmpty()) {
-                    followeeContext.addToUnverifiedTxs(candidates.stream()
-                            .map(candidate -> candidate.tx)
-                            .collect(Collectors.toList()));
-                }
-            }
+        if (!newlyVerifiedTxs.isEmpty()) {
+            proposal = proposal.union(newlyVerifiedTxs);
+            proposalTxs = null;
+            context.verifiedTxs = context.verifiedTxs.union(newlyVerifiedTxs);
         }
+        // the candidates neither verified before nor just verified
+        context.unverifiedTxs = candidateTxsForRound.difference(context.verifiedTxs);
     }
 
     private boolean isFirstRound() {
@@ -133,17 +147,13 @@ public class CompliantNode implements Node {
     }
 
 
-    private class FolloweeContext {
-        private final Set<Transaction> verifiedTxs = new HashSet<>();
-        private final Set<Transaction> unverifiedTxs = new HashSet<>();
-
-
-        public void addToUnverifiedTxs(Collection<Transaction> transactions) {
-            unverifiedTxs.addAll(transactions);
-        }
-
-        public void addToVerifiedTxs(final Collection<Transaction> transactions) {
-            this.verifiedTxs.addAll(transactions);
-        }
+    private static class FolloweeContext {
+        /**
+         * the last full set of transactions sent by the followee
+         */
+        private TransactionIdSet receivedTxs = TransactionIdSet.EMPTY;
+        private TransactionIdSet verifiedTxs = TransactionIdSet.EMPTY;
+        private TransactionIdSet unverifiedTxs = TransactionIdSet.EMPTY;
+        private boolean malicious;
     }
 }
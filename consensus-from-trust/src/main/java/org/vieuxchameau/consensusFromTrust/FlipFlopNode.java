@@ -0,0 +1,23 @@
+package org.vieuxchameau.consensusFromTrust;
+
+/**
+ * Alternates every round between the two halves of what it has heard of, so that the candidates of two
+ * consecutive rounds never overlap and each round invalidates what the followers learnt the round before.
+ */
+public class FlipFlopNode extends AdversarialNode {
+
+    @Override
+    protected TransactionIdSet propose(final int round, final TransactionIdSet heardTxs) {
+        final int[] half = new int[(heardTxs.size() + 1) / 2];
+        int size = 0;
+        for (int i = round % 2; i < heardTxs.size(); i += 2) {
+            half[size++] = heardTxs.get(i);
+        }
+        return TransactionIdSet.copyOf(half, 0, size);
+    }
+
+    @Override
+    public boolean isRoundDependent() {
+        return true;
+    }
+}
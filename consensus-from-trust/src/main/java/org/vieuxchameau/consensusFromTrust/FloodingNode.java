@@ -0,0 +1,51 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Sends everything it has heard of together with {@code floodSize} fabricated transactions, new ones every
+ * round. The fabricated ids have to be checked and dropped before reaching the followers while the valid
+ * ones are as many candidates as an honest followee could send.
+ * <p>
+ * When the fabricated ids are routed to the followers, flooding nodes hear of each other's floods and relaying
+ * them makes every flood reach every node. A node which does not relay only sends the transactions it has been
+ * given and its own flood.
+ */
+public class FloodingNode extends AdversarialNode {
+
+    private final int floodSize;
+    private final Random random;
+    private final boolean relay;
+    private TransactionIdSet givenTxs = TransactionIdSet.EMPTY;
+
+    public FloodingNode(int floodSize, long seed) {
+        this(floodSize, seed, true);
+    }
+
+    public FloodingNode(int floodSize, long seed, boolean relay) {
+        this.floodSize = floodSize;
+        this.random = new Random(seed);
+        this.relay = relay;
+    }
+
+    @Override
+    public void setPendingTransaction(Set<Transaction> pendingTransactions) {
+        super.setPendingTransaction(pendingTransactions);
+        givenTxs = givenTxs.union(TransactionIdSet.of(pendingTransactions));
+    }
+
+    @Override
+    protected TransactionIdSet propose(final int round, final TransactionIdSet heardTxs) {
+        final int[] flood = new int[floodSize];
+        for (int i = 0; i < floodSize; i++) {
+            flood[i] = random.nextInt();
+        }
+        return (relay ? heardTxs : givenTxs).union(TransactionIdSet.wrap(flood, floodSize));
+    }
+
+    @Override
+    public boolean isRoundDependent() {
+        return true;
+    }
+}
@@ -0,0 +1,149 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Follow graph of the simulation in compressed sparse row form: the followees of node {@code i} are
+ * {@code followeeIds[followeeOffsets[i]]} to {@code followeeIds[followeeOffsets[i + 1] - 1]}, sorted, and the
+ * followers are stored the same way. Memory is proportional to the number of edges instead of
+ * {@code numNodes * numNodes}.
+ */
+public final class FollowGraph {
+
+    private final int numNodes;
+    private final int[] followeeOffsets;
+    private final int[] followeeIds;
+    private final int[] followerOffsets;
+    private final int[] followerIds;
+
+    private FollowGraph(final int numNodes, final int[] followeeOffsets, final int[] followeeIds) {
+        this.numNodes = numNodes;
+        this.followeeOffsets = followeeOffsets;
+        this.followeeIds = followeeIds;
+
+        // transpose: node i follows j means i is a follower of j
+        this.followerOffsets = new int[numNodes + 1];
+        for (int k = 0; k < followeeOffsets[numNodes]; k++) {
+            followerOffsets[followeeIds[k] + 1]++;
+        }
+        for (int i = 0; i < numNodes; i++) {
+            followerOffsets[i + 1] += followerOffsets[i];
+        }
+        this.followerIds = new int[followeeOffsets[numNodes]];
+        final int[] next = Arrays.copyOf(followerOffsets, numNodes);
+        for (int i = 0; i < numNodes; i++) {
+            for (int k = followeeOffsets[i]; k < followeeOffsets[i + 1]; k++) {
+                followerIds[next[followeeIds[k]]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Random graph where each node follows each other node with probability {@code p_graph}. The gaps
+     * between two followees are drawn from a geometric distribution so generation costs O(edges) rather
+     * than O(numNodes * numNodes).
+     */
+    public static FollowGraph random(final int numNodes, final double p_graph, final Random random) {
+        final int[] followeeOffsets = new int[numNodes + 1];
+        int[] followeeIds = new int[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, (long) (numNodes * (numNodes - 1L) * p_graph * 1.1)))];
+        int numEdges = 0;
+        final double logOfMiss = Math.log(1 - p_graph);
+        for (int i = 0; i < numNodes; i++) {
+            if (p_graph > 0) {
+                // candidates are the numNodes - 1 other nodes, candidate c is node c, or c + 1 once past i
+                long candidate = -1;
+                while (true) {
+                    candidate += 1 + (p_graph >= 1 ? 0 : (long) Math.floor(Math.log(1 - random.nextDouble()) / logOfMiss));
+                    if (candidate >= numNodes - 1) {
+                        break;
+                    }
+                    if (numEdges == followeeIds.length) {
+                        followeeIds = Arrays.copyOf(followeeIds, (int) Math.min(Integer.MAX_VALUE - 8, followeeIds.length * 2L));
+                    }
+                    followeeIds[numEdges++] = candidate < i ? (int) candidate : (int) candidate + 1;
+                }
+            }
+            followeeOffsets[i + 1] = numEdges;
+        }
+        return new FollowGraph(numNodes, followeeOffsets, Arrays.copyOf(followeeIds, numEdges));
+    }
+
+    /**
+     * @param followees {@code followees[i][j]} is true iff i follows j
+     */
+    public static FollowGraph of(final boolean[][] followees) {
+        final int numNodes = followees.length;
+        final int[] followeeOffsets = new int[numNodes + 1];
+        for (int i = 0; i < numNodes; i++) {
+            int count = 0;
+            for (boolean follows : followees[i]) {
+                if (follows) {
+                    count++;
+                }
+            }
+            followeeOffsets[i + 1] = followeeOffsets[i] + count;
+        }
+        final int[] followeeIds = new int[followeeOffsets[numNodes]];
+        int k = 0;
+        for (int i = 0; i < numNodes; i++) {
+            for (int j = 0; j < numNodes; j++) {
+                if (followees[i][j]) {
+                    followeeIds[k++] = j;
+                }
+            }
+        }
+        return new FollowGraph(numNodes, followeeOffsets, followeeIds);
+    }
+
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    public long getNumEdges() {
+        return followeeIds.length;
+    }
+
+    /**
+     * @return a copy of the sorted ids of the nodes followed by {@code node}
+     */
+    public int[] getFollowees(final int node) {
+        return Arrays.copyOfRange(followeeIds, followeeOffsets[node], followeeOffsets[node + 1]);
+    }
+
+    public int getNumFollowees(final int node) {
+        return followeeOffsets[node + 1] - followeeOffsets[node];
+    }
+
+    /**
+     * @return the {@code index}-th node followed by {@code node}
+     */
+    public int getFollowee(final int node, final int index) {
+        return followeeIds[followeeOffsets[node] + index];
+    }
+
+    /**
+     * @return a copy of the sorted ids of the nodes following {@code node}
+     */
+    public int[] getFollowers(final int node) {
+        return Arrays.copyOfRange(followerIds, followerOffsets[node], followerOffsets[node + 1]);
+    }
+
+    public int getNumFollowers(final int node) {
+        return followerOffsets[node + 1] - followerOffsets[node];
+    }
+
+    /**
+     * @return the {@code index}-th follower of {@code node}
+     */
+    public int getFollower(final int node, final int index) {
+        return followerIds[followerOffsets[node] + index];
+    }
+
+    /**
+     * @return true if node {@code i} follows node {@code j}
+     */
+    public boolean follows(final int i, final int j) {
+        return Arrays.binarySearch(followeeIds, followeeOffsets[i], followeeOffsets[i + 1], j) >= 0;
+    }
+}
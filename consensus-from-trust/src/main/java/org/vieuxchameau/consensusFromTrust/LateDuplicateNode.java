@@ -0,0 +1,50 @@
+package org.vieuxchameau.consensusFromTrust;
+
+/**
+ * Relays what it has heard of {@code delay} rounds late. Its proposals only ever grow so it looks honest,
+ * but the transactions it sends have already spread and reach its followers again as duplicates.
+ */
+public class LateDuplicateNode extends AdversarialNode {
+
+    /**
+     * what had been heard of at the end of each round, as a ring of {@code delay + 1} rounds
+     */
+    private final TransactionIdSet[] heardByRound;
+
+    public LateDuplicateNode(int delay) {
+        this.heardByRound = new TransactionIdSet[delay + 1];
+    }
+
+    @Override
+    protected TransactionIdSet propose(final int round, final TransactionIdSet heardTxs) {
+        final int delayed = round - heardByRound.length;
+        if (delayed < 0) {
+            return TransactionIdSet.EMPTY;
+        }
+        final TransactionIdSet delayedTxs = heardByRound[delayed % heardByRound.length];
+        return delayedTxs == null ? TransactionIdSet.EMPTY : delayedTxs;
+    }
+
+    @Override
+    protected void heard(final int round, final TransactionIdSet heardTxs) {
+        heardByRound[round % heardByRound.length] = heardTxs;
+    }
+
+    /**
+     * @return true until the last {@code delay + 1} rounds have all heard of the same transactions, which
+     * grow only, so that the delayed proposals stop changing
+     */
+    @Override
+    public boolean isRoundDependent() {
+        if (getCurrentRound() < heardByRound.length) {
+            return true;
+        }
+        final int size = heardByRound[(getCurrentRound() - 1) % heardByRound.length].size();
+        for (TransactionIdSet heard : heardByRound) {
+            if (heard.size() != size) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -12,6 +12,10 @@ public class MaliciousNode implements Node {
         return;
     }
 
+    public void setFollowees(int[] followees, int numNodes) {
+        return;
+    }
+
     public void setPendingTransaction(Set<Transaction> pendingTransactions) {
         return;
     }
@@ -24,4 +28,15 @@ public class MaliciousNode implements Node {
         return;
     }
 
+    public void receiveFromFollowees(CandidateBatch candidates) {
+        return;
+    }
+
+    /**
+     * The candidates are ignored, so there is no point in sending the full proposals
+     */
+    public boolean supportsDeltaGossip() {
+        return true;
+    }
+
 }
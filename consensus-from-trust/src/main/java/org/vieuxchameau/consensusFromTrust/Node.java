@@ -13,6 +13,19 @@ public interface Node {
      */
     void setFollowees(boolean[] followees);
 
+    /**
+     * Sparse form of {@link #setFollowees(boolean[])}: {@code followees} holds the sorted indexes of the
+     * nodes this node follows among {@code numNodes}. The default implementation expands it to a
+     * {@code boolean[]}, nodes which do not need one should override it.
+     */
+    default void setFollowees(int[] followees, int numNodes) {
+        final boolean[] followeeFlags = new boolean[numNodes];
+        for (int followee : followees) {
+            followeeFlags[followee] = true;
+        }
+        setFollowees(followeeFlags);
+    }
+
     /**
      * initialize proposal list of transactions
      */
@@ -26,8 +39,34 @@ public interface Node {
     Set<Transaction> sendToFollowers();
 
     /**
-     * receive candidates from other nodes.
+     * receive candidates from other nodes. The set may be reused by the caller once this method returns.
      */
     void receiveFromFollowees(Set<Candidate> candidates);
 
+    /**
+     * Primitive form of {@link #receiveFromFollowees(Set)} used by the {@link SimulationEngine}, the batch is
+     * reused by the caller once this method returns. The default implementation adapts the batch to a set of
+     * candidates, nodes should override it to process the ids without allocating candidates.
+     */
+    default void receiveFromFollowees(CandidateBatch candidates) {
+        receiveFromFollowees(candidates.toCandidates());
+    }
+
+    /**
+     * @return true if this node accepts {@linkplain CandidateBatch#isDelta() delta batches}, otherwise it is
+     * always sent the full proposals of its followees
+     */
+    default boolean supportsDeltaGossip() {
+        return false;
+    }
+
+    /**
+     * @return true if the proposal of this node may still change in a later round although it hears nothing
+     * new, for instance because it waits for a given round. The {@link SimulationEngine} does not stop early
+     * while a node is round dependent.
+     */
+    default boolean isRoundDependent() {
+        return false;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,176 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the simulation for all the 3x3x3x2 = 54 combinations of p_graph, p_malicious, p_txDistribution and
+ * numRounds, each of them repeated several times, on a work stealing pool using all the cores. Every run
+ * is seeded from the base seed so a sweep can be reproduced, and the runs sharing the same p_graph and
+ * repetition share the same follow graph. The aggregated results are written as CSV, or as JSON when the
+ * report file name ends with {@code .json}.
+ */
+public class ParameterSweep {
+
+    private static final double[] P_GRAPHS = {.1, .2, .3};
+    private static final double[] P_MALICIOUS = {.15, .30, .45};
+    private static final double[] P_TX_DISTRIBUTIONS = {.01, .05, .10};
+    private static final int[] NUM_ROUNDS = {10, 20};
+
+    private final int numNodes;
+    private final int repetitions;
+    private final long seed;
+    private final ConcurrentMap<String, FollowGraph> graphs = new ConcurrentHashMap<>();
+
+    public ParameterSweep(int numNodes, int repetitions, long seed) {
+        this.numNodes = numNodes;
+        this.repetitions = repetitions;
+        this.seed = seed;
+    }
+
+    /**
+     * Optional arguments: report file (sweep.csv), repetitions (5), seed (42) and number of nodes (100)
+     */
+    public static void main(String[] args) throws Exception {
+        final String report = args.length > 0 ? args[0] : "sweep.csv";
+        final int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        final int numNodes = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+        final long start = System.nanoTime();
+        final List<Aggregate> aggregates = new ParameterSweep(numNodes, repetitions, seed).run();
+        try (Writer writer = Files.newBufferedWriter(Paths.get(report), StandardCharsets.UTF_8)) {
+            if (report.endsWith(".json")) {
+                writeJson(aggregates, writer);
+            } else {
+                writeCsv(aggregates, writer);
+            }
+        }
+        System.out.println(aggregates.size() + " combinations x " + repetitions + " repetitions written to " + report
+                + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    public List<Aggregate> run() throws InterruptedException, ExecutionException {
+        final ExecutorService pool = Executors.newWorkStealingPool();
+        try {
+            final List<Aggregate> aggregates = new ArrayList<>();
+            final List<List<Future<SimulationRun.SimulationResult>>> futures = new ArrayList<>();
+            for (double p_graph : P_GRAPHS) {
+                for (double p_malicious : P_MALICIOUS) {
+                    for (double p_txDistribution : P_TX_DISTRIBUTIONS) {
+                        for (int numRounds : NUM_ROUNDS) {
+                            final int combination = aggregates.size();
+                            aggregates.add(new Aggregate(p_graph, p_malicious, p_txDistribution, numRounds));
+                            final SimulationRun simulationRun = new SimulationRun(numNodes, p_graph, p_malicious, p_txDistribution, numRounds);
+                            final List<Future<SimulationRun.SimulationResult>> runs = new ArrayList<>(repetitions);
+                            for (int repetition = 0; repetition < repetitions; repetition++) {
+                                final FollowGraph graph = getGraph(p_graph, repetition);
+                                final Random random = new Random(seed * 1_000_003L + combination * 10_007L + repetition);
+                                runs.add(pool.submit(() -> simulationRun.run(graph, random)));
+                            }
+                            futures.add(runs);
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < aggregates.size(); i++) {
+                for (Future<SimulationRun.SimulationResult> run : futures.get(i)) {
+                    aggregates.get(i).add(run.get());
+                }
+            }
+            return aggregates;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * The follow graph only depends on p_graph, it is generated once per repetition
+     */
+    private FollowGraph getGraph(final double p_graph, final int repetition) {
+        return graphs.computeIfAbsent(p_graph + "/" + repetition,
+                key -> FollowGraph.random(numNodes, p_graph, new Random(seed * 31 + Double.hashCode(p_graph) * 17L + repetition)));
+    }
+
+    private static void writeCsv(final List<Aggregate> aggregates, final Writer writer) throws IOException {
+        writer.write("p_graph,p_malicious,p_txDistribution,numRounds,runs,meanConsensusRate,minConsensusRate,meanAgreementSetSize,meanWallTimeMs\n");
+        for (Aggregate aggregate : aggregates) {
+            writer.write(String.format(Locale.ROOT, "%.2f,%.2f,%.2f,%d,%d,%.4f,%.4f,%.1f,%.3f%n",
+                    aggregate.p_graph, aggregate.p_malicious, aggregate.p_txDistribution, aggregate.numRounds, aggregate.runs,
+                    aggregate.getMeanConsensusRate(), aggregate.minConsensusRate, aggregate.getMeanAgreementSetSize(), aggregate.getMeanWallTimeMs()));
+        }
+    }
+
+    private static void writeJson(final List<Aggregate> aggregates, final Writer writer) throws IOException {
+        writer.write("[\n");
+        for (int i = 0; i < aggregates.size(); i++) {
+            final Aggregate aggregate = aggregates.get(i);
+            writer.write(String.format(Locale.ROOT,
+                    "  {\"p_graph\": %.2f, \"p_malicious\": %.2f, \"p_txDistribution\": %.2f, \"numRounds\": %d, \"runs\": %d, "
+                            + "\"meanConsensusRate\": %.4f, \"minConsensusRate\": %.4f, \"meanAgreementSetSize\": %.1f, \"meanWallTimeMs\": %.3f}%s%n",
+                    aggregate.p_graph, aggregate.p_malicious, aggregate.p_txDistribution, aggregate.numRounds, aggregate.runs,
+                    aggregate.getMeanConsensusRate(), aggregate.minConsensusRate, aggregate.getMeanAgreementSetSize(), aggregate.getMeanWallTimeMs(),
+                    i < aggregates.size() - 1 ? "," : ""));
+        }
+        writer.write("]\n");
+    }
+
+    /**
+     * Results of all the repetitions of one combination of parameters
+     */
+    public static class Aggregate {
+        private final double p_graph;
+        private final double p_malicious;
+        private final double p_txDistribution;
+        private final int numRounds;
+        private int runs;
+        private double sumConsensusRate;
+        private double minConsensusRate = 1;
+        private long sumAgreementSetSize;
+        private long sumWallTimeNanos;
+
+        private Aggregate(double p_graph, double p_malicious, double p_txDistribution, int numRounds) {
+            this.p_graph = p_graph;
+            this.p_malicious = p_malicious;
+            this.p_txDistribution = p_txDistribution;
+            this.numRounds = numRounds;
+        }
+
+        private void add(final SimulationRun.SimulationResult result) {
+            runs++;
+            sumConsensusRate += result.getConsensusRate();
+            minConsensusRate = Math.min(minConsensusRate, result.getConsensusRate());
+            sumAgreementSetSize += result.getAgreementSetSize();
+            sumWallTimeNanos += result.getWallTimeNanos();
+        }
+
+        public double getMeanConsensusRate() {
+            return runs == 0 ? 0 : sumConsensusRate / runs;
+        }
+
+        public double getMinConsensusRate() {
+            return minConsensusRate;
+        }
+
+        public double getMeanAgreementSetSize() {
+            return runs == 0 ? 0 : (double) sumAgreementSetSize / runs;
+        }
+
+        public double getMeanWallTimeMs() {
+            return runs == 0 ? 0 : sumWallTimeNanos / 1e6 / runs;
+        }
+    }
+}
@@ -1,17 +1,18 @@
 package org.vieuxchameau.consensusFromTrust;
 
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.stream.Collectors;
 
 // Example of a Simulation. This test runs the nodes on a random graph.
-// At the end, it will print out the Transaction ids which each node
+// At the end, it will write out the Transaction ids which each node
 // believes consensus has been reached upon. You can use this simulation to
 // test your nodes. You will want to try creating some deviant nodes and
 // mixing them in the network to fully test.
 public class Simulation {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         // There are four required command line arguments: p_graph (.1, .2, .3),
         // p_malicious (.15, .30, .45), p_txDistribution (.01, .05, .10),
@@ -23,9 +24,17 @@ public class Simulation {
         double p_malicious = Double.parseDouble(args[1]); // prob. that a node will be set to be malicious
         double p_txDistribution = Double.parseDouble(args[2]); // probability of assigning an initial transaction to each node
         int numRounds = Integer.parseInt(args[3]); // number of simulation rounds your nodes will run for
+        // optional: only send the newly accepted transactions with a full resync every resyncInterval rounds,
+        // and stop as soon as the proposals do not change anymore
+        int resyncInterval = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        // optional: file the results are written to, as CSV or as binary if its name ends with .bin
+        String resultFile = args.length > 5 ? args[5] : "simulation.csv";
+        // optional: number of threads calling the nodes, the results do not depend on it
+        int nodeThreads = args.length > 6 ? Integer.parseInt(args[6]) : 1;
 
         // pick which nodes are malicious and which are compliant
         Node[] nodes = new Node[numNodes];
+        boolean[] compliant = new boolean[numNodes];
         for (int i = 0; i < numNodes; i++) {
             // When you are ready to try testing with malicious nodes, replace the
             // instantiation below with an instantiation of a MaliciousNode
@@ -33,32 +42,18 @@ public class Simulation {
                 nodes[i] = new MaliciousNode(p_graph, p_malicious, p_txDistribution, numRounds);
             } else {
                 nodes[i] = new CompliantNode(p_graph, p_malicious, p_txDistribution, numRounds);
+                compliant[i] = true;
             }
         }
 
 
         // initialize random follow graph
-        boolean[][] followees = new boolean[numNodes][numNodes]; // followees[i][j] is true iff i follows j
-        for (int i = 0; i < numNodes; i++) {
-            for (int j = 0; j < numNodes; j++) {
-                if (i == j) {
-                    continue;
-                }
-                if (Math.random() < p_graph) { // p_graph is .1, .2, or .3
-                    followees[i][j] = true;
-                }
-            }
-        }
-
-        // notify all nodes of their followees
-        for (int i = 0; i < numNodes; i++) {
-            nodes[i].setFollowees(followees[i]);
-        }
+        Random random = new Random();
+        FollowGraph followGraph = FollowGraph.random(numNodes, p_graph, random); // p_graph is .1, .2, or .3
 
         // initialize a set of 500 valid Transactions with random ids
         int numTx = 500;
         HashSet<Integer> validTxIds = new HashSet<Integer>();
-        Random random = new Random();
         for (int i = 0; i < numTx; i++) {
             int r = random.nextInt();
             validTxIds.add(r);
@@ -80,69 +75,39 @@ public class Simulation {
         }
 
 
-        // Simulate for numRounds times
-        for (int round = 0; round < numRounds; round++) { // numRounds is either 10 or 20
-
-            // gather all the proposals into a map. The key is the index of the node receiving
-            // proposals. The value is an ArrayList containing 1x2 Integer arrays. The first
-            // element of each array is the id of the transaction being proposed and the second
-            // element is the index # of the node proposing the transaction.
-            HashMap<Integer, Set<Candidate>> allProposals = new HashMap<>();
+        // notify all nodes of their followees, only the valid transactions will be routed
+        int[] txIds = new int[validTxIds.size()];
+        int numValidTx = 0;
+        for (Integer txID : validTxIds) {
+            txIds[numValidTx++] = txID;
+        }
+        SimulationEngine engine = new SimulationEngine(nodes, followGraph, TransactionIdSet.wrap(txIds, txIds.length));
+        if (resyncInterval > 0) {
+            engine.enableDeltaGossip(resyncInterval);
+            engine.setStopWhenQuiescent(true);
+        }
+        engine.setNodeThreads(nodeThreads);
 
-            for (int i = 0; i < numNodes; i++) {
-                Set<Transaction> proposals = nodes[i].sendToFollowers();
-                for (Transaction tx : proposals) {
-                    if (!validTxIds.contains(tx.id)) {
-                        continue; // ensure that each tx is actually valid
-                    }
-
-                    for (int j = 0; j < numNodes; j++) {
-                        if (!followees[j][i]) {
-                            continue; // tx only matters if j follows i
-                        }
-
-                        if (!allProposals.containsKey(j)) {
-                            Set<Candidate> candidates = new HashSet<>();
-                            allProposals.put(j, candidates);
-                        }
-
-                        Candidate candidate = new Candidate(tx, i);
-                        allProposals.get(j).add(candidate);
-                    }
+        // Simulate for numRounds times
+        engine.run(numRounds); // numRounds is either 10 or 20
 
-                }
+        // write results
+        try (SimulationResultWriter writer = new SimulationResultWriter(Paths.get(resultFile))) {
+            for (SimulationEngine.RoundStats stats : engine.getRoundStats()) {
+                writer.writeRound(stats);
             }
-
-            // Distribute the Proposals to their intended recipients as Candidates
             for (int i = 0; i < numNodes; i++) {
-                if (allProposals.containsKey(i)) {
-                    nodes[i].receiveFromFollowees(allProposals.get(i));
-                }
+                writer.writeNode(i, compliant[i], TransactionIdSet.of(nodes[i].sendToFollowers()));
             }
-        }
 
-        // print results
-        Map<Integer, Integer> consensus = new HashMap<>();
-        for (int i = 0; i < numNodes; i++) {
-            final Node node = nodes[i];
-
-            Set<Transaction> transactions = node.sendToFollowers();
-            final String txs = transactions.stream()
-                    .map(t -> String.valueOf(t.id))
-                    .sorted()
-                    .collect(Collectors.joining(", ", "[", "]"));
-            System.out.println(
-
-                    " Node " + i + " believes consensus on " + transactions.size() + " txs : " + txs);
-            final int hash = transactions.hashCode();
-            final Integer nb = consensus.get(hash);
-            if (nb != null) {
-                System.out.println("nb = " + transactions.size());
-                consensus.put(hash, nb + 1);
-            } else {
-                consensus.put(hash, 1);
+            final int agreementSet = writer.getAgreementSet();
+            System.out.println(" Results written to " + resultFile + ", " + writer.getNumDistinctSets() + " distinct sets");
+            if (agreementSet >= 0) {
+                System.out.println(" " + writer.getNumCompliantNodes(agreementSet) + " of " + writer.getNumCompliantNodes()
+                        + " compliant nodes believe consensus on " + writer.getSet(agreementSet).size() + " txs");
             }
         }
+        System.out.println(" Convergence round: " + engine.getConvergenceRound());
 
     }
 
@@ -0,0 +1,403 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Runs the rounds of a simulation over a {@link FollowGraph}. Each round the proposal of every node is
+ * turned once into the sorted ids of its valid transactions, then the receivers gather the ids of their
+ * followees into {@link CandidateBatch}es, a batch of receivers at a time so that the memory held by the
+ * candidate batches stays bounded.
+ * Both steps run in parallel and the buffers are reused from one batch and one round to the next.
+ * The nodes themselves are called sequentially unless {@linkplain #setNodeThreads(int) node threads} are
+ * set: the nodes are then split between a fixed pool of workers, which all finish a phase before the next
+ * one starts. Nodes share no state, so each node is given the same candidates in the same rounds whatever
+ * the number of threads and the results do not change.
+ * <p>
+ * With {@linkplain #enableDeltaGossip(int) delta gossip} the nodes which support it are only sent the
+ * transactions their followees have accepted since the previous round, with a full resync every few rounds.
+ * As the proposals of compliant nodes only grow, the deltas are enough to rebuild the full proposals; the
+ * resync bounds how long a sender dropping transactions goes unnoticed.
+ */
+public class SimulationEngine {
+
+    /**
+     * number of receivers whose candidates are gathered in parallel before being delivered
+     */
+    private static final int RECEIVER_BATCH_SIZE = 1024;
+    /**
+     * A candidate is accepted the round after it has been received twice, so the proposals can still change
+     * after a single round without change but not after two.
+     */
+    private static final int QUIESCENT_ROUNDS = 2;
+
+    private final Node[] nodes;
+    private final FollowGraph graph;
+    private final TransactionIdSet validTxIds;
+    private int[][] txIdsBySender;
+    private int[] numTxIdsBySender;
+    /**
+     * the ids sent the round before, their arrays are reused for the next round
+     */
+    private int[][] previousTxIdsBySender;
+    private int[] numPreviousTxIdsBySender;
+    private final int[][] deltaTxIdsBySender;
+    private final int[] numDeltaTxIdsBySender;
+    private final boolean[] changedBySender;
+    private final CandidateBatch[] inboxes;
+    private int resyncInterval;
+    private boolean stopWhenQuiescent;
+    private boolean routeInvalidTransactions;
+    private int round;
+    private int quiescentRounds;
+    private boolean roundDependent;
+    private final List<RoundStats> roundStats = new ArrayList<>();
+    private WorkerPool workerPool;
+
+    /**
+     * Notifies every node of its followees
+     *
+     * @param validTxIds only the transactions with these ids are routed
+     */
+    public SimulationEngine(final Node[] nodes, final FollowGraph graph, final TransactionIdSet validTxIds) {
+        this.nodes = nodes;
+        this.graph = graph;
+        this.validTxIds = validTxIds;
+        this.txIdsBySender = new int[nodes.length][];
+        this.numTxIdsBySender = new int[nodes.length];
+        this.previousTxIdsBySender = new int[nodes.length][];
+        this.numPreviousTxIdsBySender = new int[nodes.length];
+        this.deltaTxIdsBySender = new int[nodes.length][];
+        this.numDeltaTxIdsBySender = new int[nodes.length];
+        this.changedBySender = new boolean[nodes.length];
+        this.inboxes = new CandidateBatch[Math.min(RECEIVER_BATCH_SIZE, nodes.length)];
+        for (int i = 0; i < inboxes.length; i++) {
+            inboxes[i] = new CandidateBatch();
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i].setFollowees(graph.getFollowees(i), nodes.length);
+        }
+    }
+
+    /**
+     * Only sends the newly accepted transactions to the nodes supporting it, the first round and then every
+     * {@code resyncInterval} rounds send the full proposals
+     */
+    public void enableDeltaGossip(final int resyncInterval) {
+        if (resyncInterval < 1) {
+            throw new IllegalArgumentException("The resync interval must be positive: " + resyncInterval);
+        }
+        this.resyncInterval = resyncInterval;
+    }
+
+    /**
+     * Calls the nodes from {@code threads} worker threads, 1 calls them sequentially from the calling thread.
+     * The workers are daemon threads, they are stopped when the number of threads is changed.
+     */
+    public void setNodeThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+        }
+        if (workerPool != null) {
+            workerPool.shutdown();
+        }
+        workerPool = threads == 1 ? null : new WorkerPool(threads);
+    }
+
+    /**
+     * Routes every proposed id, including the ones which are not in {@code validTxIds}, so that the nodes have
+     * to cope with fabricated transactions themselves. Off by default, as in the original simulation.
+     */
+    public void setRouteInvalidTransactions(final boolean routeInvalidTransactions) {
+        this.routeInvalidTransactions = routeInvalidTransactions;
+    }
+
+    /**
+     * Stops {@link #run(int)} once no proposal has changed for two rounds in a row and no node is
+     * {@linkplain Node#isRoundDependent() round dependent}. Past that point the proposals of compliant nodes can
+     * not change anymore, the ones of round dependent nodes could still change without anything new being sent.
+     */
+    public void setStopWhenQuiescent(final boolean stopWhenQuiescent) {
+        this.stopWhenQuiescent = stopWhenQuiescent;
+    }
+
+    /**
+     * @return the number of rounds actually run, less than {@code numRounds} if the simulation became quiescent
+     */
+    public int run(final int numRounds) {
+        for (int i = 0; i < numRounds; i++) {
+            runRound();
+            if (stopWhenQuiescent && isQuiescent()) {
+                return i + 1;
+            }
+        }
+        return numRounds;
+    }
+
+    public void runRound() {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Set<Transaction>[] proposals = new Set[nodes.length];
+        stepNodes(nodes.length, i -> proposals[i] = nodes[i].sendToFollowers());
+
+        swapWithPrevious();
+        final boolean fullSync = resyncInterval == 0 || round % resyncInterval == 0;
+        // the candidates only depend on their sender so they are computed once for all the followers
+        IntStream.range(0, nodes.length).parallel().forEach(sender -> toTxIds(sender, proposals[sender]));
+
+        long routedCandidates = 0;
+        for (int from = 0; from < nodes.length; from += inboxes.length) {
+            final int batchStart = from;
+            final int batchSize = Math.min(inboxes.length, nodes.length - from);
+            IntStream.range(0, batchSize).parallel().forEach(k -> gatherCandidates(batchStart + k, inboxes[k], fullSync));
+
+            stepNodes(batchSize, k -> {
+                // a node rebuilding the proposals from deltas must be told when nothing has changed
+                if (!inboxes[k].isEmpty() || inboxes[k].isDelta()) {
+                    nodes[batchStart + k].receiveFromFollowees(inboxes[k]);
+                }
+            });
+            for (int k = 0; k < batchSize; k++) {
+                routedCandidates += inboxes[k].size();
+                inboxes[k].clear();
+            }
+        }
+
+        int changedNodes = 0;
+        for (boolean changed : changedBySender) {
+            if (changed) {
+                changedNodes++;
+            }
+        }
+        roundStats.add(new RoundStats(round, fullSync, routedCandidates, changedNodes));
+        quiescentRounds = changedNodes == 0 ? quiescentRounds + 1 : 0;
+        roundDependent = false;
+        for (Node node : nodes) {
+            if (node.isRoundDependent()) {
+                roundDependent = true;
+                break;
+            }
+        }
+        round++;
+    }
+
+    /**
+     * Calls {@code step} for 0 to {@code size - 1}, on the worker pool if there is one, and returns once all
+     * the calls are done
+     */
+    private void stepNodes(final int size, final IntConsumer step) {
+        if (workerPool == null) {
+            for (int i = 0; i < size; i++) {
+                step.accept(i);
+            }
+        } else {
+            workerPool.forEach(size, step);
+        }
+    }
+
+    private void swapWithPrevious() {
+        final int[][] txIds = previousTxIdsBySender;
+        final int[] numTxIds = numPreviousTxIdsBySender;
+        previousTxIdsBySender = txIdsBySender;
+        numPreviousTxIdsBySender = numTxIdsBySender;
+        txIdsBySender = txIds;
+        numTxIdsBySender = numTxIds;
+    }
+
+    private void toTxIds(final int sender, final Set<Transaction> proposal) {
+        int[] txIds = txIdsBySender[sender];
+        if (txIds == null || txIds.length < proposal.size()) {
+            txIds = new int[proposal.size()];
+            txIdsBySender[sender] = txIds;
+        }
+        int numTxIds = 0;
+        for (Transaction tx : proposal) {
+            if (routeInvalidTransactions || validTxIds.contains(tx.id)) { // ensure that each tx is actually valid
+                txIds[numTxIds++] = tx.id;
+            }
+        }
+        // a proposal is a set so its ids are already distinct
+        Arrays.sort(txIds, 0, numTxIds);
+        numTxIdsBySender[sender] = numTxIds;
+        computeDelta(sender);
+    }
+
+    /**
+     * Merges the ids sent this round with the ones sent the round before to find the new ones
+     */
+    private void computeDelta(final int sender) {
+        final int[] txIds = txIdsBySender[sender];
+        final int numTxIds = numTxIdsBySender[sender];
+        final int[] previousTxIds = previousTxIdsBySender[sender];
+        final int numPreviousTxIds = numPreviousTxIdsBySender[sender];
+        int[] deltaTxIds = deltaTxIdsBySender[sender];
+        if (deltaTxIds == null || deltaTxIds.length < numTxIds) {
+            deltaTxIds = new int[Math.max(numTxIds, 16)];
+            deltaTxIdsBySender[sender] = deltaTxIds;
+        }
+        int numDeltaTxIds = 0;
+        int j = 0;
+        for (int i = 0; i < numTxIds; i++) {
+            final int id = txIds[i];
+            while (j < numPreviousTxIds && previousTxIds[j] < id) {
+                j++;
+            }
+            if (j == numPreviousTxIds || previousTxIds[j] != id) {
+                deltaTxIds[numDeltaTxIds++] = id;
+            }
+        }
+        numDeltaTxIdsBySender[sender] = numDeltaTxIds;
+        // nothing new and as many ids means the same ids
+        changedBySender[sender] = numDeltaTxIds > 0 || numTxIds != numPreviousTxIds;
+    }
+
+    /**
+     * The followees of a node are sorted so the groups are added in ascending sender order
+     */
+    private void gatherCandidates(final int receiver, final CandidateBatch inbox, final boolean fullSync) {
+        final boolean delta = !fullSync && nodes[receiver].supportsDeltaGossip();
+        inbox.setDelta(delta);
+        final int[][] txIdsBySender = delta ? deltaTxIdsBySender : this.txIdsBySender;
+        final int[] numTxIdsBySender = delta ? numDeltaTxIdsBySender : this.numTxIdsBySender;
+        for (int k = 0; k < graph.getNumFollowees(receiver); k++) {
+            final int followee = graph.getFollowee(receiver, k);
+            inbox.addGroup(followee, txIdsBySender[followee], numTxIdsBySender[followee]);
+        }
+    }
+
+    public boolean isQuiescent() {
+        return quiescentRounds >= QUIESCENT_ROUNDS && !roundDependent;
+    }
+
+    /**
+     * @return the round whose proposals are the final ones, or -1 if the simulation is not quiescent yet
+     */
+    public int getConvergenceRound() {
+        return isQuiescent() ? Math.max(0, round - quiescentRounds - 1) : -1;
+    }
+
+    /**
+     * @return the statistics of every round run so far
+     */
+    public List<RoundStats> getRoundStats() {
+        return Collections.unmodifiableList(roundStats);
+    }
+
+    public Node[] getNodes() {
+        return nodes;
+    }
+
+    public FollowGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Fixed pool of worker threads, each range of indexes is processed by a single worker. There are more
+     * ranges than workers so that a worker which is given cheap nodes, such as silent malicious ones, takes
+     * another range instead of waiting for the others.
+     */
+    private static final class WorkerPool {
+        private static final int RANGES_PER_THREAD = 4;
+
+        private final int threads;
+        private final ExecutorService executor;
+
+        private WorkerPool(final int threads) {
+            this.threads = threads;
+            final AtomicInteger nextId = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+                final Thread thread = new Thread(runnable, "simulation-node-" + nextId.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private void forEach(final int size, final IntConsumer action) {
+            final int numRanges = Math.min(size, threads * RANGES_PER_THREAD);
+            final List<Callable<Void>> ranges = new ArrayList<>(numRanges);
+            for (int r = 0; r < numRanges; r++) {
+                final int from = (int) ((long) size * r / numRanges);
+                final int to = (int) ((long) size * (r + 1) / numRanges);
+                ranges.add(() -> {
+                    for (int i = from; i < to; i++) {
+                        action.accept(i);
+                    }
+                    return null;
+                });
+            }
+            try {
+                // invokeAll is the barrier: it only returns once every range is done
+                for (Future<Void> range : executor.invokeAll(ranges)) {
+                    range.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while stepping the nodes", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        private void shutdown() {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Message volume of a round
+     */
+    public static class RoundStats {
+        private final int round;
+        private final boolean fullSync;
+        private final long routedCandidates;
+        private final int changedNodes;
+
+        private RoundStats(int round, boolean fullSync, long routedCandidates, int changedNodes) {
+            this.round = round;
+            this.fullSync = fullSync;
+            this.routedCandidates = routedCandidates;
+            this.changedNodes = changedNodes;
+        }
+
+        public int getRound() {
+            return round;
+        }
+
+        /**
+         * @return false if the nodes supporting delta gossip were only sent the new transactions
+         */
+        public boolean isFullSync() {
+            return fullSync;
+        }
+
+        /**
+         * @return the number of transaction ids delivered to all the nodes
+         */
+        public long getRoutedCandidates() {
+            return routedCandidates;
+        }
+
+        /**
+         * @return the number of nodes whose proposal differs from the one they sent the round before
+         */
+        public int getChangedNodes() {
+            return changedNodes;
+        }
+    }
+}
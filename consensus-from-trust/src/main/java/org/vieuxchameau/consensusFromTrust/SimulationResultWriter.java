@@ -0,0 +1,196 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the results of a simulation to a file through a fixed size buffer, as CSV or, when the file name
+ * ends with {@code .bin}, as big endian binary records. Each distinct transaction set is written once, the
+ * first time a node ends up with it, and the nodes only refer to the index of their set. Sets are told apart
+ * by their {@linkplain TransactionIdSet#fingerprint() fingerprint} and compared when fingerprints match, so
+ * the agreement counted among the compliant nodes is exact.
+ * <p>
+ * The records, in CSV then in binary after the {@code CFTR} magic and the format version:
+ * <pre>
+ * round,&lt;round&gt;,&lt;full sync 0|1&gt;,&lt;routed candidates&gt;,&lt;changed nodes&gt;  'R' int byte long int
+ * set,&lt;set&gt;,&lt;size&gt;,&lt;fingerprint in hex&gt;,&lt;space separated ids&gt;       'S' int int long int[size]
+ * node,&lt;node&gt;,&lt;compliant 0|1&gt;,&lt;set&gt;                                   'N' int byte int
+ * </pre>
+ */
+public class SimulationResultWriter implements Closeable {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final boolean binary;
+    /**
+     * reused to format the CSV records
+     */
+    private final StringBuilder line = new StringBuilder();
+
+    private final Map<Long, List<Integer>> setIndexesByFingerprint = new HashMap<>();
+    private final List<TransactionIdSet> sets = new ArrayList<>();
+    private final List<Integer> compliantNodesBySet = new ArrayList<>();
+    private int numCompliantNodes;
+
+    public SimulationResultWriter(final Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.binary = path.toString().endsWith(".bin");
+        if (binary) {
+            buffer.put((byte) 'C').put((byte) 'F').put((byte) 'T').put((byte) 'R').putInt(FORMAT_VERSION);
+        }
+    }
+
+    public void writeRound(final SimulationEngine.RoundStats stats) throws IOException {
+        if (binary) {
+            ensureRemaining(1 + 4 + 1 + 8 + 4);
+            buffer.put((byte) 'R').putInt(stats.getRound()).put((byte) (stats.isFullSync() ? 1 : 0))
+                    .putLong(stats.getRoutedCandidates()).putInt(stats.getChangedNodes());
+        } else {
+            line.setLength(0);
+            line.append("round,").append(stats.getRound()).append(',').append(stats.isFullSync() ? 1 : 0).append(',')
+                    .append(stats.getRoutedCandidates()).append(',').append(stats.getChangedNodes()).append('\n');
+            writeLine();
+        }
+    }
+
+    /**
+     * Writes the set of {@code txs} first if no node has been written with it yet
+     */
+    public void writeNode(final int node, final boolean compliant, final TransactionIdSet txs) throws IOException {
+        final int set = indexOf(txs);
+        if (compliant) {
+            numCompliantNodes++;
+            compliantNodesBySet.set(set, compliantNodesBySet.get(set) + 1);
+        }
+        if (binary) {
+            ensureRemaining(1 + 4 + 1 + 4);
+            buffer.put((byte) 'N').putInt(node).put((byte) (compliant ? 1 : 0)).putInt(set);
+        } else {
+            line.setLength(0);
+            line.append("node,").append(node).append(',').append(compliant ? 1 : 0).append(',').append(set).append('\n');
+            writeLine();
+        }
+    }
+
+    private int indexOf(final TransactionIdSet txs) throws IOException {
+        final long fingerprint = txs.fingerprint();
+        List<Integer> setIndexes = setIndexesByFingerprint.get(fingerprint);
+        if (setIndexes == null) {
+            setIndexes = new ArrayList<>(1);
+            setIndexesByFingerprint.put(fingerprint, setIndexes);
+        } else {
+            for (int setIndex : setIndexes) {
+                if (sets.get(setIndex).equals(txs)) {
+                    return setIndex;
+                }
+            }
+        }
+        final int setIndex = sets.size();
+        setIndexes.add(setIndex);
+        sets.add(txs);
+        compliantNodesBySet.add(0);
+        writeSet(setIndex, fingerprint, txs);
+        return setIndex;
+    }
+
+    private void writeSet(final int setIndex, final long fingerprint, final TransactionIdSet txs) throws IOException {
+        if (binary) {
+            ensureRemaining(1 + 4 + 4 + 8);
+            buffer.put((byte) 'S').putInt(setIndex).putInt(txs.size()).putLong(fingerprint);
+            for (int i = 0; i < txs.size(); i++) {
+                ensureRemaining(4);
+                buffer.putInt(txs.get(i));
+            }
+        } else {
+            line.setLength(0);
+            line.append("set,").append(setIndex).append(',').append(txs.size()).append(',').append(Long.toHexString(fingerprint)).append(',');
+            for (int i = 0; i < txs.size(); i++) {
+                if (i > 0) {
+                    line.append(' ');
+                }
+                line.append(txs.get(i));
+            }
+            line.append('\n');
+            writeLine();
+        }
+    }
+
+    /**
+     * CSV records are plain ASCII
+     */
+    private void writeLine() throws IOException {
+        for (int i = 0; i < line.length(); i++) {
+            ensureRemaining(1);
+            buffer.put((byte) line.charAt(i));
+        }
+    }
+
+    private void ensureRemaining(final int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the number of distinct sets written so far
+     */
+    public int getNumDistinctSets() {
+        return sets.size();
+    }
+
+    public int getNumCompliantNodes() {
+        return numCompliantNodes;
+    }
+
+    /**
+     * @return the index of the set shared by the largest number of compliant nodes, -1 if there is no compliant node
+     */
+    public int getAgreementSet() {
+        int agreementSet = -1;
+        for (int set = 0; set < sets.size(); set++) {
+            if (compliantNodesBySet.get(set) > 0 && (agreementSet < 0 || compliantNodesBySet.get(set) > compliantNodesBySet.get(agreementSet))) {
+                agreementSet = set;
+            }
+        }
+        return agreementSet;
+    }
+
+    /**
+     * @return the number of compliant nodes which have ended up with {@code set}
+     */
+    public int getNumCompliantNodes(final int set) {
+        return compliantNodesBySet.get(set);
+    }
+
+    public TransactionIdSet getSet(final int set) {
+        return sets.get(set);
+    }
+}
@@ -0,0 +1,164 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * One simulation with a given set of parameters, all its randomness coming from the {@code Random} it
+ * is run with so that a run can be reproduced from its seed.
+ */
+public class SimulationRun {
+
+    public static final int NUM_TX = 500;
+
+    /**
+     * Creates the malicious nodes of a run
+     */
+    public interface MaliciousNodeFactory {
+        Node create(int node, Random random);
+    }
+
+    private final int numNodes;
+    private final double p_graph;
+    private final double p_malicious;
+    private final double p_txDistribution;
+    private final int numRounds;
+    private MaliciousNodeFactory maliciousNodeFactory;
+
+    public SimulationRun(int numNodes, double p_graph, double p_malicious, double p_txDistribution, int numRounds) {
+        this.numNodes = numNodes;
+        this.p_graph = p_graph;
+        this.p_malicious = p_malicious;
+        this.p_txDistribution = p_txDistribution;
+        this.numRounds = numRounds;
+        this.maliciousNodeFactory = (node, random) -> new MaliciousNode(p_graph, p_malicious, p_txDistribution, numRounds);
+    }
+
+    /**
+     * @param maliciousNodeFactory replaces the {@link MaliciousNode}s, it is given the {@code Random} of the run
+     */
+    public void setMaliciousNodeFactory(final MaliciousNodeFactory maliciousNodeFactory) {
+        this.maliciousNodeFactory = maliciousNodeFactory;
+    }
+
+    /**
+     * Runs the simulation on {@code graph}, which must have {@code numNodes} nodes and may be shared with
+     * other runs, picking the malicious nodes and distributing the transactions with {@code random}
+     */
+    public SimulationResult run(final FollowGraph graph, final Random random) {
+        final long start = System.nanoTime();
+        final boolean[] compliant = new boolean[numNodes];
+        final Node[] nodes = createNodes(random, compliant);
+        final TransactionIdSet validTxIds = distributeTransactions(nodes, random);
+
+        new SimulationEngine(nodes, graph, validTxIds).run(numRounds);
+
+        return SimulationResult.of(nodes, compliant, System.nanoTime() - start);
+    }
+
+    /**
+     * @param compliant filled with whether each node is compliant
+     */
+    Node[] createNodes(final Random random, final boolean[] compliant) {
+        final Node[] nodes = new Node[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            if (random.nextDouble() < p_malicious) {
+                nodes[i] = maliciousNodeFactory.create(i, random);
+            } else {
+                nodes[i] = new CompliantNode(p_graph, p_malicious, p_txDistribution, numRounds);
+                compliant[i] = true;
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Gives each node each of {@link #NUM_TX} random transactions with probability p_txDistribution
+     *
+     * @return the ids of the valid transactions
+     */
+    TransactionIdSet distributeTransactions(final Node[] nodes, final Random random) {
+        final int[] txIds = new int[NUM_TX];
+        for (int i = 0; i < NUM_TX; i++) {
+            txIds[i] = random.nextInt();
+        }
+        final TransactionIdSet validTxIds = TransactionIdSet.wrap(txIds, txIds.length);
+
+        for (Node node : nodes) {
+            final Set<Transaction> pendingTransactions = new HashSet<>();
+            for (int t = 0; t < validTxIds.size(); t++) {
+                if (random.nextDouble() < p_txDistribution) {
+                    pendingTransactions.add(new Transaction(validTxIds.get(t)));
+                }
+            }
+            node.setPendingTransaction(pendingTransactions);
+        }
+        return validTxIds;
+    }
+
+    /**
+     * Agreement reached by the compliant nodes of a run
+     */
+    public static class SimulationResult {
+        private final int numCompliantNodes;
+        private final int numAgreeingNodes;
+        private final int agreementSetSize;
+        private final long wallTimeNanos;
+
+        private SimulationResult(int numCompliantNodes, int numAgreeingNodes, int agreementSetSize, long wallTimeNanos) {
+            this.numCompliantNodes = numCompliantNodes;
+            this.numAgreeingNodes = numAgreeingNodes;
+            this.agreementSetSize = agreementSetSize;
+            this.wallTimeNanos = wallTimeNanos;
+        }
+
+        /**
+         * The agreement set is the set of transactions the largest number of compliant nodes end up with
+         */
+        static SimulationResult of(final Node[] nodes, final boolean[] compliant, final long wallTimeNanos) {
+            final Map<TransactionIdSet, Integer> nodesBySet = new HashMap<>();
+            int numCompliantNodes = 0;
+            for (int i = 0; i < nodes.length; i++) {
+                if (compliant[i]) {
+                    numCompliantNodes++;
+                    nodesBySet.merge(TransactionIdSet.of(nodes[i].sendToFollowers()), 1, Integer::sum);
+                }
+            }
+            int numAgreeingNodes = 0;
+            int agreementSetSize = 0;
+            for (Map.Entry<TransactionIdSet, Integer> entry : nodesBySet.entrySet()) {
+                if (entry.getValue() > numAgreeingNodes) {
+                    numAgreeingNodes = entry.getValue();
+                    agreementSetSize = entry.getKey().size();
+                }
+            }
+            return new SimulationResult(numCompliantNodes, numAgreeingNodes, agreementSetSize, wallTimeNanos);
+        }
+
+        public int getNumCompliantNodes() {
+            return numCompliantNodes;
+        }
+
+        public int getNumAgreeingNodes() {
+            return numAgreeingNodes;
+        }
+
+        /**
+         * @return the fraction of the compliant nodes which agree on the agreement set, 1 when there is no compliant node
+         */
+        public double getConsensusRate() {
+            return numCompliantNodes == 0 ? 1 : (double) numAgreeingNodes / numCompliantNodes;
+        }
+
+        public int getAgreementSetSize() {
+            return agreementSetSize;
+        }
+
+        public long getWallTimeNanos() {
+            return wallTimeNanos;
+        }
+    }
+}
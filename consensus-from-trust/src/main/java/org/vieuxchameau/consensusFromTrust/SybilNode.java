@@ -0,0 +1,67 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.util.Set;
+
+/**
+ * Member of a coordinated group of malicious nodes. The members pool everything they hear of and stay
+ * silent until the release round, from which they all send the pooled transactions. Released late enough,
+ * the transactions are only accepted by the followers of the cluster and split the compliant nodes.
+ * <p>
+ * The pool is only fed while the nodes receive and only read while they send, so what the members send does
+ * not depend on the order in which they are called.
+ */
+public class SybilNode extends AdversarialNode {
+
+    private final Cluster cluster;
+
+    public SybilNode(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    @Override
+    public void setPendingTransaction(Set<Transaction> pendingTransactions) {
+        super.setPendingTransaction(pendingTransactions);
+        cluster.pool(TransactionIdSet.of(pendingTransactions));
+    }
+
+    @Override
+    protected TransactionIdSet propose(final int round, final TransactionIdSet heardTxs) {
+        return round < cluster.releaseRound ? TransactionIdSet.EMPTY : cluster.getPooledTxs();
+    }
+
+    @Override
+    protected void heard(final int round, final TransactionIdSet heardTxs) {
+        cluster.pool(heardTxs);
+    }
+
+    /**
+     * @return true until the release round has been sent
+     */
+    @Override
+    public boolean isRoundDependent() {
+        return getCurrentRound() <= cluster.releaseRound;
+    }
+
+    /**
+     * State shared by the members of a cluster, which may be called from several threads
+     */
+    public static class Cluster {
+        private final int releaseRound;
+        private TransactionIdSet pooledTxs = TransactionIdSet.EMPTY;
+
+        /**
+         * @param releaseRound {@code numRounds - 2} releases the transactions as late as they can still be accepted
+         */
+        public Cluster(int releaseRound) {
+            this.releaseRound = releaseRound;
+        }
+
+        private synchronized void pool(final TransactionIdSet txs) {
+            pooledTxs = pooledTxs.union(txs);
+        }
+
+        public synchronized TransactionIdSet getPooledTxs() {
+            return pooledTxs;
+        }
+    }
+}
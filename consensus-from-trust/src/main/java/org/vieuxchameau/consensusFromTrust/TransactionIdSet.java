@@ -0,0 +1,264 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Immutable set of transaction ids stored as a sorted array of ints. Transaction ids are random ints so a
+ * bitmap would be too sparse; the sorted array keeps 4 bytes per transaction, answers {@code contains} with
+ * a binary search and computes unions, differences and inclusions by merging both arrays in linear time.
+ */
+public final class TransactionIdSet {
+
+    public static final TransactionIdSet EMPTY = new TransactionIdSet(new int[0], 0);
+
+    private final int[] ids;
+    private final int size;
+
+    private TransactionIdSet(final int[] ids, final int size) {
+        this.ids = ids;
+        this.size = size;
+    }
+
+    /**
+     * @return the set of the first {@code length} ids of {@code ids}, the array is sorted in place and kept
+     * so it must not be modified afterwards
+     */
+    public static TransactionIdSet wrap(final int[] ids, final int length) {
+        Arrays.sort(ids, 0, length);
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            if (size == 0 || ids[size - 1] != ids[i]) {
+                ids[size++] = ids[i];
+            }
+        }
+        return size == 0 ? EMPTY : new TransactionIdSet(ids, size);
+    }
+
+    /**
+     * @return the set of the ids {@code sortedIds[from]} to {@code sortedIds[to - 1]}, which must be sorted and
+     * distinct, copied into a new array
+     */
+    public static TransactionIdSet copyOf(final int[] sortedIds, final int from, final int to) {
+        return from == to ? EMPTY : new TransactionIdSet(Arrays.copyOfRange(sortedIds, from, to), to - from);
+    }
+
+    public static TransactionIdSet of(final Collection<Transaction> transactions) {
+        final int[] ids = new int[transactions.size()];
+        int i = 0;
+        for (Transaction transaction : transactions) {
+            ids[i++] = transaction.id;
+        }
+        return wrap(ids, ids.length);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the {@code index}-th smallest id of the set
+     */
+    public int get(final int index) {
+        return ids[index];
+    }
+
+    public boolean contains(final int id) {
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /**
+     * @return true if every id of {@code other} is in this set
+     */
+    public boolean containsAll(final TransactionIdSet other) {
+        if (other.size > size) {
+            return false;
+        }
+        int i = 0;
+        for (int j = 0; j < other.size; j++) {
+            final int id = other.ids[j];
+            while (i < size && ids[i] < id) {
+                i++;
+            }
+            if (i == size || ids[i] != id) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every id of this set is one of the sorted ids {@code sortedIds[from]} to {@code sortedIds[to - 1]}
+     */
+    public boolean isContainedIn(final int[] sortedIds, final int from, final int to) {
+        if (size > to - from) {
+            return false;
+        }
+        int j = from;
+        for (int i = 0; i < size; i++) {
+            final int id = ids[i];
+            while (j < to && sortedIds[j] < id) {
+                j++;
+            }
+            if (j == to || sortedIds[j] != id) {
+                return false;
+            }
+            j++;
+        }
+        return true;
+    }
+
+    /**
+     * @return the ids which are in this set or in {@code other}
+     */
+    public TransactionIdSet union(final TransactionIdSet other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        final int[] merged = new int[size + other.size];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < size && j < other.size) {
+            final int id = ids[i];
+            final int otherId = other.ids[j];
+            if (id < otherId) {
+                merged[k++] = id;
+                i++;
+            } else if (id > otherId) {
+                merged[k++] = otherId;
+                j++;
+            } else {
+                merged[k++] = id;
+                i++;
+                j++;
+            }
+        }
+        while (i < size) {
+            merged[k++] = ids[i++];
+        }
+        while (j < other.size) {
+            merged[k++] = other.ids[j++];
+        }
+        return new TransactionIdSet(merged, k);
+    }
+
+    /**
+     * @return the ids of this set which are not in {@code other}
+     */
+    public TransactionIdSet difference(final TransactionIdSet other) {
+        if (isEmpty() || other.isEmpty()) {
+            return this;
+        }
+        // count first so that nothing is allocated when the result is empty or this set
+        final int remaining = size - countCommon(other);
+        if (remaining == size) {
+            return this;
+        }
+        if (remaining == 0) {
+            return EMPTY;
+        }
+        final int[] remainingIds = new int[remaining];
+        int j = 0;
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            final int id = ids[i];
+            while (j < other.size && other.ids[j] < id) {
+                j++;
+            }
+            if (j == other.size || other.ids[j] != id) {
+                remainingIds[k++] = id;
+            }
+        }
+        return new TransactionIdSet(remainingIds, remaining);
+    }
+
+    private int countCommon(final TransactionIdSet other) {
+        int common = 0;
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            final int id = ids[i];
+            while (j < other.size && other.ids[j] < id) {
+                j++;
+            }
+            if (j < other.size && other.ids[j] == id) {
+                common++;
+            }
+        }
+        return common;
+    }
+
+    /**
+     * @return a 64 bits hash of the ids, two different sets have the same fingerprint with a probability of
+     * about 2^-64 where their {@link #hashCode()} often collide
+     */
+    public long fingerprint() {
+        long hash = size;
+        for (int i = 0; i < size; i++) {
+            hash = (hash ^ mix(ids[i])) * 0x9E3779B97F4A7C15L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * finalizer of MurmurHash3
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * @return a new mutable set of the corresponding transactions
+     */
+    public Set<Transaction> toTransactions() {
+        final Set<Transaction> transactions = new HashSet<>(Math.max(16, (int) (size / .75f) + 1));
+        for (int i = 0; i < size; i++) {
+            transactions.add(new Transaction(ids[i]));
+        }
+        return transactions;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final TransactionIdSet other = (TransactionIdSet) obj;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (ids[i] != other.ids[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + ids[i];
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,44 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CandidateBatchTest {
+
+    private static Candidate candidate(final int txId, final int sender) {
+        return new Candidate(new Transaction(txId), sender);
+    }
+
+    private static int[] txIds(final CandidateBatch batch, final int group) {
+        return Arrays.copyOfRange(batch.getTxIds(), batch.getGroupStart(group), batch.getGroupEnd(group));
+    }
+
+    @Test
+    public void ofShouldGroupTheCandidatesBySenderWithSortedIds() {
+        final CandidateBatch batch = CandidateBatch.of(Arrays.asList(
+                candidate(4, 2),
+                candidate(-1, 0),
+                candidate(Integer.MIN_VALUE, 2),
+                candidate(-3, 2),
+                candidate(Integer.MAX_VALUE, 0),
+                candidate(-1, 0),
+                candidate(0, 1)));
+
+        assertEquals(6, batch.size());
+        assertEquals(3, batch.getNumGroups());
+        assertEquals(0, batch.getGroupSender(0));
+        assertArrayEquals(new int[]{-1, Integer.MAX_VALUE}, txIds(batch, 0));
+        assertEquals(1, batch.getGroupSender(1));
+        assertArrayEquals(new int[]{0}, txIds(batch, 1));
+        assertEquals(2, batch.getGroupSender(2));
+        assertArrayEquals(new int[]{Integer.MIN_VALUE, -3, 4}, txIds(batch, 2));
+        for (int k = 0; k < batch.size(); k++) {
+            final int group = k < 2 ? 0 : k < 3 ? 1 : 2;
+            assertEquals(batch.getGroupSender(group), batch.getSender(k));
+        }
+    }
+}
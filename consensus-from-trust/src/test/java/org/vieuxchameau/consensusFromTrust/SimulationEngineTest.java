@@ -0,0 +1,65 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SimulationEngineTest {
+
+    private static final int NUM_NODES = 200;
+    private static final double P_GRAPH = .1;
+    private static final double P_MALICIOUS = .3;
+    private static final double P_TX_DISTRIBUTION = .05;
+    private static final int NUM_ROUNDS = 10;
+    private static final long SEED = 42;
+
+    /**
+     * @return the final proposal of each node of the seeded simulation run by the engine set up by {@code configure}
+     */
+    private static TransactionIdSet[] run(final Consumer<SimulationEngine> configure) {
+        final Random random = new Random(SEED);
+        final FollowGraph graph = FollowGraph.random(NUM_NODES, P_GRAPH, random);
+        final SimulationRun setup = new SimulationRun(NUM_NODES, P_GRAPH, P_MALICIOUS, P_TX_DISTRIBUTION, NUM_ROUNDS);
+        final Node[] nodes = setup.createNodes(random, new boolean[NUM_NODES]);
+        final SimulationEngine engine = new SimulationEngine(nodes, graph, setup.distributeTransactions(nodes, random));
+        configure.accept(engine);
+
+        engine.run(NUM_ROUNDS);
+
+        final TransactionIdSet[] proposals = new TransactionIdSet[NUM_NODES];
+        for (int i = 0; i < NUM_NODES; i++) {
+            proposals[i] = TransactionIdSet.of(nodes[i].sendToFollowers());
+        }
+        return proposals;
+    }
+
+    private static void assertSameProposals(final TransactionIdSet[] expected, final TransactionIdSet[] actual) {
+        boolean empty = true;
+        for (int i = 0; i < NUM_NODES; i++) {
+            assertEquals("node " + i, expected[i], actual[i]);
+            empty &= expected[i].isEmpty();
+        }
+        assertFalse(empty);
+    }
+
+    @Test
+    public void deltaGossipShouldReachTheSameProposalsAsFullGossip() {
+        final TransactionIdSet[] full = run(engine -> {
+        });
+        final TransactionIdSet[] delta = run(engine -> engine.enableDeltaGossip(4));
+
+        assertSameProposals(full, delta);
+    }
+
+    @Test
+    public void nodeThreadsShouldNotChangeTheProposals() {
+        final TransactionIdSet[] sequential = run(engine -> engine.setNodeThreads(1));
+        final TransactionIdSet[] parallel = run(engine -> engine.setNodeThreads(4));
+
+        assertSameProposals(sequential, parallel);
+    }
+}
@@ -0,0 +1,91 @@
+package org.vieuxchameau.consensusFromTrust;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionIdSetTest {
+
+    private static TransactionIdSet set(final int... ids) {
+        return TransactionIdSet.wrap(ids, ids.length);
+    }
+
+    private static int[] ids(final TransactionIdSet set) {
+        final int[] ids = new int[set.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = set.get(i);
+        }
+        return ids;
+    }
+
+    @Test
+    public void wrapShouldSortAndDeduplicateTheIds() {
+        final int[] ids = {5, -3, Integer.MAX_VALUE, -3, Integer.MIN_VALUE, 5, 0, 42};
+
+        final TransactionIdSet set = TransactionIdSet.wrap(ids, 7);
+
+        // the id after length is ignored
+        assertArrayEquals(new int[]{Integer.MIN_VALUE, -3, 0, 5, Integer.MAX_VALUE}, ids(set));
+        assertTrue(set.contains(-3));
+        assertFalse(set.contains(42));
+    }
+
+    @Test
+    public void wrapOfNoIdShouldBeEmpty() {
+        assertSame(TransactionIdSet.EMPTY, TransactionIdSet.wrap(new int[]{1, 2}, 0));
+    }
+
+    @Test
+    public void unionShouldMergeBothSetsOnce() {
+        final TransactionIdSet union = set(-7, -1, 3, 9).union(set(-8, -1, 4, 9, 10));
+
+        assertArrayEquals(new int[]{-8, -7, -1, 3, 4, 9, 10}, ids(union));
+    }
+
+    @Test
+    public void unionWithAnEmptySetShouldBeTheOtherSet() {
+        final TransactionIdSet set = set(-2, 1);
+
+        assertSame(set, set.union(TransactionIdSet.EMPTY));
+        assertSame(set, TransactionIdSet.EMPTY.union(set));
+    }
+
+    @Test
+    public void differenceShouldRemoveTheCommonIds() {
+        final TransactionIdSet difference = set(-9, -4, 0, 6, 11).difference(set(-10, -4, 6, 12));
+
+        assertArrayEquals(new int[]{-9, 0, 11}, ids(difference));
+    }
+
+    @Test
+    public void differenceWithoutCommonIdShouldBeThisSet() {
+        final TransactionIdSet set = set(-5, 5);
+
+        assertSame(set, set.difference(set(-6, 6)));
+        assertSame(TransactionIdSet.EMPTY, set.difference(set(5, -5)));
+    }
+
+    @Test
+    public void containsAllShouldCompareNegativeAndPositiveIds() {
+        final TransactionIdSet set = set(Integer.MIN_VALUE, -20, -1, 0, 7);
+
+        assertTrue(set.containsAll(set(-20, Integer.MIN_VALUE, 7)));
+        assertTrue(set.containsAll(TransactionIdSet.EMPTY));
+        assertFalse(set.containsAll(set(-20, -2)));
+        assertFalse(set(-1).containsAll(set));
+    }
+
+    @Test
+    public void isContainedInShouldOnlyLookAtTheGivenRange() {
+        final int[] sortedIds = {-30, -12, -5, 0, 8, 15};
+
+        assertTrue(set(-12, 0).isContainedIn(sortedIds, 1, 4));
+        assertTrue(TransactionIdSet.EMPTY.isContainedIn(sortedIds, 2, 2));
+        assertFalse(set(-30, -12).isContainedIn(sortedIds, 1, 4));
+        assertFalse(set(-5, 15).isContainedIn(sortedIds, 1, 5));
+        assertFalse(set(-6).isContainedIn(sortedIds, 0, 6));
+    }
+}